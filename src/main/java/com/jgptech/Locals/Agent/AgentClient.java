@@ -0,0 +1,132 @@
+/*
+ * NAME: AgentClient
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Talks to a running unlock agent to get or hand over the key of a vault
+ */
+
+package com.jgptech.Locals.Agent;
+
+import com.jgptech.Locals.Encryption.CipherSession;
+import jdk.net.ExtendedSocketOptions;
+import jdk.net.UnixDomainPrincipal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public final class AgentClient {
+    // Prevent instantiation
+    private AgentClient() {}
+
+    // Returns true if there is an agent socket to connect to
+    public static boolean isRunning() {
+        return Files.exists(AgentProtocol.getSocketPath());
+    }
+
+    // Get a session for the vault from the agent. Returns null if no agent is running or it does not hold the key
+    public static CipherSession fetchSession(String vaultName) {
+        if(!isRunning()) {
+            return null;
+        }
+
+        try(SocketChannel channel = connect()) {
+            DataOutputStream out = output(channel);
+            out.writeByte(AgentProtocol.GET_KEY);
+            out.writeUTF(AgentProtocol.getVaultId(vaultName));
+            out.flush();
+
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+
+            if(in.readByte() != AgentProtocol.OK) {
+                return null;
+            }
+
+            byte[] key = new byte[in.readUnsignedShort()];
+
+            try {
+                in.readFully(key);
+                return new CipherSession(key);
+            } finally {
+                Arrays.fill(key, (byte) 0);
+            }
+        } catch(IOException e) {
+            // A socket left behind by an agent that is gone, the vault is unlocked with the password instead
+            return null;
+        }
+    }
+
+    // Hand the key of a vault unlocked with its password to the agent, if one is running
+    public static boolean addKey(String vaultName, CipherSession session) {
+        if(!isRunning()) {
+            return false;
+        }
+
+        byte[] key = session.getKey();
+
+        try(SocketChannel channel = connect()) {
+            DataOutputStream out = output(channel);
+            out.writeByte(AgentProtocol.ADD_KEY);
+            out.writeUTF(AgentProtocol.getVaultId(vaultName));
+            out.writeShort(key.length);
+            out.write(key);
+            out.flush();
+
+            return new DataInputStream(Channels.newInputStream(channel)).readByte() == AgentProtocol.OK;
+        } catch(IOException e) {
+            return false;
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    // Tell the agent to forget every key. Returns the amount of keys it dropped, or -1 if no agent could be reached
+    public static int lock() {
+        if(!isRunning()) {
+            return -1;
+        }
+
+        try(SocketChannel channel = connect()) {
+            DataOutputStream out = output(channel);
+            out.writeByte(AgentProtocol.LOCK);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            return in.readByte() == AgentProtocol.OK ? in.readInt() : -1;
+        } catch(IOException e) {
+            return -1;
+        }
+    }
+
+    // Connect to the agent, making sure it runs as the same user so keys are not handed to someone else's socket
+    private static SocketChannel connect() throws IOException {
+        Path socketPath = AgentProtocol.getSocketPath();
+        SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+
+        try {
+            UnixDomainPrincipal peer = channel.getOption(ExtendedSocketOptions.SO_PEERCRED);
+
+            if(peer == null || !System.getProperty("user.name").equals(peer.user().getName())) {
+                throw new IOException("agent on " + socketPath + " belongs to another user");
+            }
+        } catch(IOException | UnsupportedOperationException e) {
+            channel.close();
+            throw (e instanceof IOException) ? (IOException) e : new IOException(e);
+        }
+
+        return channel;
+    }
+
+    // Buffered output so each request goes out in one write
+    private static DataOutputStream output(SocketChannel channel) {
+        return new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * NAME: AgentProtocol
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Socket location and message codes shared by the unlock agent and its clients
+ */
+
+package com.jgptech.Locals.Agent;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+final class AgentProtocol {
+    // Environment variable that overrides where the agent socket is, like SSH_AUTH_SOCK
+    static final String SOCKET_ENV = "LOCALS_AGENT_SOCK";
+
+    // Requests. GET and ADD are followed by the vault path, ADD then by the key length and key
+    static final byte GET_KEY = 1;
+    static final byte ADD_KEY = 2;
+    static final byte LOCK = 3;
+
+    // Responses. A GET answered with OK is followed by the key length and key, a LOCK by the amount of keys dropped
+    static final byte OK = 0;
+    static final byte NOT_FOUND = 1;
+    static final byte BAD_REQUEST = 2;
+
+    // Largest key the agent will hold (bytes)
+    static final int MAX_KEY_LENGTH = 64;
+
+
+    // Prevent instantiation
+    private AgentProtocol() {}
+
+    // Get the path of the agent socket
+    static Path getSocketPath() {
+        String override = System.getenv(SOCKET_ENV);
+
+        if(override != null && !override.isEmpty()) {
+            return Paths.get(override);
+        }
+
+        return Paths.get(System.getProperty("user.home"), ".locals", "agent.sock");
+    }
+
+    // Get the name a vault's key is held under, so the same file opened through different relative paths matches
+    static String getVaultId(String vaultName) {
+        try {
+            return Paths.get(vaultName).toAbsolutePath().normalize().toString();
+        } catch(InvalidPathException e) {
+            // A location with a store scheme in front, which is not a valid path on Windows
+            return vaultName;
+        }
+    }
+}
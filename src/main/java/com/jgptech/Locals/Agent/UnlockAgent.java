@@ -0,0 +1,401 @@
+/*
+ * NAME: UnlockAgent
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Keeps the data keys of unlocked vaults off-heap and hands them to other locals processes of the same
+ *              user over a Unix domain socket, so they can skip Argon2. Forgets every key after an idle timeout. Each
+ *              client is served on a thread of its own and is disconnected if its request takes too long, so a client
+ *              that stops sending cannot hold up the others
+ */
+
+package com.jgptech.Locals.Agent;
+
+import jdk.net.ExtendedSocketOptions;
+import jdk.net.UnixDomainPrincipal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public final class UnlockAgent {
+    // Time the agent keeps keys without being used when no timeout is given (minutes)
+    public static final long DEFAULT_IDLE_MINUTES = 15;
+
+    // Time a client has to send its request and read the answer before it is disconnected
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+
+    // Most clients served at the same time. Clients past this are disconnected right away
+    private static final int MAX_CLIENTS = 16;
+
+    // Permissions of the directory holding the socket, so no other user can reach it between bind and chmod
+    private static final Set<PosixFilePermission> DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwx------");
+
+    // Socket the agent listens on
+    private final Path socketPath;
+
+    // Time without requests after which every key is forgotten and the agent exits (nanoseconds)
+    private final long idleTimeoutNanos;
+
+    // User the agent runs as. Only processes of this user are served
+    private final String owner = System.getProperty("user.name");
+
+    // Data keys of the unlocked vaults by vault path, each in a direct buffer so the key never sits in the Java heap
+    private final Map<String, ByteBuffer> keys = new HashMap<>();
+
+    // Time of the last request (System.nanoTime())
+    private volatile long lastActivity;
+
+    // Channel accepting clients
+    private ServerSocketChannel server;
+
+    // Disconnects clients whose request takes longer than REQUEST_TIMEOUT
+    private ScheduledExecutorService deadlines;
+
+    // Clients that can still be served at the same time
+    private final Semaphore clientSlots = new Semaphore(MAX_CLIENTS);
+
+
+    // Constructor for an agent on the default socket
+    public UnlockAgent(Duration idleTimeout) {
+        this.socketPath = AgentProtocol.getSocketPath();
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+    }
+
+    // Run the agent until it has been idle for the timeout. Returns false if it could not start
+    public boolean run() {
+        try {
+            if(!prepareSocket()) {
+                return false;
+            }
+
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            restrictToOwner(socketPath, "rw-------");
+        } catch(IOException e) {
+            System.out.println("ERROR: could not start the agent on " + socketPath + ": " + e.getMessage());
+            return false;
+        }
+
+        lastActivity = System.nanoTime();
+        deadlines = Executors.newSingleThreadScheduledExecutor(task -> daemon(task, "locals-agent-deadline"));
+        startIdleWatch();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "locals-agent-shutdown"));
+
+        System.out.println("Agent listening on " + socketPath + ", keys are forgotten after "
+                + TimeUnit.NANOSECONDS.toMinutes(idleTimeoutNanos) + " minutes without use");
+
+        while(server.isOpen()) {
+            SocketChannel client;
+
+            try {
+                client = server.accept();
+            } catch(ClosedChannelException e) {
+                // Closed by the idle watch or the shutdown hook
+                break;
+            } catch(IOException e) {
+                System.out.println("Error: agent could not accept a client: " + e.getMessage());
+                continue;
+            }
+
+            // The idle watch may not have woken up yet, a client that comes in after the timeout is not served
+            if(System.nanoTime() - lastActivity >= idleTimeoutNanos) {
+                closeClient(client);
+                break;
+            }
+
+            startClient(client);
+        }
+
+        stop();
+        return true;
+    }
+
+    // Serve a client on a thread of its own, disconnecting it if its request is not done within REQUEST_TIMEOUT
+    private void startClient(SocketChannel client) {
+        if(!clientSlots.tryAcquire()) {
+            System.out.println("Error: agent is serving too many clients, refusing a connection");
+            closeClient(client);
+            return;
+        }
+
+        daemon(() -> {
+            // Closing the channel ends any read or write the client is blocked in
+            ScheduledFuture<?> deadline = deadlines.schedule(() -> closeClient(client), REQUEST_TIMEOUT.toNanos(), TimeUnit.NANOSECONDS);
+
+            try {
+                serve(client);
+            } catch(ClosedChannelException e) {
+                System.out.println("Error: agent client did not finish its request within " + REQUEST_TIMEOUT.toSeconds() + " seconds");
+            } catch(IOException e) {
+                System.out.println("Error: agent request failed: " + e.getMessage());
+            } finally {
+                deadline.cancel(false);
+                closeClient(client);
+                clientSlots.release();
+            }
+        }, "locals-agent-client").start();
+    }
+
+    // Close the channel of a client
+    private static void closeClient(SocketChannel client) {
+        try {
+            client.close();
+        } catch(IOException e) {
+            // Nothing more is sent to the client
+        }
+    }
+
+    // Create a daemon thread, so threads of the agent never keep the program running
+    private static Thread daemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    // Answer a single request from a client
+    private void serve(SocketChannel client) throws IOException {
+        UnixDomainPrincipal peer;
+
+        try {
+            peer = client.getOption(ExtendedSocketOptions.SO_PEERCRED);
+        } catch(UnsupportedOperationException e) {
+            System.out.println("ERROR: peer credentials are not supported on this platform, refusing agent connection");
+            return;
+        }
+
+        // Only hand keys to processes running as the same user as the agent
+        if(peer == null || !owner.equals(peer.user().getName())) {
+            System.out.println("ERROR: refused agent connection from user " + (peer == null ? "unknown" : peer.user().getName()));
+            return;
+        }
+
+        lastActivity = System.nanoTime();
+
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+
+        switch(in.readByte()) {
+            case AgentProtocol.GET_KEY -> sendKey(in.readUTF(), out);
+            case AgentProtocol.ADD_KEY -> receiveKey(in, out);
+            case AgentProtocol.LOCK -> {
+                int dropped = clearKeys();
+                out.writeByte(AgentProtocol.OK);
+                out.writeInt(dropped);
+            }
+            default -> out.writeByte(AgentProtocol.BAD_REQUEST);
+        }
+
+        out.flush();
+    }
+
+    // Send the key of a vault to the client if the agent holds it
+    private synchronized void sendKey(String vaultId, DataOutputStream out) throws IOException {
+        ByteBuffer key = keys.get(vaultId);
+
+        if(key == null) {
+            out.writeByte(AgentProtocol.NOT_FOUND);
+            return;
+        }
+
+        byte[] copy = new byte[key.capacity()];
+        key.get(0, copy);
+
+        try {
+            out.writeByte(AgentProtocol.OK);
+            out.writeShort(copy.length);
+            out.write(copy);
+        } finally {
+            Arrays.fill(copy, (byte) 0);
+        }
+    }
+
+    // Store the key of a vault a client has just unlocked
+    private void receiveKey(DataInputStream in, DataOutputStream out) throws IOException {
+        String vaultId = in.readUTF();
+        int length = in.readUnsignedShort();
+
+        if(length == 0 || length > AgentProtocol.MAX_KEY_LENGTH) {
+            out.writeByte(AgentProtocol.BAD_REQUEST);
+            return;
+        }
+
+        byte[] key = new byte[length];
+
+        try {
+            in.readFully(key);
+            storeKey(vaultId, key);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+
+        out.writeByte(AgentProtocol.OK);
+    }
+
+    // Copy a key into its own direct buffer, clearing the key it replaces
+    private synchronized void storeKey(String vaultId, byte[] key) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(key.length);
+        buffer.put(0, key);
+
+        ByteBuffer previous = keys.put(vaultId, buffer);
+
+        if(previous != null) {
+            clearBuffer(previous);
+        }
+    }
+
+    // Forget every key. Returns the amount of keys dropped
+    private synchronized int clearKeys() {
+        int dropped = keys.size();
+
+        for(ByteBuffer key : keys.values()) {
+            clearBuffer(key);
+        }
+
+        keys.clear();
+        return dropped;
+    }
+
+    // Overwrite the contents of a key buffer with zeros
+    private static void clearBuffer(ByteBuffer buffer) {
+        buffer.put(0, new byte[buffer.capacity()]);
+    }
+
+    // Forget every key, stop accepting clients and remove the socket
+    private synchronized void stop() {
+        clearKeys();
+
+        try {
+            if(server != null) {
+                server.close();
+            }
+
+            if(deadlines != null) {
+                deadlines.shutdown();
+            }
+
+            Files.deleteIfExists(socketPath);
+        } catch(IOException e) {
+            System.out.println("Error: could not remove the agent socket: " + e.getMessage());
+        }
+    }
+
+    // Close the server once no request has come in for the idle timeout
+    private void startIdleWatch() {
+        daemon(() -> {
+            try {
+                long remaining;
+
+                while((remaining = lastActivity + idleTimeoutNanos - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.sleep(remaining);
+                }
+            } catch(InterruptedException e) {
+                return;
+            }
+
+            System.out.println("Agent idle for " + TimeUnit.NANOSECONDS.toMinutes(idleTimeoutNanos) + " minutes, forgetting keys");
+            stop();
+        }, "locals-agent-idle").start();
+    }
+
+    // Make sure the socket directory is private and nothing is listening on the socket path yet, removing a socket left
+    // behind by an agent that died
+    private boolean prepareSocket() throws IOException {
+        Path directory = socketPath.toAbsolutePath().getParent();
+        String problem = secureDirectory(directory, owner);
+
+        if(problem != null) {
+            System.out.println("ERROR: " + problem + ", set " + AgentProtocol.SOCKET_ENV + " to a socket in a directory of your own");
+            return false;
+        }
+
+        if(Files.exists(socketPath)) {
+            if(isListening()) {
+                System.out.println("ERROR: an agent is already running on " + socketPath);
+                return false;
+            }
+
+            Files.delete(socketPath);
+        }
+
+        return true;
+    }
+
+    // Create the directory the socket goes in with only the owner allowed in, or force an existing one to that if it
+    // belongs to the owner. Returns why the directory cannot be used, or null if it can
+    static String secureDirectory(Path directory, String owner) throws IOException {
+        if(!directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            // Not a POSIX file system, the peer credential check still applies
+            Files.createDirectories(directory);
+            return null;
+        }
+
+        if(Files.notExists(directory, LinkOption.NOFOLLOW_LINKS)) {
+            // Created with the permissions already set so it is never open, even for a moment
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(DIRECTORY_PERMISSIONS));
+        }
+
+        PosixFileAttributes attributes = Files.readAttributes(directory, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+        if(!attributes.isDirectory()) {
+            return directory + " is not a directory";
+        }
+
+        if(!attributes.owner().getName().equals(owner)) {
+            return directory + " belongs to " + attributes.owner().getName();
+        }
+
+        if(!attributes.permissions().equals(DIRECTORY_PERMISSIONS)) {
+            Files.setPosixFilePermissions(directory, DIRECTORY_PERMISSIONS);
+
+            if(!Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS).equals(DIRECTORY_PERMISSIONS)) {
+                return "could not limit " + directory + " to its owner";
+            }
+        }
+
+        return null;
+    }
+
+    // Returns true if something accepts connections on the socket path
+    private boolean isListening() {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socketPath)).close();
+            return true;
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    // Limit a file to the owner where the file system has POSIX permissions
+    private static void restrictToOwner(Path path, String permissions) throws IOException {
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(permissions));
+        } catch(UnsupportedOperationException e) {
+            // Not a POSIX file system, the peer credential check still applies
+        }
+    }
+}
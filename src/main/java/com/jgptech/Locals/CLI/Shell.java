@@ -9,11 +9,15 @@
 package com.jgptech.Locals.CLI;
 
 import com.jgptech.Locals.Encryption.PasswordGenerator;
-import com.jgptech.Locals.Encryption.VaultEncryptor;
+import com.jgptech.Locals.Encryption.CipherSession;
 import com.jgptech.Locals.Vault.*;
 
 import java.awt.*;
 import java.io.Console;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 public class Shell {
@@ -38,26 +42,27 @@ public class Shell {
     // The group that is currently selected
     private int groupIndex;
 
-    // Key for decryption of vault data
-    private final byte[] key;
+    // Cipher session bound to the unlocked key for decryption of vault data
+    private final CipherSession session;
 
 
     // Constructor for the shell class
-    public Shell(Vault vault, byte[] key) {
+    public Shell(Vault vault, CipherSession session) {
         this.vault = vault;
-        this.key = key;
+        this.session = session;
         this.groupIndex = 0;
     }
 
     // Start the shell
     public void start() {
+        vault.warmNames(groupIndex, session);
         runShell(); // Runs until the user requests to exit
     }
 
     // Runs the shell
     private void runShell() {
         while(!exit) {
-            System.out.print("(" + vault.getName() + " | " + vault.getGroup(groupIndex).getName(key) + ") >> ");
+            System.out.print("(" + vault.getName() + (vault.isReadOnly() ? " [read-only]" : "") + " | " + vault.getGroup(groupIndex).getName(session) + ") >> ");
             input = scanner.nextLine().toLowerCase(); // Wait for the user's input
             String[] words = input.trim().split("\\s+"); // Split the input per word
 
@@ -65,6 +70,9 @@ public class Shell {
                 runCommand(words);
             } catch(IndexOutOfBoundsException e) {
                 System.out.println("ERROR: " + e.getMessage());
+            } catch(UncheckedIOException e) {
+                // Entries are read from the vault file the first time a group is used, so a damaged group shows up here
+                System.out.println("ERROR: " + e.getMessage());
             }
         }
     }
@@ -104,22 +112,55 @@ public class Shell {
 
             case "a":
             case "add":
-                add(words);
+                if(canModify()) {
+                    add(words);
+                }
                 break;
 
             case "d":
             case "delete":
-                delete(words);
+                if(canModify()) {
+                    delete(words);
+                }
                 break;
 
             case "e":
             case "edit":
-                edit(words);
+                if(canModify()) {
+                    edit(words);
+                }
                 break;
 
             case "m":
             case "move":
-                move(words);
+                if(canModify()) {
+                    move(words);
+                }
+                break;
+
+            case "change-password":
+                if(canModify()) {
+                    changePassword();
+                }
+                break;
+
+            case "compress":
+                if(canModify()) {
+                    compress(words);
+                }
+                break;
+
+            case "stats":
+                printStats();
+                break;
+
+            case "f":
+            case "search":
+                search(words);
+                break;
+
+            case "match":
+                match(words);
                 break;
 
             default:
@@ -163,6 +204,22 @@ public class Shell {
                 m, move
                     move an entry to another group
                         move [entry] [new-group]
+                f, search
+                    find the entries whose name, notes, username, URL or fingerprint hold the text, in every group
+                        search [text]
+                match
+                    find the logins for the site of a URL: same host first, then parent domains, then the rest of the site
+                        match [URL]
+                change-password
+                    change the master password of the vault
+                        change-password
+                compress
+                    deflate the long fields saved before fields were compressed, or turn deflating long fields on or off
+                    (off keeps the length of a field from hinting at what it holds)
+                        compress [on|off]
+                stats
+                    show what the vault holds and how well its fields compress
+                        stats
                 """
         );
     }
@@ -179,9 +236,9 @@ public class Shell {
         if(words.length > 1) {
             // Check if the user wants to list groups or entries
             if(isGroupSelected(words[1])) {
-                vault.listGroups(key);
+                vault.listGroups(session);
             } else if(isEntrySelected(words[1])) {
-                vault.listEntries(groupIndex, key);
+                vault.listEntries(groupIndex, session);
             } else {
                 printErrorMsg("ERROR: use 'list groups' or 'list entries'");
             }
@@ -190,6 +247,61 @@ public class Shell {
         }
     }
 
+    // Search every group for entries holding the text after the command
+    private void search(String[] words) {
+        // Check that the user supplied the text to search for
+        if(words.length > 1) {
+            String text = input.trim().substring(words[0].length()).trim();
+            Map<Integer, List<Integer>> found = vault.search(text, session);
+
+            if(found.isEmpty()) {
+                System.out.println("No entries hold '" + text + "'");
+                return;
+            }
+
+            System.out.println();
+
+            for(Map.Entry<Integer, List<Integer>> group : found.entrySet()) {
+                System.out.println(vault.getGroup(group.getKey()).getName(session));
+
+                for(int entryIndex : group.getValue()) {
+                    System.out.println("    " + (entryIndex + 1) + ". " + vault.getGroup(group.getKey()).getEntry(entryIndex).getName(session));
+                }
+            }
+
+            System.out.println();
+        } else {
+            printErrorMsg("ERROR: add the text you wish to search for: 'search <text>'");
+        }
+    }
+
+    // Find the logins for the site of a URL, closest first
+    private void match(String[] words) {
+        // Check that the user supplied the URL to match
+        if(words.length > 1) {
+            List<DomainIndex.Match> matches = vault.matchUrl(words[1], session);
+
+            if(matches.isEmpty()) {
+                System.out.println("No logins for the site of '" + words[1] + "'");
+                return;
+            }
+
+            System.out.println();
+
+            for(DomainIndex.Match match : matches) {
+                Group group = vault.getGroup(match.getGroupIndex());
+                String rank = match.getRank().name().toLowerCase().replace('_', ' ');
+
+                System.out.println(group.getName(session) + "    " + (match.getEntryIndex() + 1) + ". " +
+                                   group.getEntry(match.getEntryIndex()).getName(session) + " (" + rank + ")");
+            }
+
+            System.out.println();
+        } else {
+            printErrorMsg("ERROR: add the URL you wish to find logins for: 'match <URL>'");
+        }
+    }
+
     // Open a group in the vault
     private void open(String[] words) {
         // Check that the user supplied all needed arguments
@@ -222,9 +334,6 @@ public class Shell {
             } else {
                 printErrorMsg("ERROR: use 'add group' or 'add entry'");
             }
-
-            // Write this to the vault to avoid data loss in the event the shell does not close properly
-            vault.write();
         } else {
             printErrorMsg("ERROR: use 'add group' or 'add entry'");
         }
@@ -242,9 +351,6 @@ public class Shell {
             } else {
                 printErrorMsg("ERROR: use 'delete group <group-number>' or 'delete entry <entry-number>'");
             }
-
-            // Write this to the vault to avoid data loss in the event the shell does not close properly
-            vault.write();
         } else {
             printErrorMsg("ERROR:  use 'delete group <group-number>' or 'delete entry <entry-number>'");
         }
@@ -284,11 +390,12 @@ public class Shell {
 
     // Open a group in the vault
     private void openGroup(String word) {
-        int newGroupIndex = vault.isValidGroupIndex(word, key);
+        int newGroupIndex = vault.isValidGroupIndex(word, session);
 
         // Only update the group index if the entered one was valid
         if(newGroupIndex != INVALID_INDEX) {
             groupIndex = newGroupIndex;
+            vault.warmNames(groupIndex, session);
         } else {
             printErrorMsg("ERROR: " + word + " is not a valid group. Use 'list groups' to show all group names and numbers.");
         }
@@ -296,11 +403,11 @@ public class Shell {
 
     // Display information from an entry
     private void showEntry(String word) {
-        int entryIndex = vault.getGroup(groupIndex).isValidEntryIndex(word, key);
+        int entryIndex = vault.getGroup(groupIndex).isValidEntryIndex(word, session);
 
         // Check that a valid entry index was given
         if(entryIndex != INVALID_INDEX) {
-            vault.getGroup(groupIndex).getEntry(entryIndex).print(key);
+            vault.getGroup(groupIndex).getEntry(entryIndex).print(session);
         } else {
             printErrorMsg("ERROR: " + word + " is not a valid entry. Please use 'list entries' to see all entry names and numbers.");
         }
@@ -311,10 +418,14 @@ public class Shell {
         System.out.print("Name: ");
         String name = scanner.nextLine();
 
+        if(vault.findGroup(name, session) != INVALID_INDEX && !confirmDuplicate("A group named " + name + " already exists")) {
+            return;
+        }
+
 //                System.out.print("Color: ");
         Color color = Color.RED; // TODO: put switch statement to get color from user, just using red for all for now
 
-        vault.addGroup(new Group(name, color, key));
+        vault.addGroup(new Group(name, color, session));
     }
 
     // Add an entry to the group
@@ -377,6 +488,10 @@ public class Shell {
         System.out.print("Name: ");
         String name = scanner.nextLine();
 
+        if(isDuplicateEntry(name)) {
+            return;
+        }
+
         System.out.print("Username: ");
         String username = scanner.nextLine();
 
@@ -434,7 +549,21 @@ public class Shell {
         System.out.print("Notes: ");
         String notes = scanner.nextLine();
 
-        vault.getGroup(groupIndex).getEntries().add(new Login(name, username, password, url, notes, key));
+        vault.addEntry(groupIndex, new Login(name, username, password, url, notes, session));
+    }
+
+    // Returns true if the group already has an entry with the given name and the user chose not to add another one
+    private boolean isDuplicateEntry(String name) {
+        return vault.getGroup(groupIndex).findEntry(name, session) != INVALID_INDEX &&
+               !confirmDuplicate("An entry named " + name + " already exists in this group");
+    }
+
+    // Ask the user whether to add a group or entry with a name that is already taken
+    private boolean confirmDuplicate(String message) {
+        System.out.print(message + ", add it anyway? [y/N]: ");
+        String input = scanner.nextLine();
+
+        return input.equals("y") || input.equals("Y");
     }
 
     // Add a payment card to the group
@@ -452,6 +581,10 @@ public class Shell {
             name = scanner.nextLine();
         }
 
+        if(isDuplicateEntry(name)) {
+            return;
+        }
+
         while(brand.isEmpty()) {
             System.out.print("Brand: ");
             brand = scanner.nextLine();
@@ -482,7 +615,7 @@ public class Shell {
             notes = scanner.nextLine();
         }
 
-        vault.getGroup(groupIndex).getEntries().add(new PaymentCard(name, brand, cardholderName, cardNumber, expireDate, securityCode, notes, key));
+        vault.addEntry(groupIndex, new PaymentCard(name, brand, cardholderName, cardNumber, expireDate, securityCode, notes, session));
     }
 
     // Add an SSH Key to the group
@@ -498,6 +631,10 @@ public class Shell {
             name = scanner.nextLine();
         }
 
+        if(isDuplicateEntry(name)) {
+            return;
+        }
+
         while(privateKey.isEmpty()) {
             System.out.print("Private key: ");
             privateKey = scanner.nextLine();
@@ -518,7 +655,7 @@ public class Shell {
             notes = scanner.nextLine();
         }
 
-        vault.getGroup(groupIndex).getEntries().add(new SSHKey(name, privateKey, publicKey, fingerprint, notes, key));
+        vault.addEntry(groupIndex, new SSHKey(name, privateKey, publicKey, fingerprint, notes, session));
     }
 
     // Add a secure note to the group
@@ -531,21 +668,29 @@ public class Shell {
             name = scanner.nextLine();
         }
 
+        if(isDuplicateEntry(name)) {
+            return;
+        }
+
         while(notes.isEmpty()) {
             System.out.print("Note: ");
             notes = scanner.nextLine();
         }
 
-        vault.getGroup(groupIndex).getEntries().add(new SecureNote(name, notes, key));
+        vault.addEntry(groupIndex, new SecureNote(name, notes, session));
     }
 
     // Delete a group from the vault
     private void deleteGroup(String word) {
-        int removeGroupIndex = vault.isValidGroupIndex(word, key);
+        int removeGroupIndex = vault.isValidGroupIndex(word, session);
 
         // See if we found a valid group index
         if(removeGroupIndex != INVALID_INDEX) {
+            byte[] currentGroupId = vault.getGroupId(groupIndex);
             vault.removeGroup(removeGroupIndex);
+
+            // Stay in the current group wherever it moved to, or go back to the General group if it was the one removed
+            groupIndex = Math.max(vault.findGroupById(currentGroupId), 0);
         } else {
             printErrorMsg("ERROR: " + word + " is not a valid group. Use 'list groups' to show all group names and numbers.");
         }
@@ -565,12 +710,7 @@ public class Shell {
             }
         } catch(NumberFormatException e) {
             // Check if the user entered an entry name
-            for(int index = 0; index < vault.getGroup(groupIndex).size(); index++) {
-                if(word.equals(vault.getGroup(groupIndex).getEntry(index).getName(key).toLowerCase())) {
-                    removeEntryIndex = index;
-                    break;
-                }
-            }
+            removeEntryIndex = vault.getGroup(groupIndex).findEntry(word, session);
 
             // Check if the entry name was found
             if(removeEntryIndex == INVALID_INDEX) {
@@ -580,13 +720,13 @@ public class Shell {
 
         // Check if a valid entry index was found
         if(removeEntryIndex != INVALID_INDEX) {
-            vault.getGroup(groupIndex).getEntries().remove(removeEntryIndex);
+            vault.removeEntry(groupIndex, removeEntryIndex);
         }
     }
 
     // Edit a group in the vault
     private void editGroup(String groupWord, String fieldWord) {
-        int editGroupIndex = vault.isValidGroupIndex(groupWord, key);
+        int editGroupIndex = vault.isValidGroupIndex(groupWord, session);
         String field = "";
         int fieldNum = INVALID_INDEX;
 
@@ -596,7 +736,7 @@ public class Shell {
                 case "name":
                     System.out.print("Name: ");
                     String name = scanner.nextLine();
-                    vault.getGroup(editGroupIndex).setName(name, key);
+                    vault.renameGroup(editGroupIndex, name, session);
                     break;
 
                 case "color":
@@ -607,8 +747,6 @@ public class Shell {
                     printErrorMsg("ERROR: " + fieldWord + " is not a valid field.");
                     break;
             }
-
-            vault.write();
         } else {
             printErrorMsg("ERROR: " + groupWord + " is not a valid group. Use 'list groups' to show all group names and numbers.");
         }
@@ -616,7 +754,7 @@ public class Shell {
 
     // Edit an entry in the vault
     private void editEntry(String entryWord, String fieldWord) {
-        int entryIndex = vault.getGroup(groupIndex).isValidEntryIndex(entryWord, key);
+        int entryIndex = vault.getGroup(groupIndex).isValidEntryIndex(entryWord, session);
 
         // Check that the user gave a valid entry index or name
         if(entryIndex != INVALID_INDEX) {
@@ -635,6 +773,9 @@ public class Shell {
                 // Should never happen
                 printErrorMsg("ERROR: entry " + entryWord + " is an unknown entry type. Please report this issue at jgp9201@gmail.com.");
             }
+
+            // Save the edited entry to the vault
+            vault.updateEntry(groupIndex, entryIndex);
         } else {
             printErrorMsg("ERROR: " + entryWord + " is not a valid entry index. Use 'list entries' to show all entry names and numbers.");
         }
@@ -646,13 +787,13 @@ public class Shell {
             case "name":
                 System.out.print("Name: ");
                 String name = scanner.nextLine();
-                login.setName(name, key);
+                login.setName(name, session);
                 break;
 
             case "username":
                 System.out.print("Username: ");
                 String username = scanner.nextLine();
-                login.setUsername(username, key);
+                login.setUsername(username, session);
                 break;
 
             case "password":
@@ -660,7 +801,7 @@ public class Shell {
                 String verifyPassword = new String(console.readPassword("Verify Password: "));
 
                 if(password.equals(verifyPassword)) {
-                    login.setPassword(password, key);
+                    login.setPassword(password, session);
                 } else {
                     System.out.println("ERROR: password do not match. Please try again.");
                 }
@@ -669,22 +810,20 @@ public class Shell {
             case "url":
                 System.out.print("URL: ");
                 String url = scanner.nextLine();
-                login.setUrl(url, key);
+                login.setUrl(url, session);
                 break;
 
             case "note":
             case "notes":
                 System.out.print("Notes: ");
                 String notes = scanner.nextLine();
-                login.setNotes(notes, key);
+                login.setNotes(notes, session);
                 break;
 
             default:
                 printErrorMsg("ERROR: " + field + " is not a valid element of a login to edit.");
                 break;
         }
-
-        vault.write();
     }
 
     // Edit a payment card entry
@@ -693,27 +832,27 @@ public class Shell {
             case "name":
                 System.out.print("Name: ");
                 String name = scanner.nextLine();
-                paymentCard.setName(name, key);
+                paymentCard.setName(name, session);
                 break;
 
             case "cardholdername":
             case "cardholder name":
                 System.out.print("Cardholder name: ");
                 String cardholderName = scanner.nextLine();
-                paymentCard.setCardholderName(cardholderName, key);
+                paymentCard.setCardholderName(cardholderName, session);
                 break;
 
             case "cardnumber":
             case "card number":
                 System.out.print("Card number: ");
                 String cardNumber = scanner.nextLine();
-                paymentCard.setCardNumber(cardNumber, key);
+                paymentCard.setCardNumber(cardNumber, session);
                 break;
 
             case "brand":
                 System.out.print("Brand: ");
                 String brand = scanner.nextLine();
-                paymentCard.setBrand(brand, key);
+                paymentCard.setBrand(brand, session);
                 break;
 
             case "expiredate":
@@ -722,29 +861,27 @@ public class Shell {
             case "expiration date":
                 System.out.print("Expiration Date: ");
                 String expireDate = scanner.nextLine();
-                paymentCard.setExpireDate(expireDate, key);
+                paymentCard.setExpireDate(expireDate, session);
                 break;
 
             case "securitycode":
             case "security code":
                 System.out.print("Security Code: ");
                 String securityCode = scanner.nextLine();
-                paymentCard.setSecurityCode(securityCode, key);
+                paymentCard.setSecurityCode(securityCode, session);
                 break;
 
             case "note":
             case "notes":
                 System.out.print("Notes: ");
                 String notes = scanner.nextLine();
-                paymentCard.setNotes(notes, key);
+                paymentCard.setNotes(notes, session);
                 break;
 
             default:
                 printErrorMsg("ERROR: " + field + " is not a valid element of a payment card to edit.");
                 break;
         }
-
-        vault.write();
     }
 
     // Edit an SSH key entry
@@ -753,41 +890,39 @@ public class Shell {
             case "name":
                 System.out.print("Name: ");
                 String name = scanner.nextLine();
-                sshKey.setName(name, key);
+                sshKey.setName(name, session);
                 break;
 
             case "privatekey":
             case "private key":
                 System.out.print("Private Key: ");
                 String privateKey = scanner.nextLine();
-                sshKey.setPrivateKey(privateKey, key);
+                sshKey.setPrivateKey(privateKey, session);
                 break;
 
             case "pubickey":
             case "public key":
                 System.out.print("Public Key: ");
                 String publicKey = scanner.nextLine();
-                sshKey.setPublicKey(publicKey, key);
+                sshKey.setPublicKey(publicKey, session);
                 break;
 
             case "fingerprint":
                 System.out.print("Fingerprint: ");
                 String fingerprint = scanner.nextLine();
-                sshKey.setFingerprint(fingerprint, key);
+                sshKey.setFingerprint(fingerprint, session);
                 break;
 
             case "note":
             case "notes":
                 System.out.print("Notes: ");
                 String notes = scanner.nextLine();
-                sshKey.setNotes(notes, key);
+                sshKey.setNotes(notes, session);
                 break;
 
             default:
                 printErrorMsg("ERROR: " + field + " is not a valid element of an SSH key to edit.");
         }
-
-        vault.write();
     }
 
     // Edit a secure note entry
@@ -796,38 +931,35 @@ public class Shell {
             case "name":
                 System.out.print("Name: ");
                 String name = scanner.nextLine();
-                secureNote.setName(name, key);
+                secureNote.setName(name, session);
                 break;
 
             case "note":
             case "notes":
                 System.out.print("Notes: ");
                 String notes = scanner.nextLine();
-                secureNote.setNotes(notes, key);
+                secureNote.setNotes(notes, session);
                 break;
 
             default:
                 printErrorMsg("ERROR: " + field + " is not a valid element of a secure note to edit.");
         }
-
-        vault.write();
     }
 
     // Move a group to a new index in the vault
     private void moveGroup(String groupWord, String indexWord) {
-        int selectedGroupIndex = vault.isValidGroupIndex(groupWord, key);
-        int newIndex = vault.isValidGroupIndex(indexWord, key);;
+        int selectedGroupIndex = vault.isValidGroupIndex(groupWord, session);
+        int newIndex = vault.isValidGroupIndex(indexWord, session);;
 
         // Only continue if a valid group index was entered
         if(selectedGroupIndex != INVALID_INDEX) {
             // Only continue if a valid new index was found
             if(newIndex != INVALID_INDEX) {
+                byte[] currentGroupId = vault.getGroupId(groupIndex);
                 vault.moveGroup(selectedGroupIndex, newIndex);
 
-                // If the move group was the one we are currently in, also change to that group index
-                if(selectedGroupIndex == groupIndex) {
-                    groupIndex = newIndex;
-                }
+                // Stay in the current group, which moves along when any group is moved past it
+                groupIndex = vault.findGroupById(currentGroupId);
             } else {
                 printErrorMsg("ERROR: " + indexWord + " is not a valid group. Use 'list groups' to show all group names and numbers.");
             }
@@ -838,8 +970,8 @@ public class Shell {
 
     // Move an entry from one group to another
     private void moveEntry(String entryWord, String groupWord) {
-        int entryIndex = vault.getGroup(groupIndex).isValidEntryIndex(entryWord, key);
-        int toGroupIndex = vault.isValidGroupIndex(groupWord, key);
+        int entryIndex = vault.getGroup(groupIndex).isValidEntryIndex(entryWord, session);
+        int toGroupIndex = vault.isValidGroupIndex(groupWord, session);
 
         if(entryIndex != INVALID_INDEX) {
             if(toGroupIndex != INVALID_INDEX) {
@@ -852,6 +984,69 @@ public class Shell {
         }
     }
 
+    // Change the master password of the vault. Only the vault key is wrapped again and the vault header written, no
+    // entries are re-encrypted or written
+    private void changePassword() {
+        // Read the same way as UserInput.openVault() so the new password unlocks the vault
+        String password = Arrays.toString(console.readPassword("New password for this vault: "));
+        String verifyPassword = Arrays.toString(console.readPassword("Verify the new password: "));
+
+        if(!password.equals(verifyPassword)) {
+            System.out.println("ERROR: passwords do not match. Please try again.");
+        } else if(vault.changePassword(password, session)) {
+            System.out.println("Password changed.");
+        } else {
+            System.out.println("ERROR: could not change the password for this vault.");
+        }
+    }
+
+    // Deflate the long fields that were saved before fields were compressed, or turn deflating long fields on or off
+    private void compress(String[] words) {
+        boolean compress;
+
+        if(words.length < 2) {
+            if(!vault.isCompressingFields()) {
+                printErrorMsg("ERROR: compression is off for this vault, use 'compress on' to turn it on");
+                return;
+            }
+
+            compress = true;
+        } else if(words[1].equalsIgnoreCase("on")) {
+            compress = true;
+        } else if(words[1].equalsIgnoreCase("off")) {
+            compress = false;
+        } else {
+            printErrorMsg("ERROR: use 'compress', 'compress on' or 'compress off'");
+            return;
+        }
+
+        BulkCryptoEngine.Result result = vault.compress(compress, session);
+
+        if(result != null) {
+            System.out.println((compress ? "Compressed" : "Decompressed") + " vault, checked " + result);
+            printStats();
+        }
+    }
+
+    // Print what the vault holds and how well its fields compress
+    private void printStats() {
+        VaultStats stats = vault.getStats(session);
+
+        if(stats != null) {
+            System.out.println(stats);
+        }
+    }
+
+    // Returns true if the vault can be changed, printing an error if it was opened read-only
+    private boolean canModify() {
+        if(vault.isReadOnly()) {
+            System.out.println("ERROR: vault is opened read-only. Open it without --read-only to make changes.");
+            return false;
+        }
+
+        return true;
+    }
+
     // Returns true if the given word is one of the aliases for selecting a group
     private boolean isGroupSelected(String word) {
         return (word.equals("group") || word.equals("groups") || word.equals("g"));
@@ -0,0 +1,66 @@
+/*
+ * NAME: Timing
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Collects how long the steps of a command took when the user asked for it with --timing
+ */
+
+package com.jgptech.Locals.CLI;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+final class Timing {
+    // Whether anything is collected and printed
+    private final boolean enabled;
+
+    // System.nanoTime() at the moment the JVM started, so marks include JVM startup
+    private final long processStart;
+
+    // Steps recorded so far
+    private final List<String> steps = new ArrayList<>();
+
+
+    // Constructor for a timer that only collects anything when enabled
+    Timing(boolean enabled) {
+        this.enabled = enabled;
+
+        Instant started = ProcessHandle.current().info().startInstant().orElse(Instant.now());
+        this.processStart = System.nanoTime() - Duration.between(started, Instant.now()).toNanos();
+    }
+
+    // Get System.nanoTime() if enabled, so disabled timers skip the call
+    long now() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    // Record that a point was reached, as the time since the process started
+    synchronized void mark(String step) {
+        if(enabled) {
+            steps.add(step + " at " + toMillis(System.nanoTime() - processStart));
+        }
+    }
+
+    // Record how long a step took since the given now() value
+    synchronized void since(String step, long start) {
+        if(enabled) {
+            steps.add(step + " in " + toMillis(System.nanoTime() - start));
+        }
+    }
+
+    // Print every recorded step and start over
+    synchronized void print() {
+        if(enabled && !steps.isEmpty()) {
+            System.out.println("Timing: " + String.join(", ", steps));
+            steps.clear();
+        }
+    }
+
+    // Format nanoseconds as milliseconds
+    private static String toMillis(long nanos) {
+        return String.format("%.1f ms", nanos / 1_000_000.0);
+    }
+}
@@ -8,18 +8,34 @@
 
 package com.jgptech.Locals.CLI;
 
+import com.jgptech.Locals.Agent.AgentClient;
+import com.jgptech.Locals.Agent.UnlockAgent;
+import com.jgptech.Locals.Encryption.CipherSession;
+import com.jgptech.Locals.Encryption.CryptoWarmup;
+import com.jgptech.Locals.Encryption.KdfParameters;
 import com.jgptech.Locals.Encryption.KeyHasher;
 import com.jgptech.Locals.Encryption.PasswordGenerator;
+import com.jgptech.Locals.Vault.Durability;
 import com.jgptech.Locals.Vault.Vault;
+import com.jgptech.Locals.Vault.VaultFormat;
+import com.jgptech.Locals.Vault.VaultStore;
+import com.jgptech.Locals.Vault.VaultStores;
 
 import java.io.Console;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
 
 public final class  UserInput {
     // Attempts for unlocking a vault before process is aborted
     private final static int MAX_ATTEMPTS = 3;
 
+    // Time unlocking a vault should take when this machine is calibrated without a target (milliseconds)
+    public final static long DEFAULT_UNLOCK_MILLIS = 1000;
+
     // Handle to the console
     private final static Console console = System.console();
 
@@ -39,7 +55,6 @@ public final class  UserInput {
 //        EncryptionAlgorithm encryptionAlgorithm = EncryptionAlgorithm.NoEncryptionAlgorithm;
 //        int iterations = 0;
         String masterPassword = "";
-        byte[] masterHash;
 
         // If no name for the new vault is provided, get it from the user
         while(vaultName.isEmpty()) {
@@ -174,65 +189,193 @@ public final class  UserInput {
             }
         }
 
-        // Generate the salts for the vault
-        byte[] saltEnc = KeyHasher.generateSalt();
-        byte[] saltAuth = KeyHasher.generateSalt();
+        // Tune the key derivation to this machine the first time a vault is created on it
+        if(!KdfParameters.hasHostTarget()) {
+            System.out.println("Key derivation has not been calibrated on this machine yet, timing it once now (run with --calibrate to redo it)");
+            calibrate(DEFAULT_UNLOCK_MILLIS);
+        }
 
-        // Hash the master password into secure cryptographic key for encryption and a hash for authentication
-        byte[] key = KeyHasher.deriveKey(masterPassword, saltEnc);
-        masterHash = KeyHasher.deriveKey(masterPassword, saltAuth);
+        // Generate the data key for the vault and wrap it with a key derived from the master password
+        Vault vault;
 
-        Vault vault = new Vault(vaultName, key, saltEnc, saltAuth, masterHash);
+        try {
+            vault = new Vault(vaultName, masterPassword);
+        } catch(IllegalArgumentException e) {
+            System.out.println("ERROR: invalid vault location: " + e.getMessage());
+            return;
+        }
 
-        if(vault.write()) {
+        if(vault.write() && vault.close()) {
             System.out.println("New vault " + vaultName + " created successfully! Use locals " + vaultName + " to open it and start adding passwords.");
         } else {
             System.out.println("ERROR: unable to create the new vault at " + vaultName + "!");
         }
     }
 
-    // Open a vault file and a shell for the user to access it
-    public static void openVault(String vaultName) {
-        Vault vault;
+    // Benchmark this machine and save the strongest key derivation parameters that unlock within the target time
+    public static void calibrate(long targetMillis) {
+        System.out.println("Calibrating key derivation for an unlock time of " + targetMillis + " ms...");
+        KdfParameters parameters = KeyHasher.calibrate(targetMillis);
+
+        if(KdfParameters.saveHostTarget(parameters)) {
+            System.out.println("Key derivation for new and upgraded vaults on this machine: " + parameters);
+        }
+    }
+
+    // Run the unlock agent in the foreground until it has been idle for the given time
+    public static void startAgent(long idleMinutes) {
+        if(!new UnlockAgent(Duration.ofMinutes(idleMinutes)).run()) {
+            System.exit(-1); // REVIEW: exit code ?
+        }
+    }
+
+    // Tell the unlock agent to forget every key it holds
+    public static void lockAgent() {
+        int dropped = AgentClient.lock();
+
+        if(dropped < 0) {
+            System.out.println("No agent is running");
+        } else {
+            System.out.println("Agent forgot " + dropped + (dropped == 1 ? " key" : " keys"));
+        }
+    }
+
+    // Convert a vault file to another format without asking for the password
+    public static void migrateVault(String vaultName, String formatName) {
+        VaultFormat format;
+
+        try {
+            format = VaultFormat.fromName(formatName);
+        } catch(IllegalArgumentException e) {
+            System.out.println("ERROR: " + e.getMessage());
+            return;
+        }
+
+        if(!Files.exists(Paths.get(vaultName))) {
+            System.out.println("ERROR: could not find vault " + vaultName);
+        } else if(!Vault.migrate(vaultName, format)) {
+            System.out.println("ERROR: unable to convert vault " + vaultName);
+        }
+    }
+
+    // Open a vault file and a shell for the user to access it. Reports how long each step took if timing is set, never
+    // writes to disk if readOnly is set, and forces writes to disk as set by durabilityName (the setting for this
+    // machine if null). The key is only handed to the unlock agent if addToAgent is set
+    public static void openVault(String vaultName, boolean timing, boolean readOnly, String durabilityName, boolean addToAgent) {
+        Timing timer = new Timing(timing);
+        Vault vault = null;
         String userPassword = "";
         int attempts = 0;
-        byte[] masterHash = null;
+        CipherSession session = null;
+        Durability durability;
+
+        try {
+            durability = (durabilityName == null) ? Durability.getDefault() : Durability.fromName(durabilityName);
+        } catch(IllegalArgumentException e) {
+            System.out.println("ERROR: " + e.getMessage());
+            return;
+        }
 
-        // Try loading the file
-        vault = Vault.load(vaultName);
+        // Mapped unless the name picks another store, so only the groups the shell touches are read from the file
+        VaultStore store;
 
-        if(vault == null) {
+        try {
+            store = VaultStores.forLocation(vaultName, true);
+        } catch(IllegalArgumentException e) {
+            System.out.println("ERROR: invalid vault location: " + e.getMessage());
+            return;
+        }
+
+        // Parse the file and warm up the crypto code in the background while the user types the password
+        CompletableFuture<Vault> loading = CompletableFuture.supplyAsync(() -> {
+            long start = timer.now();
+            Vault loaded = Vault.load(store);
+            timer.since("vault parsed", start);
+
+            if(loaded != null) {
+                loaded.setReadOnly(readOnly);
+                loaded.setDurability(durability);
+            }
+
+            return loaded;
+        });
+
+        CryptoWarmup.start();
+
+        // Don't ask for a password for a vault that is not there
+        if(!store.exists() && loading.join() == null) {
             System.out.println("ERROR: could not load vault " + vaultName);
-        } else {
-            // Allow the user to try entering the correct password 3 times before aborting
-            while(attempts < MAX_ATTEMPTS) {
-                userPassword = Arrays.toString(console.readPassword("Enter password for the vault: "));
-                masterHash = KeyHasher.deriveKey(userPassword, vault.getSaltAuth());
-
-                // Break out of the loop if the passwords match
-                if(Arrays.equals(masterHash, vault.getMasterHash())) {
-                    break;
-                }
+            return;
+        }
+
+        // Skip the password if a running agent holds the key for this vault
+        session = AgentClient.fetchSession(vaultName);
+
+        if(session != null) {
+            vault = loading.join();
 
-                System.out.println("That password was incorrect, please try again");
-                attempts++;
+            if(vault == null || !vault.isUnlockedBy(session)) {
+                // The agent has a key for another vault that was at this path
+                session.close();
+                session = null;
+            } else {
+                // Unlocking with the password does this inside Vault.unlock()
+                vault.replayJournal(session);
             }
+        }
+
+        // Allow the user to try entering the correct password 3 times before aborting
+        while(session == null && attempts < MAX_ATTEMPTS) {
+            timer.mark("password prompt");
+            userPassword = Arrays.toString(console.readPassword("Enter password for the vault: "));
+            timer.mark("password entered");
+
+            // The file has usually been parsed by the time the password is typed
+            long waitStart = timer.now();
+            vault = loading.join();
+            timer.since("waited for the vault", waitStart);
 
-            if(attempts >= MAX_ATTEMPTS) {
-                System.out.println("Max attempts reached.");
-                System.exit(-1); // REVIEW: exit code ?
+            if(vault == null) {
+                System.out.println("ERROR: could not load vault " + vaultName);
+                return;
             }
 
-            // Set the name (path) of the vault
-            vault.setName(vaultName);
+            // Argon2 starts as soon as the password is in
+            long unlockStart = timer.now();
+            session = vault.unlock(userPassword);
+            timer.since("unlocked", unlockStart);
 
-            // REVIEW: can change shell to open an alternate terminal so that the information is not readable after its closed?
-            // Password is correct, open the shell to allow the user to access the vault
-            Shell shell = new Shell(vault, KeyHasher.deriveKey(userPassword, vault.getSaltEnc()));
-            shell.start();
+            // Break out of the loop if the passwords match, handing the key to the agent for the next invocation if asked to
+            if(session != null) {
+                if(addToAgent && !AgentClient.addKey(vaultName, session)) {
+                    System.out.println("Error: could not hand the key to the unlock agent, is it running? (locals --agent)");
+                }
+
+                break;
+            }
 
-            // Write the data back to the file in case anything changed
-            vault.write();
+            System.out.println("That password was incorrect, please try again");
+            attempts++;
         }
+
+        if(attempts >= MAX_ATTEMPTS) {
+            System.out.println("Max attempts reached.");
+            System.exit(-1); // REVIEW: exit code ?
+        }
+
+        timer.mark("shell");
+        timer.print();
+
+        // REVIEW: can change shell to open an alternate terminal so that the information is not readable after its closed?
+        // Password is correct, open the shell to allow the user to access the vault
+        Shell shell = new Shell(vault, session);
+        shell.start();
+
+        // Flush the changes still waiting for the journal, and fold the journal into the vault file if it is due
+        long closeStart = timer.now();
+        vault.close();
+        timer.since("saved on exit with durability " + durability, closeStart);
+        timer.print();
+        session.close();
     }
 }
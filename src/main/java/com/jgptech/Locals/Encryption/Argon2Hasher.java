@@ -0,0 +1,357 @@
+/*
+ * NAME: Argon2Hasher
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Argon2id (version 1.3) that fills the lanes of each segment concurrently. Gives the same output as the
+ *              BouncyCastle Argon2BytesGenerator for the same parameters
+ */
+
+package com.jgptech.Locals.Encryption;
+
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.bouncycastle.util.Pack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+final class Argon2Hasher {
+    // Size of a memory block in 64-bit words (1 KiB)
+    private static final int BLOCK_WORDS = 128;
+
+    // Size of a memory block in bytes
+    private static final int BLOCK_BYTES = BLOCK_WORDS * 8;
+
+    // Amount of slices each pass over memory is split into. Lanes only sync up at the end of each slice
+    private static final int SYNC_POINTS = 4;
+
+    // Argon2 version 1.3
+    private static final int VERSION = 0x13;
+
+    // Argon2 type id
+    private static final int TYPE_ID = 2;
+
+    // Length of the initial hash H0 (bytes)
+    private static final int PREHASH_LENGTH = 64;
+
+    // Pool the lanes are filled on, shared by every hash and created the first time it is needed
+    private static ExecutorService pool;
+
+    // Memory, as one array of blocks of BLOCK_WORDS words
+    private final long[] memory;
+
+    // Passes over memory
+    private final int iterations;
+
+    // Lanes that are filled independently within a slice
+    private final int lanes;
+
+    // Total blocks of memory, after rounding down to a multiple of lanes * SYNC_POINTS
+    private final int memoryBlocks;
+
+    // Blocks in each lane and in each segment (the part of a lane within one slice)
+    private final int laneLength;
+    private final int segmentLength;
+
+
+    // Constructor for a hasher with memory for the given parameters
+    private Argon2Hasher(KdfParameters parameters) {
+        this.iterations = parameters.getIterations();
+        this.lanes = parameters.getParallelism();
+
+        // KdfParameters makes sure there are at least two blocks per segment and that the blocks fit in one array
+        this.segmentLength = parameters.getMemory() / (lanes * SYNC_POINTS);
+        this.laneLength = segmentLength * SYNC_POINTS;
+        this.memoryBlocks = laneLength * lanes;
+        this.memory = new long[memoryBlocks * BLOCK_WORDS];
+    }
+
+    // Hash the password into an output of the given length
+    static byte[] hash(byte[] password, byte[] salt, KdfParameters parameters, int outLength) {
+        Argon2Hasher hasher = new Argon2Hasher(parameters);
+
+        try {
+            hasher.fillFirstBlocks(initialHash(password, salt, parameters, outLength));
+            hasher.fillMemory();
+            return hasher.finalHash(outLength);
+        } finally {
+            // Clear the memory as it holds values derived from the password
+            Arrays.fill(hasher.memory, 0L);
+        }
+    }
+
+    // Compute H0 over the parameters and inputs
+    private static byte[] initialHash(byte[] password, byte[] salt, KdfParameters parameters, int outLength) {
+        Blake2bDigest digest = new Blake2bDigest(PREHASH_LENGTH * 8);
+
+        updateInt(digest, parameters.getParallelism());
+        updateInt(digest, outLength);
+        updateInt(digest, parameters.getMemory());
+        updateInt(digest, parameters.getIterations());
+        updateInt(digest, VERSION);
+        updateInt(digest, TYPE_ID);
+        updateInt(digest, password.length);
+        digest.update(password, 0, password.length);
+        updateInt(digest, salt.length);
+        digest.update(salt, 0, salt.length);
+
+        // No secret key or associated data
+        updateInt(digest, 0);
+        updateInt(digest, 0);
+
+        byte[] h0 = new byte[PREHASH_LENGTH];
+        digest.doFinal(h0, 0);
+        return h0;
+    }
+
+    // Fill the first two blocks of every lane from H0
+    private void fillFirstBlocks(byte[] h0) {
+        byte[] input = Arrays.copyOf(h0, PREHASH_LENGTH + 8);
+        byte[] block = new byte[BLOCK_BYTES];
+
+        for(int lane = 0; lane < lanes; lane++) {
+            Pack.intToLittleEndian(lane, input, PREHASH_LENGTH + 4);
+
+            for(int index = 0; index < 2; index++) {
+                Pack.intToLittleEndian(index, input, PREHASH_LENGTH);
+                hashLong(input, block, BLOCK_BYTES);
+                Pack.littleEndianToLong(block, 0, memory, (lane * laneLength + index) * BLOCK_WORDS, BLOCK_WORDS);
+            }
+        }
+
+        Arrays.fill(input, (byte) 0);
+        Arrays.fill(block, (byte) 0);
+    }
+
+    // Make every pass over memory. The lanes of a slice are independent of each other, so they are filled concurrently
+    private void fillMemory() {
+        ExecutorService executor = (lanes > 1) ? getPool() : null;
+
+        for(int pass = 0; pass < iterations; pass++) {
+            for(int slice = 0; slice < SYNC_POINTS; slice++) {
+                if(executor == null) {
+                    fillSegment(pass, 0, slice);
+                    continue;
+                }
+
+                List<Callable<Void>> segments = new ArrayList<>(lanes);
+
+                for(int lane = 0; lane < lanes; lane++) {
+                    final int segmentPass = pass;
+                    final int segmentLane = lane;
+                    final int segmentSlice = slice;
+
+                    segments.add(() -> {
+                        fillSegment(segmentPass, segmentLane, segmentSlice);
+                        return null;
+                    });
+                }
+
+                // Every segment of this slice has to be done before the next slice may reference it
+                try {
+                    for(Future<Void> segment : executor.invokeAll(segments)) {
+                        segment.get();
+                    }
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while hashing", e);
+                } catch(ExecutionException e) {
+                    throw new IllegalStateException("Failed to fill Argon2 segment", e.getCause());
+                }
+            }
+        }
+    }
+
+    // Fill one segment of a lane
+    private void fillSegment(int pass, int lane, int slice) {
+        long[] scratchR = new long[BLOCK_WORDS];
+        long[] scratchTmp = new long[BLOCK_WORDS];
+
+        // The first half of the first pass picks reference blocks independently of the data (Argon2i style)
+        boolean dataIndependent = pass == 0 && slice < SYNC_POINTS / 2;
+        long[] zeroBlock = null;
+        long[] inputBlock = null;
+        long[] addressBlock = null;
+
+        if(dataIndependent) {
+            zeroBlock = new long[BLOCK_WORDS];
+            inputBlock = new long[BLOCK_WORDS];
+            addressBlock = new long[BLOCK_WORDS];
+
+            inputBlock[0] = pass;
+            inputBlock[1] = lane;
+            inputBlock[2] = slice;
+            inputBlock[3] = memoryBlocks;
+            inputBlock[4] = iterations;
+            inputBlock[5] = TYPE_ID;
+        }
+
+        // The first two blocks of each lane were already filled from H0
+        int startingIndex = 0;
+
+        if(pass == 0 && slice == 0) {
+            startingIndex = 2;
+
+            if(dataIndependent) {
+                nextAddresses(zeroBlock, inputBlock, addressBlock, scratchR, scratchTmp);
+            }
+        }
+
+        int currentOffset = lane * laneLength + slice * segmentLength + startingIndex;
+        int previousOffset = (currentOffset % laneLength == 0) ? currentOffset + laneLength - 1 : currentOffset - 1;
+
+        for(int index = startingIndex; index < segmentLength; index++, currentOffset++, previousOffset++) {
+            // Wrap the previous block around to the end of the lane
+            if(currentOffset % laneLength == 1) {
+                previousOffset = currentOffset - 1;
+            }
+
+            long pseudoRandom;
+
+            if(dataIndependent) {
+                if(index % BLOCK_WORDS == 0) {
+                    nextAddresses(zeroBlock, inputBlock, addressBlock, scratchR, scratchTmp);
+                }
+
+                pseudoRandom = addressBlock[index % BLOCK_WORDS];
+            } else {
+                pseudoRandom = memory[previousOffset * BLOCK_WORDS];
+            }
+
+            // The first slice of the first pass can only reference its own lane
+            int referenceLane = (pass == 0 && slice == 0) ? lane : (int) ((pseudoRandom >>> 32) % lanes);
+            int referenceIndex = referenceIndex(pass, slice, index, pseudoRandom & 0xFFFFFFFFL, referenceLane == lane);
+
+            BlaMka.fillBlock(memory, previousOffset * BLOCK_WORDS,
+                             memory, (referenceLane * laneLength + referenceIndex) * BLOCK_WORDS,
+                             memory, currentOffset * BLOCK_WORDS, pass != 0, scratchR, scratchTmp);
+        }
+    }
+
+    // Map the lower half of the pseudo random value to a block in the reference lane that may be used
+    private int referenceIndex(int pass, int slice, int index, long pseudoRandom, boolean sameLane) {
+        long referenceAreaSize;
+
+        if(pass == 0) {
+            if(slice == 0) {
+                // Every block before the previous one
+                referenceAreaSize = index - 1;
+            } else if(sameLane) {
+                // Every finished segment of this lane and the blocks of this segment before the previous one
+                referenceAreaSize = (long) slice * segmentLength + index - 1;
+            } else {
+                // Every finished segment of the other lane, leaving out the last block when starting a segment
+                referenceAreaSize = (long) slice * segmentLength + ((index == 0) ? -1 : 0);
+            }
+        } else {
+            if(sameLane) {
+                referenceAreaSize = laneLength - segmentLength + index - 1;
+            } else {
+                referenceAreaSize = laneLength - segmentLength + ((index == 0) ? -1 : 0);
+            }
+        }
+
+        long relativePosition = (pseudoRandom * pseudoRandom) >>> 32;
+        relativePosition = referenceAreaSize - 1 - ((referenceAreaSize * relativePosition) >>> 32);
+
+        long startPosition = 0;
+
+        if(pass != 0) {
+            startPosition = (slice == SYNC_POINTS - 1) ? 0 : (long) (slice + 1) * segmentLength;
+        }
+
+        return (int) ((startPosition + relativePosition) % laneLength);
+    }
+
+    // Generate the next block of data independent reference addresses
+    private static void nextAddresses(long[] zeroBlock, long[] inputBlock, long[] addressBlock, long[] scratchR, long[] scratchTmp) {
+        inputBlock[6]++;
+        BlaMka.fillBlock(zeroBlock, 0, inputBlock, 0, addressBlock, 0, false, scratchR, scratchTmp);
+        BlaMka.fillBlock(zeroBlock, 0, addressBlock, 0, addressBlock, 0, false, scratchR, scratchTmp);
+    }
+
+    // XOR the last block of every lane together and hash it into the output
+    private byte[] finalHash(int outLength) {
+        long[] finalBlock = Arrays.copyOfRange(memory, (laneLength - 1) * BLOCK_WORDS, laneLength * BLOCK_WORDS);
+
+        for(int lane = 1; lane < lanes; lane++) {
+            int offset = (lane * laneLength + laneLength - 1) * BLOCK_WORDS;
+
+            for(int word = 0; word < BLOCK_WORDS; word++) {
+                finalBlock[word] ^= memory[offset + word];
+            }
+        }
+
+        byte[] finalBytes = Pack.longToLittleEndian(finalBlock);
+        byte[] out = new byte[outLength];
+        hashLong(finalBytes, out, outLength);
+
+        Arrays.fill(finalBytes, (byte) 0);
+        return out;
+    }
+
+    // Variable length hash H' built from Blake2b
+    private static void hashLong(byte[] input, byte[] out, int outLength) {
+        byte[] lengthBytes = Pack.intToLittleEndian(outLength);
+
+        if(outLength <= PREHASH_LENGTH) {
+            Blake2bDigest digest = new Blake2bDigest(outLength * 8);
+            digest.update(lengthBytes, 0, lengthBytes.length);
+            digest.update(input, 0, input.length);
+            digest.doFinal(out, 0);
+            return;
+        }
+
+        Blake2bDigest digest = new Blake2bDigest(PREHASH_LENGTH * 8);
+        byte[] buffer = new byte[PREHASH_LENGTH];
+
+        digest.update(lengthBytes, 0, lengthBytes.length);
+        digest.update(input, 0, input.length);
+        digest.doFinal(buffer, 0);
+
+        // Take the first half of each 64 byte hash, hashing the previous hash each time
+        System.arraycopy(buffer, 0, out, 0, PREHASH_LENGTH / 2);
+        int position = PREHASH_LENGTH / 2;
+        int remaining = outLength - PREHASH_LENGTH / 2;
+
+        while(remaining > PREHASH_LENGTH) {
+            digest.update(buffer, 0, buffer.length);
+            digest.doFinal(buffer, 0);
+
+            System.arraycopy(buffer, 0, out, position, PREHASH_LENGTH / 2);
+            position += PREHASH_LENGTH / 2;
+            remaining -= PREHASH_LENGTH / 2;
+        }
+
+        // The last hash is sized to exactly fill the rest of the output
+        Blake2bDigest lastDigest = new Blake2bDigest(remaining * 8);
+        lastDigest.update(buffer, 0, buffer.length);
+        lastDigest.doFinal(out, position);
+
+        Arrays.fill(buffer, (byte) 0);
+    }
+
+    // Add a 32-bit little endian integer to the digest
+    private static void updateInt(Blake2bDigest digest, int value) {
+        digest.update(Pack.intToLittleEndian(value), 0, 4);
+    }
+
+    // Get the pool shared by every hash, creating it the first time it is needed
+    private static synchronized ExecutorService getPool() {
+        if(pool == null) {
+            pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "argon2-lane");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return pool;
+    }
+}
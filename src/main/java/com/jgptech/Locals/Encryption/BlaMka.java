@@ -0,0 +1,127 @@
+/*
+ * NAME: BlaMka
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Argon2 compression function G, built from the BlaMka variant of the Blake2b round. Uses the Vector API
+ *              version when the JVM was started with jdk.incubator.vector and the hardware supports it
+ */
+
+package com.jgptech.Locals.Encryption;
+
+final class BlaMka {
+    // Size of a block in 64-bit words
+    private static final int BLOCK_WORDS = 128;
+
+    // Mask for the lower 32 bits of a word
+    private static final long LOWER_MASK = 0xFFFFFFFFL;
+
+    // Module holding the Vector API, only resolved when the JVM is started with --add-modules jdk.incubator.vector
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    // Whether the Vector API version is used
+    private static final boolean VECTORIZED = isVectorSupported();
+
+
+    // Prevent instantiation
+    private BlaMka() {}
+
+    // Compress the previous and reference blocks into the next block. On passes after the first the result is XORed
+    // into what the next block already holds. The scratch arrays need to hold a block each and are overwritten
+    static void fillBlock(long[] previous, int previousOffset, long[] reference, int referenceOffset,
+                          long[] next, int nextOffset, boolean withXor, long[] scratchR, long[] scratchTmp) {
+        if(VECTORIZED) {
+            BlaMkaVector.fillBlock(previous, previousOffset, reference, referenceOffset, next, nextOffset, withXor, scratchR, scratchTmp);
+        } else {
+            fillBlockScalar(previous, previousOffset, reference, referenceOffset, next, nextOffset, withXor, scratchR, scratchTmp);
+        }
+    }
+
+    // Returns true if the Vector API version is used
+    static boolean isVectorized() {
+        return VECTORIZED;
+    }
+
+    // Same as fillBlock(), without the Vector API
+    static void fillBlockScalar(long[] previous, int previousOffset, long[] reference, int referenceOffset,
+                                long[] next, int nextOffset, boolean withXor, long[] scratchR, long[] scratchTmp) {
+        for(int word = 0; word < BLOCK_WORDS; word++) {
+            scratchR[word] = previous[previousOffset + word] ^ reference[referenceOffset + word];
+        }
+
+        if(withXor) {
+            for(int word = 0; word < BLOCK_WORDS; word++) {
+                scratchTmp[word] = scratchR[word] ^ next[nextOffset + word];
+            }
+        } else {
+            System.arraycopy(scratchR, 0, scratchTmp, 0, BLOCK_WORDS);
+        }
+
+        permute(scratchR);
+
+        for(int word = 0; word < BLOCK_WORDS; word++) {
+            next[nextOffset + word] = scratchTmp[word] ^ scratchR[word];
+        }
+    }
+
+    // Returns true if the JVM was started with the Vector API and the hardware has the vectors it needs. Packaged apps
+    // do not add the module, so the scalar version is what ships
+    private static boolean isVectorSupported() {
+        if(ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+            return false;
+        }
+
+        try {
+            return BlaMkaVector.isSupported();
+        } catch(LinkageError e) {
+            return false;
+        }
+    }
+
+    // Apply the permutation P to each row of 16 words, then to each column of 16 words
+    private static void permute(long[] block) {
+        for(int row = 0; row < 8; row++) {
+            int base = row * 16;
+            round(block, base, base + 1, base + 2, base + 3, base + 4, base + 5, base + 6, base + 7,
+                  base + 8, base + 9, base + 10, base + 11, base + 12, base + 13, base + 14, base + 15);
+        }
+
+        for(int column = 0; column < 8; column++) {
+            int base = column * 2;
+            round(block, base, base + 1, base + 16, base + 17, base + 32, base + 33, base + 48, base + 49,
+                  base + 64, base + 65, base + 80, base + 81, base + 96, base + 97, base + 112, base + 113);
+        }
+    }
+
+    // One Blake2b round over 16 words of the block
+    private static void round(long[] v, int v0, int v1, int v2, int v3, int v4, int v5, int v6, int v7,
+                              int v8, int v9, int v10, int v11, int v12, int v13, int v14, int v15) {
+        mix(v, v0, v4, v8, v12);
+        mix(v, v1, v5, v9, v13);
+        mix(v, v2, v6, v10, v14);
+        mix(v, v3, v7, v11, v15);
+
+        mix(v, v0, v5, v10, v15);
+        mix(v, v1, v6, v11, v12);
+        mix(v, v2, v7, v8, v13);
+        mix(v, v3, v4, v9, v14);
+    }
+
+    // Blake2b mixing function with the additions replaced by the multiply-hardened fBlaMka
+    private static void mix(long[] v, int a, int b, int c, int d) {
+        v[a] = fBlaMka(v[a], v[b]);
+        v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+        v[c] = fBlaMka(v[c], v[d]);
+        v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+
+        v[a] = fBlaMka(v[a], v[b]);
+        v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+        v[c] = fBlaMka(v[c], v[d]);
+        v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+    }
+
+    // x + y + 2 * lower(x) * lower(y)
+    private static long fBlaMka(long x, long y) {
+        return x + y + 2 * ((x & LOWER_MASK) * (y & LOWER_MASK));
+    }
+}
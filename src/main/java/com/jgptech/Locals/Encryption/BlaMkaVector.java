@@ -0,0 +1,150 @@
+/*
+ * NAME: BlaMkaVector
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Argon2 compression function G using the Vector API, mixing the four columns (then the four diagonals)
+ *              of each Blake2b round side by side in 256-bit vectors. Only loaded when jdk.incubator.vector is present
+ */
+
+package com.jgptech.Locals.Encryption;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+final class BlaMkaVector {
+    // Four 64-bit words per vector, one for each of the G calls done side by side
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_256;
+
+    // Size of a block in 64-bit words
+    private static final int BLOCK_WORDS = 128;
+
+    // Mask for the lower 32 bits of a word
+    private static final long LOWER_MASK = 0xFFFFFFFFL;
+
+    // Lanes taken from the second vector when combining the halves of two vectors
+    private static final VectorMask<Long> UPPER_HALF = VectorMask.fromValues(SPECIES, false, false, true, true);
+
+    // Rotations lining the diagonals of the round up under the columns, and back again
+    private static final VectorShuffle<Long> ROTATE_1 = VectorShuffle.fromValues(SPECIES, 1, 2, 3, 0);
+    private static final VectorShuffle<Long> ROTATE_2 = VectorShuffle.fromValues(SPECIES, 2, 3, 0, 1);
+    private static final VectorShuffle<Long> ROTATE_3 = VectorShuffle.fromValues(SPECIES, 3, 0, 1, 2);
+
+
+    // Prevent instantiation
+    private BlaMkaVector() {}
+
+    // Returns true if the hardware has 256-bit vectors, which this needs. Says nothing about whether it is faster than
+    // the scalar version
+    static boolean isSupported() {
+        return LongVector.SPECIES_PREFERRED.vectorBitSize() >= SPECIES.vectorBitSize();
+    }
+
+    // Same contract as BlaMka.fillBlock()
+    static void fillBlock(long[] previous, int previousOffset, long[] reference, int referenceOffset,
+                          long[] next, int nextOffset, boolean withXor, long[] scratchR, long[] scratchTmp) {
+        for(int word = 0; word < BLOCK_WORDS; word += SPECIES.length()) {
+            LongVector r = LongVector.fromArray(SPECIES, previous, previousOffset + word)
+                    .lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, reference, referenceOffset + word));
+            r.intoArray(scratchR, word);
+
+            if(withXor) {
+                r = r.lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, next, nextOffset + word));
+            }
+
+            r.intoArray(scratchTmp, word);
+        }
+
+        permute(scratchR);
+
+        for(int word = 0; word < BLOCK_WORDS; word += SPECIES.length()) {
+            LongVector.fromArray(SPECIES, scratchTmp, word)
+                    .lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, scratchR, word))
+                    .intoArray(next, nextOffset + word);
+        }
+    }
+
+    // Apply the permutation P to each row of 16 words, then to each column of 16 words
+    private static void permute(long[] block) {
+        for(int row = 0; row < 8; row++) {
+            int base = row * 16;
+            round(block, base, base + 4, base + 8, base + 12);
+        }
+
+        // Each group of four words across the rows holds the word pairs of two neighbouring columns. Once their halves
+        // are swapped the even rows hold the first column and the odd rows the second
+        for(int quarter = 0; quarter < 4; quarter++) {
+            int base = quarter * 4;
+
+            swapHalves(block, base);
+            round(block, base, base + 32, base + 64, base + 96);
+            round(block, base + 16, base + 48, base + 80, base + 112);
+            swapHalves(block, base);
+        }
+    }
+
+    // One Blake2b round over 16 words held as four vectors of (v0-v3), (v4-v7), (v8-v11), (v12-v15) at the given offsets
+    private static void round(long[] block, int offsetA, int offsetB, int offsetC, int offsetD) {
+        // Columns: G(v0, v4, v8, v12) through G(v3, v7, v11, v15), then line the diagonals up under the columns
+        mix(block, offsetA, offsetB, offsetC, offsetD, ROTATE_1, ROTATE_2, ROTATE_3);
+
+        // Diagonals: G(v0, v5, v10, v15) through G(v3, v4, v9, v14), then put them back
+        mix(block, offsetA, offsetB, offsetC, offsetD, ROTATE_3, ROTATE_2, ROTATE_1);
+    }
+
+    // Four Blake2b mixing functions side by side with the additions replaced by fBlaMka. The b, c and d vectors are
+    // rotated by the given shuffles as they are stored. Kept small so the JIT inlines every vector operation in it
+    private static void mix(long[] block, int offsetA, int offsetB, int offsetC, int offsetD,
+                            VectorShuffle<Long> shuffleB, VectorShuffle<Long> shuffleC, VectorShuffle<Long> shuffleD) {
+        LongVector a = LongVector.fromArray(SPECIES, block, offsetA);
+        LongVector b = LongVector.fromArray(SPECIES, block, offsetB);
+        LongVector c = LongVector.fromArray(SPECIES, block, offsetC);
+        LongVector d = LongVector.fromArray(SPECIES, block, offsetD);
+
+        a = fBlaMka(a, b);
+        d = d.lanewise(VectorOperators.XOR, a).lanewise(VectorOperators.ROR, 32);
+        c = fBlaMka(c, d);
+        b = b.lanewise(VectorOperators.XOR, c).lanewise(VectorOperators.ROR, 24);
+        a = fBlaMka(a, b);
+        d = d.lanewise(VectorOperators.XOR, a).lanewise(VectorOperators.ROR, 16);
+        c = fBlaMka(c, d);
+        b = b.lanewise(VectorOperators.XOR, c).lanewise(VectorOperators.ROR, 63);
+
+        a.intoArray(block, offsetA);
+        b.rearrange(shuffleB).intoArray(block, offsetB);
+        c.rearrange(shuffleC).intoArray(block, offsetC);
+        d.rearrange(shuffleD).intoArray(block, offsetD);
+    }
+
+    // Swap the upper half of each even row of four words at base with the lower half of the row after it, turning
+    // (a0, a1, b0, b1) and (a2, a3, b2, b3) into (a0, a1, a2, a3) and (b0, b1, b2, b3). Doing it twice undoes it
+    private static void swapHalves(long[] block, int base) {
+        for(int row = 0; row < 8; row += 2) {
+            int offset = base + row * 16;
+            LongVector x = LongVector.fromArray(SPECIES, block, offset);
+            LongVector y = LongVector.fromArray(SPECIES, block, offset + 16);
+
+            lowHalves(x, y).intoArray(block, offset);
+            highHalves(x, y).intoArray(block, offset + 16);
+        }
+    }
+
+    // (x0, x1, y0, y1)
+    private static LongVector lowHalves(LongVector x, LongVector y) {
+        return x.blend(y.rearrange(ROTATE_2), UPPER_HALF);
+    }
+
+    // (x2, x3, y2, y3)
+    private static LongVector highHalves(LongVector x, LongVector y) {
+        return x.rearrange(ROTATE_2).blend(y, UPPER_HALF);
+    }
+
+    // x + y + 2 * lower(x) * lower(y)
+    private static LongVector fBlaMka(LongVector x, LongVector y) {
+        LongVector product = x.and(LOWER_MASK).mul(y.and(LOWER_MASK));
+        return x.add(y).add(product.add(product));
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * NAME: BlindIndex
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Tags names with a keyed hash (HMAC-SHA256 under a subkey of the vault's data key) so groups and entries
+ *              can be looked up by name without decrypting any. Names are normalized first, so names that only differ in
+ *              case, surrounding spaces or Unicode compatibility forms get the same tag. Without the key a tag says
+ *              nothing about the name, other than whether two names are the same. Domains of login URLs are tagged the
+ *              same way with a key of their own (see DomainIndex)
+ */
+
+package com.jgptech.Locals.Encryption;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+
+public final class BlindIndex {
+    // Length of a tag (bytes). Truncated from the full MAC, which still leaves collisions out of reach
+    public static final int TAG_LENGTH = 16;
+
+
+    // Prevent instantiation
+    private BlindIndex() {}
+
+    // Get the tag of a name, or null if there is no name
+    public static byte[] tag(String name, CipherSession session) {
+        if(name == null) {
+            return null;
+        }
+
+        byte[] normalized = normalize(name).getBytes(StandardCharsets.UTF_8);
+        byte[] mac = session.getNameMac().doFinal(normalized);
+        Arrays.fill(normalized, (byte) 0);
+
+        return Arrays.copyOf(mac, TAG_LENGTH);
+    }
+
+    // Get the tag of a domain, which is already in lower case ASCII
+    public static byte[] tagDomain(String domain, CipherSession session) {
+        byte[] mac = session.getDomainMac().doFinal(domain.getBytes(StandardCharsets.US_ASCII));
+        return Arrays.copyOf(mac, TAG_LENGTH);
+    }
+
+    // Returns true if a tag read from a vault file is well formed
+    public static boolean isTag(byte[] tag) {
+        return tag != null && tag.length == TAG_LENGTH;
+    }
+
+    // Get the form of a name that is tagged
+    static String normalize(String name) {
+        return Normalizer.normalize(name, Normalizer.Form.NFKC).strip().toLowerCase(Locale.ROOT);
+    }
+}
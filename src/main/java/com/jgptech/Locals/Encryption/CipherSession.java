@@ -0,0 +1,258 @@
+/*
+ * NAME: CipherSession
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Holds the cipher state for an unlocked vault so fields can be encrypted/decrypted without per-call setup
+ */
+
+package com.jgptech.Locals.Encryption;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class CipherSession {
+    // Transformation string used for every cipher in the session
+    private final static String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    // MAC algorithm names and domains are tagged with for the blind index, and grams hashed with for the search index
+    private final static String INDEX_MAC = "HmacSHA256";
+
+    // Size (in bytes) of the random part of each nonce, the rest is taken up by the counter
+    private final static int NONCE_PREFIX_LENGTH = 4;
+
+    // Indexes keyed with their own key split off of the unlocked key
+    private enum Index {
+        NAME,
+        SEARCH,
+        DOMAIN
+    }
+
+    // Cipher and MAC objects of one thread, as they cannot be shared between threads. Each is created the first time
+    // the thread needs it
+    private static final class ThreadState {
+        private Cipher cipher;
+        private final Mac[] macs = new Mac[Index.values().length];
+
+        // Drop the keyed objects once the session is closed
+        private void clear() {
+            cipher = null;
+            Arrays.fill(macs, null);
+        }
+    }
+
+    // Key spec for the unlocked key, built once for the whole session
+    private final SecretKeySpec keySpec;
+
+    // Random prefix of every nonce generated in this session
+    private final byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+
+    // Counter making up the rest of the nonce. Starts at a random value so sessions do not walk over the same range
+    private final AtomicLong nonceCounter;
+
+    // Cipher and MAC objects cached per thread
+    private final ThreadLocal<ThreadState> threadState = ThreadLocal.withInitial(this::newThreadState);
+
+    // Every thread's state, including those of worker threads, so close() can drop all of them
+    private final Set<ThreadState> threadStates = ConcurrentHashMap.newKeySet();
+
+    // Key specs of the index MACs by Index ordinal, split off of the unlocked key the first time each index is used.
+    // Sessions that only wrap or unwrap a key never derive them
+    private final SecretKeySpec[] indexKeys = new SecretKeySpec[Index.values().length];
+
+    // Whether the session was closed, after which nothing can be encrypted or decrypted with it
+    private volatile boolean closed = false;
+
+    // Names of groups and entries decrypted with this session
+    private final NameCache names = new NameCache(this);
+
+    // Whether long fields are deflated before they are encrypted, as set by the vault the session unlocked
+    private volatile boolean compressFields = true;
+
+
+    // Constructor for a session bound to the unlocked key
+    public CipherSession(byte[] key) {
+        this.keySpec = new SecretKeySpec(key, EncryptionAlgorithm.AES.toCipherString());
+
+        // Seed the nonce source once for the whole session
+        SecureRandom rand = new SecureRandom();
+        rand.nextBytes(noncePrefix);
+        this.nonceCounter = new AtomicLong(rand.nextLong());
+    }
+
+    // Get the key spec for this session
+    SecretKeySpec getKeySpec() {
+        checkOpen();
+        return keySpec;
+    }
+
+    // Get a copy of the unlocked key, for handing it to the unlock agent. The caller clears the copy once done with it
+    public byte[] getKey() {
+        checkOpen();
+        return keySpec.getEncoded();
+    }
+
+    // Get the cipher object for the calling thread
+    Cipher getCipher() {
+        ThreadState state = threadState();
+
+        if(state.cipher == null) {
+            state.cipher = newCipher();
+        }
+
+        return state.cipher;
+    }
+
+    // Get the MAC object that tags names for the calling thread
+    Mac getNameMac() {
+        return indexMac(Index.NAME);
+    }
+
+    // Get the MAC object that hashes the grams of search filters for the calling thread
+    Mac getSearchMac() {
+        return indexMac(Index.SEARCH);
+    }
+
+    // Get the MAC object that tags domains for the calling thread
+    Mac getDomainMac() {
+        return indexMac(Index.DOMAIN);
+    }
+
+    // Get the cache of the names decrypted with this session
+    public NameCache getNames() {
+        return names;
+    }
+
+    // Returns true if long fields are deflated before they are encrypted with this session
+    boolean compressesFields() {
+        return compressFields;
+    }
+
+    // Set whether long fields are deflated before they are encrypted with this session (see Vault.compress())
+    public void setCompressFields(boolean compressFields) {
+        this.compressFields = compressFields;
+    }
+
+    // Write the next unique nonce for this session into the given array
+    void nextNonce(byte[] iv, int offset) {
+        checkOpen();
+        long counter = nonceCounter.getAndIncrement();
+
+        System.arraycopy(noncePrefix, 0, iv, offset, NONCE_PREFIX_LENGTH);
+
+        for(int index = VaultEncryptor.IV_LENGTH - 1; index >= NONCE_PREFIX_LENGTH; index--) {
+            iv[offset + index] = (byte) counter;
+            counter >>>= 8;
+        }
+    }
+
+    // Release the nonce and cipher state and the decrypted names held by this session once the vault is locked. The
+    // cipher and MAC objects of every thread that used the session are dropped, and any later use of the session fails
+    public void close() {
+        closed = true;
+        names.clear();
+        Arrays.fill(noncePrefix, (byte) 0);
+
+        for(ThreadState state : threadStates) {
+            state.clear();
+        }
+
+        threadStates.clear();
+        threadState.remove();
+
+        synchronized(indexKeys) {
+            Arrays.fill(indexKeys, null);
+        }
+    }
+
+    // Returns true once the session was closed
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // Throw if the session was closed
+    private void checkOpen() {
+        if(closed) {
+            throw new IllegalStateException("The cipher session is closed");
+        }
+    }
+
+    // Get the state of the calling thread
+    private ThreadState threadState() {
+        checkOpen();
+        return threadState.get();
+    }
+
+    // Create the state of a thread that did not use the session yet and keep track of it
+    private ThreadState newThreadState() {
+        ThreadState state = new ThreadState();
+        threadStates.add(state);
+        return state;
+    }
+
+    // Get the MAC object of an index for the calling thread
+    private Mac indexMac(Index index) {
+        ThreadState state = threadState();
+        Mac mac = state.macs[index.ordinal()];
+
+        if(mac == null) {
+            mac = newIndexMac(indexKey(index));
+            state.macs[index.ordinal()] = mac;
+        }
+
+        return mac;
+    }
+
+    // Get the key spec of an index, splitting its key off of the unlocked key the first time
+    private SecretKeySpec indexKey(Index index) {
+        synchronized(indexKeys) {
+            checkOpen();
+            SecretKeySpec indexKey = indexKeys[index.ordinal()];
+
+            if(indexKey == null) {
+                byte[] key = keySpec.getEncoded();
+                byte[] derived = switch(index) {
+                    case NAME -> KeyHasher.deriveNameIndexKey(key);
+                    case SEARCH -> KeyHasher.deriveSearchIndexKey(key);
+                    case DOMAIN -> KeyHasher.deriveDomainIndexKey(key);
+                };
+
+                indexKey = new SecretKeySpec(derived, INDEX_MAC);
+                indexKeys[index.ordinal()] = indexKey;
+                Arrays.fill(key, (byte) 0);
+                Arrays.fill(derived, (byte) 0);
+            }
+
+            return indexKey;
+        }
+    }
+
+    // Create a new cipher object for a thread that does not have one yet
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException("Cipher " + TRANSFORMATION + " is not available", e);
+        }
+    }
+
+    // Create a new MAC object with one of the index keys, for a thread that does not have one yet
+    private static Mac newIndexMac(SecretKeySpec keySpec) {
+        try {
+            Mac mac = Mac.getInstance(INDEX_MAC);
+            mac.init(keySpec);
+            return mac;
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException("MAC " + INDEX_MAC + " is not available", e);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * NAME: CryptoWarmup
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Initializes the JCE provider, BouncyCastle and the key derivation code in the background so the first
+ *              real unlock does not pay for class loading and provider setup
+ */
+
+package com.jgptech.Locals.Encryption;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CompletableFuture;
+
+public final class CryptoWarmup {
+    // Smallest Argon2 run that still touches every class the real one uses, including the lane thread pool
+    private static final KdfParameters WARMUP_PARAMETERS = new KdfParameters(HashingAlgorithm.Argon2, 16, 1, 2);
+
+
+    // Prevent instantiation
+    private CryptoWarmup() {}
+
+    // Start warming up on a background thread
+    public static CompletableFuture<Void> start() {
+        return CompletableFuture.runAsync(CryptoWarmup::run);
+    }
+
+    // Run every piece of the unlock path once on throwaway data
+    private static void run() {
+        // SecureRandom seeding and the Argon2/Blake2b classes
+        byte[] salt = KeyHasher.generateSalt();
+        byte[] masterKey = Argon2Hasher.hash(new byte[0], salt, WARMUP_PARAMETERS, KeyHasher.KEY_LENGTH);
+
+        // HKDF split of the master key
+        KeyHasher.deriveAuthHash(masterKey);
+        byte[] kek = KeyHasher.deriveKeyEncryptionKey(masterKey);
+
+        // JCE provider lookup and AES-GCM setup, through the same key unwrap an unlock does
+        CipherSession session = new CipherSession(KeyHasher.generateKey());
+
+        try {
+            VaultEncryptor.unwrapKey(VaultEncryptor.wrapKey(session, kek), kek).close();
+        } catch(GeneralSecurityException e) {
+            // Nothing to do, the real unlock will report the problem
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * NAME: FieldTransform
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Transformation applied to a single encrypted field, such as re-encrypting it under a new key
+ */
+
+package com.jgptech.Locals.Encryption;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+@FunctionalInterface
+public interface FieldTransform {
+    // Transform one encrypted field into its new encrypted form. Must be safe to call from several threads at once
+    byte[] apply(byte[] encrypted) throws GeneralSecurityException;
+
+    // Re-encrypt fields from one session's key to another's
+    static FieldTransform rekey(CipherSession from, CipherSession to) {
+        return encrypted -> {
+            byte[] data = VaultEncryptor.decrypt(encrypted, from);
+
+            try {
+                return VaultEncryptor.encrypt(data, to);
+            } finally {
+                // Clear the plaintext before it is left for the garbage collector
+                Arrays.fill(data, (byte) 0);
+            }
+        };
+    }
+
+    // Deflate fields from before compression that are long enough for it, under the same key
+    static FieldTransform compress(CipherSession session) {
+        return encrypted -> VaultEncryptor.compressRecord(encrypted, session);
+    }
+
+    // Inflate deflated fields, under the same key
+    static FieldTransform decompress(CipherSession session) {
+        return encrypted -> VaultEncryptor.decompressRecord(encrypted, session);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * NAME: KdfParameters
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Cost parameters for deriving a key from the master password, stored per vault and tuned per machine
+ */
+
+package com.jgptech.Locals.Encryption;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+public final class KdfParameters {
+    // Parameters every vault used before they were stored in the vault file
+    public static final KdfParameters DEFAULT = new KdfParameters(HashingAlgorithm.Argon2, 65536, 3, 4);
+
+    // File the calibrated target for this machine is kept in
+    private static final Path HOST_TARGET_PATH = Paths.get(System.getProperty("user.home"), ".locals", "kdf.properties");
+
+    // Calibrated target for this machine, loaded the first time it is needed
+    private static KdfParameters hostTarget;
+
+    // Most lanes Argon2 allows
+    private static final int MAX_PARALLELISM = (1 << 24) - 1;
+
+    // Blocks Argon2 needs in each lane, two for each of its four slices
+    private static final int MIN_BLOCKS_PER_LANE = 8;
+
+    // Most memory whose blocks of 128 words still fit in a single array (KB)
+    private static final int MAX_MEMORY = Integer.MAX_VALUE / 128;
+
+    // Hashing algorithm the parameters are for
+    private final HashingAlgorithm algorithm;
+
+    // Memory for the algorithm to use (KB). Unused by PBKDF2
+    private final int memory;
+
+    // Iterations (passes over memory for Argon2, hash iterations for PBKDF2)
+    private final int iterations;
+
+    // Lanes for the algorithm to use. Unused by PBKDF2
+    private final int parallelism;
+
+
+    // Constructor for a set of KDF parameters. Throws IllegalArgumentException for parameters the algorithm cannot run
+    // with, as read from a damaged vault file
+    public KdfParameters(HashingAlgorithm algorithm, int memory, int iterations, int parallelism) throws IllegalArgumentException {
+        if(algorithm == null) {
+            throw new IllegalArgumentException("no hashing algorithm");
+        } else if(iterations < 1) {
+            throw new IllegalArgumentException("iterations must be at least 1, not " + iterations);
+        }
+
+        // PBKDF2 ignores the memory and lanes
+        if(algorithm == HashingAlgorithm.Argon2) {
+            if(parallelism < 1 || parallelism > MAX_PARALLELISM) {
+                throw new IllegalArgumentException("lanes must be between 1 and " + MAX_PARALLELISM + ", not " + parallelism);
+            } else if(memory < MIN_BLOCKS_PER_LANE * parallelism) {
+                throw new IllegalArgumentException("memory must be at least " + MIN_BLOCKS_PER_LANE + " KB per lane, not " + memory + " KB");
+            } else if(memory > MAX_MEMORY) {
+                throw new IllegalArgumentException("memory must be at most " + MAX_MEMORY + " KB, not " + memory + " KB");
+            }
+        }
+
+        this.algorithm = algorithm;
+        this.memory = memory;
+        this.iterations = iterations;
+        this.parallelism = parallelism;
+    }
+
+    // Get the hashing algorithm
+    public HashingAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    // Get the memory (KB)
+    public int getMemory() {
+        return memory;
+    }
+
+    // Get the iterations
+    public int getIterations() {
+        return iterations;
+    }
+
+    // Get the parallelism
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    // Returns true if these parameters cost an attacker less than the other ones. Only the memory and iterations count:
+    // the lanes split the same memory and passes between threads, which speeds up the derivation on a machine with more
+    // cores but leaves the total work of a guess the same
+    public boolean isWeakerThan(KdfParameters other) {
+        // Any Argon2 setting beats PBKDF2, as PBKDF2 is not memory hard
+        if(algorithm != other.algorithm) {
+            return other.algorithm == HashingAlgorithm.Argon2;
+        }
+
+        return (long) memory * iterations < (long) other.memory * other.iterations;
+    }
+
+    // Get the target parameters for vaults on this machine. Falls back to the defaults if it was never calibrated
+    public static synchronized KdfParameters getTarget() {
+        if(hostTarget == null) {
+            hostTarget = loadHostTarget();
+        }
+
+        return hostTarget == null ? DEFAULT : hostTarget;
+    }
+
+    // Returns true if this machine has been calibrated
+    public static synchronized boolean hasHostTarget() {
+        return getTarget() != DEFAULT;
+    }
+
+    // Save calibrated parameters as the target for vaults on this machine
+    public static synchronized boolean saveHostTarget(KdfParameters target) {
+        Properties properties = new Properties();
+        properties.setProperty("algorithm", Integer.toString(target.algorithm.getValue()));
+        properties.setProperty("memory", Integer.toString(target.memory));
+        properties.setProperty("iterations", Integer.toString(target.iterations));
+        properties.setProperty("parallelism", Integer.toString(target.parallelism));
+
+        try {
+            Files.createDirectories(HOST_TARGET_PATH.getParent());
+
+            try(OutputStream out = Files.newOutputStream(HOST_TARGET_PATH)) {
+                properties.store(out, "Calibrated key derivation parameters for this machine");
+            }
+        } catch(IOException e) {
+            System.out.println("Error: could not save the calibrated key derivation parameters: " + e.getMessage());
+            return false;
+        }
+
+        hostTarget = target;
+        return true;
+    }
+
+    // Load the calibrated target for this machine, or null if there is none
+    private static KdfParameters loadHostTarget() {
+        if(!Files.exists(HOST_TARGET_PATH)) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+
+        try(InputStream in = Files.newInputStream(HOST_TARGET_PATH)) {
+            properties.load(in);
+
+            return new KdfParameters(HashingAlgorithm.fromValue(Integer.parseInt(properties.getProperty("algorithm"))),
+                                     Integer.parseInt(properties.getProperty("memory")),
+                                     Integer.parseInt(properties.getProperty("iterations")),
+                                     Integer.parseInt(properties.getProperty("parallelism")));
+        } catch(IOException | IllegalArgumentException e) {
+            // NumberFormatException is an IllegalArgumentException, so a damaged file is also caught here
+            System.out.println("Error: could not read the calibrated key derivation parameters: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return switch(algorithm) {
+            case PBKDF2 -> "PBKDF2, " + iterations + " iterations";
+            default -> algorithm + ", " + (memory / 1024) + " MiB, " + iterations + " iterations, " + parallelism + " lanes";
+        };
+    }
+}
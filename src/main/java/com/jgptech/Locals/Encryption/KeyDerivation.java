@@ -0,0 +1,40 @@
+/*
+ * NAME: KeyDerivation
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Enum for the ways a vault turns the master password into its authentication hash and key encryption key
+ */
+
+package com.jgptech.Locals.Encryption;
+
+public enum KeyDerivation {
+    // Argon2 is run twice, once against saltAuth for the authentication hash and once against saltEnc for the key
+    DualArgon2(0),
+    // Argon2 is run once against saltEnc and the output is split with HKDF-SHA256 into the hash and the key
+    Argon2HKDF(1);
+
+    // Value of the enum
+    private final int value;
+
+    // Constructor for KeyDerivation
+    private KeyDerivation(int value) {
+        this.value = value;
+    }
+
+    // Get the value of a KeyDerivation variable
+    public int getValue() {
+        return value;
+    }
+
+    // Get the correct enum based on the value
+    public static KeyDerivation fromValue(int value) throws IllegalArgumentException {
+        for(KeyDerivation derivation : KeyDerivation.values()) {
+            if(derivation.getValue() == value) {
+                return derivation;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown value: " + value);
+    }
+}
@@ -8,43 +8,200 @@
 
 package com.jgptech.Locals.Encryption;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.*;
 
-import org.bouncycastle.crypto.params.Argon2Parameters;
-import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.params.HKDFParameters;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
 
 // REVIEW: should these methods be moved to VaultEncryptor and this class be removed?
 public final class KeyHasher {
-    // Memory for the Argon2 algorithm to use (KB)
-    private static final int MEMORY = 65536;
+    // Least memory calibration will settle on for Argon2 (KB)
+    private static final int MIN_MEMORY = 19456;
 
-    // Iterations for the Argon2 algorithm
-    private static final int ITERATIONS = 3;
+    // Most memory calibration will try for Argon2 (KB)
+    private static final int MAX_MEMORY = 1048576;
 
-    // Parallelism for the Argon2 algorithm
-    private static final int PARALLELISM = 4;
+    // Least and most iterations calibration will settle on for Argon2
+    private static final int MIN_ITERATIONS = 2;
+    private static final int MAX_ITERATIONS = 10;
+
+    // Most lanes calibration will use for Argon2
+    private static final int MAX_PARALLELISM = 4;
+
+    // cgroup files holding the memory limit of the container the program runs in (v2 then v1)
+    private static final Path[] CGROUP_MEMORY_LIMITS = {
+            Paths.get("/sys/fs/cgroup/memory.max"),
+            Paths.get("/sys/fs/cgroup/memory/memory.limit_in_bytes")
+    };
 
     // Derived key length (bytes)
-    private static final int KEY_LENGTH = 32; // 256 bits
+    static final int KEY_LENGTH = 32; // 256 bits
 
     // Length of salts generated (bytes)
     private static final int SALT_LENGTH = 16;
 
+    // HKDF info strings that keep the subkeys split from the master key independent of each other
+    private static final byte[] AUTH_HASH_INFO = "locals authentication hash".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_ENCRYPTION_KEY_INFO = "locals key encryption key".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NAME_INDEX_KEY_INFO = "locals name index key".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEARCH_INDEX_KEY_INFO = "locals search index key".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DOMAIN_INDEX_KEY_INFO = "locals domain index key".getBytes(StandardCharsets.UTF_8);
+
 
     // Prevent instantiation
     private KeyHasher() {}
 
-    // Hash the master password. Used to derive the symmetric cryptographic key as well as the authentication hash
+    // Hash the master password with the default parameters
     public static byte[] deriveKey(String password, byte[] salt) {
-        Argon2Parameters.Builder builder = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
-                .withSalt(salt).withMemoryAsKB(MEMORY).withIterations(ITERATIONS).withParallelism(PARALLELISM); // REVIEW: might add PIM support in future, if so withIterations() will be 3*PIM
+        return deriveKey(password, salt, KdfParameters.DEFAULT);
+    }
+
+    // Hash the master password. Used to derive the symmetric cryptographic key as well as the authentication hash
+    public static byte[] deriveKey(String password, byte[] salt, KdfParameters parameters) {
+        return switch(parameters.getAlgorithm()) {
+            case Argon2 -> deriveArgon2Key(password, salt, parameters);
+            case PBKDF2 -> derivePBKDF2Key(password, salt, parameters);
+            default -> throw new IllegalArgumentException("Unsupported hashing algorithm: " + parameters.getAlgorithm());
+        };
+    }
+
+    // Hash the master password with Argon2id, filling the lanes of each segment in parallel
+    private static byte[] deriveArgon2Key(String password, byte[] salt, KdfParameters parameters) {
+        // REVIEW: might add PIM support in future, if so the iterations will be 3*PIM
+        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+
+        try {
+            return Argon2Hasher.hash(passwordBytes, salt, parameters, KEY_LENGTH);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
 
-        Argon2BytesGenerator generator = new Argon2BytesGenerator();
-        generator.init(builder.build());
+    // Hash the master password with PBKDF2
+    private static byte[] derivePBKDF2Key(String password, byte[] salt, KdfParameters parameters) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, parameters.getIterations(), KEY_LENGTH * 8);
 
+        try {
+            return SecretKeyFactory.getInstance(parameters.getAlgorithm().toHasherString()).generateSecret(spec).getEncoded();
+        } catch(GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    // Find the strongest Argon2 parameters that derive a key within the target time on this machine, without using more
+    // memory than the heap or container allows
+    public static KdfParameters calibrate(long targetMillis) {
+        int parallelism = Math.min(Runtime.getRuntime().availableProcessors(), MAX_PARALLELISM);
+        int memory = MIN_MEMORY;
+
+        // Start from the most memory the budget allows, in doublings of the minimum. The time taken grows linearly with
+        // the memory, so each halving below about halves it
+        while(memory * 2L <= getMemoryBudget()) {
+            memory *= 2;
+        }
+
+        byte[] salt = generateSalt();
+        long millis;
+
+        // Halve the memory until the minimum number of iterations fits in the target time
+        while(true) {
+            millis = Math.max(1, timeDerivation(new KdfParameters(HashingAlgorithm.Argon2, memory, 1, parallelism), salt));
+
+            if(millis * MIN_ITERATIONS <= targetMillis || memory / 2 < MIN_MEMORY) {
+                break;
+            }
+
+            memory /= 2;
+        }
+
+        // Use as many iterations as still fit in the target time
+        int iterations = (int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, targetMillis / millis));
+        return new KdfParameters(HashingAlgorithm.Argon2, memory, iterations, parallelism);
+    }
+
+    // Time a single key derivation with the given parameters (milliseconds)
+    private static long timeDerivation(KdfParameters parameters, byte[] salt) {
+        long start = System.nanoTime();
+        deriveKey("calibration", salt, parameters);
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    // Get the memory Argon2 may use (KB): half of the heap, and no more than a quarter of the container's memory limit
+    private static long getMemoryBudget() {
+        long budget = Math.min(Runtime.getRuntime().maxMemory() / 2, MAX_MEMORY * 1024L);
+
+        for(Path limitPath : CGROUP_MEMORY_LIMITS) {
+            try {
+                String limit = Files.readString(limitPath).trim();
+
+                // cgroup v2 writes "max" when there is no limit
+                if(!limit.equals("max")) {
+                    budget = Math.min(budget, Long.parseLong(limit) / 4);
+                }
+
+                break;
+            } catch(IOException | NumberFormatException e) {
+                // No limit at this path, try the next one
+            }
+        }
+
+        return budget / 1024;
+    }
+
+    // Split the authentication hash off of the master key from a single deriveKey() run
+    public static byte[] deriveAuthHash(byte[] masterKey) {
+        return expand(masterKey, AUTH_HASH_INFO);
+    }
+
+    // Split the key that wraps the vault's data key off of the master key from a single deriveKey() run
+    public static byte[] deriveKeyEncryptionKey(byte[] masterKey) {
+        return expand(masterKey, KEY_ENCRYPTION_KEY_INFO);
+    }
+
+    // Split the key that tags names for the blind index (see BlindIndex) off of the vault's data key, so the tags
+    // cannot be computed without unlocking the vault and reveal nothing about the key the data is encrypted with
+    public static byte[] deriveNameIndexKey(byte[] dataKey) {
+        return expand(dataKey, NAME_INDEX_KEY_INFO);
+    }
+
+    // Split the key that hashes the grams of the search filters (see SearchIndex) off of the vault's data key
+    public static byte[] deriveSearchIndexKey(byte[] dataKey) {
+        return expand(dataKey, SEARCH_INDEX_KEY_INFO);
+    }
+
+    // Split the key that tags the domains of login URLs (see BlindIndex) off of the vault's data key
+    public static byte[] deriveDomainIndexKey(byte[] dataKey) {
+        return expand(dataKey, DOMAIN_INDEX_KEY_INFO);
+    }
+
+    // Expand the master key into an independent subkey with HKDF-SHA256. The master key is already uniformly random so
+    // the extract step is skipped
+    private static byte[] expand(byte[] masterKey, byte[] info) {
+        HKDFBytesGenerator generator = new HKDFBytesGenerator(new SHA256Digest());
+        generator.init(HKDFParameters.skipExtractParameters(masterKey, info));
+
+        byte[] subkey = new byte[KEY_LENGTH];
+        generator.generateBytes(subkey, 0, subkey.length);
+        return subkey;
+    }
+
+    // Generate a random key to encrypt the vault data with
+    public static byte[] generateKey() {
+        SecureRandom rand = new SecureRandom();
         byte[] key = new byte[KEY_LENGTH];
-        generator.generateBytes(password.toCharArray(), key, 0, key.length);
+        rand.nextBytes(key);
         return key;
     }
 
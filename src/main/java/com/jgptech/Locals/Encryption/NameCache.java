@@ -0,0 +1,158 @@
+/*
+ * NAME: NameCache
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Decrypted names of groups and entries kept for the length of a session, so listing names or showing the
+ *              prompt does not decrypt every name again (looking a name up goes through BlindIndex tags instead). Names
+ *              are kept by their encrypted record, which is replaced whenever a name changes, so a cached name can never
+ *              be out of date. The least recently used names are dropped once the cache is full, and every dropped name
+ *              is cleared from memory
+ */
+
+package com.jgptech.Locals.Encryption;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+public final class NameCache {
+    // Amount of names kept at most. Large enough for every name of a big group, as a scan over more names than fit would
+    // drop each name just before it is needed again
+    final static int CAPACITY = 16 * 1024;
+
+    // Session the names are decrypted with
+    private final CipherSession session;
+
+    // Names by their encrypted record, in order of use. Arrays hash by identity, which is what is wanted here
+    private final LinkedHashMap<byte[], Name> names = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<byte[], Name> eldest) {
+            if(size() > CAPACITY) {
+                eldest.getValue().clear();
+                return true;
+            }
+
+            return false;
+        }
+    };
+
+    // Whether the session was closed, which stops warm-ups still running
+    private volatile boolean closed = false;
+
+    // A decrypted name
+    private static final class Name {
+        private final char[] name;
+
+        Name(char[] name) {
+            this.name = name;
+        }
+
+        // Clear the name from memory
+        void clear() {
+            Arrays.fill(name, '\0');
+        }
+    }
+
+
+    // Constructor for the cache of a session
+    NameCache(CipherSession session) {
+        this.session = session;
+    }
+
+    // Get the name held in an encrypted record, decrypting it the first time
+    public String get(byte[] encrypted) {
+        String name = withName(encrypted, cached -> new String(cached.name));
+
+        // Reports the error the same way every other field does
+        return (name == null) ? VaultEncryptor.decryptField(encrypted, session) : name;
+    }
+
+    // Forget the name held in a record that is being replaced
+    public synchronized void invalidate(byte[] encrypted) {
+        Name name = names.remove(encrypted);
+
+        if(name != null) {
+            name.clear();
+        }
+    }
+
+    // Decrypt the names held in the given records in the background, so they are ready when they are looked up
+    public CompletableFuture<Void> warm(List<byte[]> records) {
+        return CompletableFuture.runAsync(() -> {
+            for(byte[] encrypted : records) {
+                if(closed) {
+                    return;
+                }
+
+                withName(encrypted, cached -> null);
+            }
+        });
+    }
+
+    // Get the amount of names cached
+    public synchronized int size() {
+        return names.size();
+    }
+
+    // Forget every name and clear them from memory, once the session is closed
+    synchronized void clear() {
+        closed = true;
+
+        for(Name name : names.values()) {
+            name.clear();
+        }
+
+        names.clear();
+    }
+
+    // Use the cached name for a record, decrypting it if it is not cached yet. The name is only used while the lock is
+    // held, since a warm-up may drop and clear it right after. Returns null if the record cannot be decrypted
+    private <T> T withName(byte[] encrypted, Function<Name, T> use) {
+        if(encrypted == null) {
+            return null;
+        }
+
+        synchronized(this) {
+            Name name = names.get(encrypted);
+
+            if(name != null) {
+                return use.apply(name);
+            }
+        }
+
+        // Decrypted outside of the lock so lookups are not held up by a warm-up
+        Name name;
+
+        try {
+            name = new Name(VaultEncryptor.decryptFieldChars(encrypted, session));
+        } catch(GeneralSecurityException e) {
+            return null;
+        }
+
+        synchronized(this) {
+            Name cached = names.get(encrypted);
+
+            // Another thread got there first
+            if(cached != null) {
+                name.clear();
+                return use.apply(cached);
+            }
+
+            T result = use.apply(name);
+
+            // Names decrypted after the session closed are not kept
+            if(closed) {
+                name.clear();
+            } else {
+                names.put(encrypted, name);
+            }
+
+            return result;
+        }
+    }
+}
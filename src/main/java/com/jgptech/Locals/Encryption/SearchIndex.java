@@ -0,0 +1,169 @@
+/*
+ * NAME: SearchIndex
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Search filters that let entries be searched by any part of their text without decrypting the entries that
+ *              cannot match. The searchable fields of an entry are normalized like names (see BlindIndex) and split into
+ *              every run of three characters (grams). Each gram is hashed with a key split off of the vault's data key
+ *              and set as a few bits of a small Bloom filter kept with the entry. A search only decrypts the entries
+ *              whose filter holds every gram of the text searched for, and checks those for the text itself. Without
+ *              the key a filter says nothing about the text, other than roughly how long it is
+ */
+
+package com.jgptech.Locals.Encryption;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+public final class SearchIndex {
+    // Length of the grams text is split into (characters)
+    private static final int GRAM_LENGTH = 3;
+
+    // Bits set in a filter for every gram
+    private static final int BITS_PER_GRAM = 3;
+
+    // Bits a filter is given per gram it holds, which lets about 3% of the filters without a gram claim to have it
+    private static final int FILTER_BITS_PER_GRAM = 8;
+
+    // Smallest and largest filter (bytes). Text long enough to fill the largest filter only makes it match more often
+    private static final int MIN_FILTER_LENGTH = 8;
+    private static final int MAX_FILTER_LENGTH = 4096;
+
+
+    // Prevent instantiation
+    private SearchIndex() {}
+
+    // Text searched for, with the hashes of its grams
+    public static final class Query {
+        // Normalized text searched for
+        private final String text;
+
+        // Hashes of the grams of the text. Empty for text shorter than a gram, which every filter may hold
+        private final long[] hashes;
+
+        // Constructor for a query of normalized text
+        private Query(String text, long[] hashes) {
+            this.text = text;
+            this.hashes = hashes;
+        }
+
+        // Returns true if an entry with the given filter may hold the text. Entries without a filter always may
+        public boolean mightMatch(byte[] filter) {
+            if(filter == null) {
+                return true;
+            }
+
+            for(long hash : hashes) {
+                if(!holds(filter, hash)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        // Returns true if the text of a field holds the text searched for
+        public boolean matches(String field) {
+            return field != null && BlindIndex.normalize(field).contains(text);
+        }
+    }
+
+    // Build the search filter of the given fields, skipping missing ones
+    public static byte[] filter(String[] fields, CipherSession session) {
+        Set<String> grams = new HashSet<>();
+
+        for(String field : fields) {
+            if(field != null) {
+                addGrams(BlindIndex.normalize(field), grams);
+            }
+        }
+
+        int length = MIN_FILTER_LENGTH;
+
+        while(length < MAX_FILTER_LENGTH && (long) length * Byte.SIZE < (long) grams.size() * FILTER_BITS_PER_GRAM) {
+            length *= 2;
+        }
+
+        byte[] filter = new byte[length];
+
+        for(String gram : grams) {
+            add(filter, hash(gram, session));
+        }
+
+        return filter;
+    }
+
+    // Get the query for the given text
+    public static Query query(String text, CipherSession session) {
+        String normalized = BlindIndex.normalize(text);
+        Set<String> grams = new HashSet<>();
+        addGrams(normalized, grams);
+
+        long[] hashes = new long[grams.size()];
+        int index = 0;
+
+        for(String gram : grams) {
+            hashes[index++] = hash(gram, session);
+        }
+
+        return new Query(normalized, hashes);
+    }
+
+    // Returns true if a filter read from a vault file is well formed
+    public static boolean isFilter(byte[] filter) {
+        return filter != null && filter.length >= MIN_FILTER_LENGTH && filter.length <= MAX_FILTER_LENGTH &&
+               Integer.bitCount(filter.length) == 1;
+    }
+
+    // Add every gram of normalized text to a set. Grams are counted in code points so no character is split
+    private static void addGrams(String text, Set<String> grams) {
+        int[] codePoints = text.codePoints().toArray();
+
+        for(int start = 0; start + GRAM_LENGTH <= codePoints.length; start++) {
+            grams.add(new String(codePoints, start, GRAM_LENGTH));
+        }
+    }
+
+    // Hash a gram with the search key of the session
+    private static long hash(String gram, CipherSession session) {
+        byte[] mac = session.getSearchMac().doFinal(gram.getBytes(StandardCharsets.UTF_8));
+        long hash = 0;
+
+        for(int index = 0; index < Long.BYTES; index++) {
+            hash = (hash << 8) | (mac[index] & 0xFF);
+        }
+
+        return hash;
+    }
+
+    // Set the bits of a gram in a filter. The bits are picked from the two halves of its hash (double hashing)
+    private static void add(byte[] filter, long hash) {
+        int mask = filter.length * Byte.SIZE - 1;
+        int first = (int) hash;
+        int step = (int) (hash >>> 32) | 1;
+
+        for(int bit = 0; bit < BITS_PER_GRAM; bit++) {
+            int position = (first + bit * step) & mask;
+            filter[position >>> 3] |= (byte) (1 << (position & 7));
+        }
+    }
+
+    // Returns true if every bit of a gram is set in a filter
+    private static boolean holds(byte[] filter, long hash) {
+        int mask = filter.length * Byte.SIZE - 1;
+        int first = (int) hash;
+        int step = (int) (hash >>> 32) | 1;
+
+        for(int bit = 0; bit < BITS_PER_GRAM; bit++) {
+            int position = (first + bit * step) & mask;
+
+            if((filter[position >>> 3] & (1 << (position & 7))) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
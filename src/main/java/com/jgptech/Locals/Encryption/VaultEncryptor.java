@@ -10,20 +10,39 @@ package com.jgptech.Locals.Encryption;
 
 import javax.crypto.*;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public final class VaultEncryptor {
     // Length (in bits) of the tag for the GCM parameter
     private final static int GCM_TAG_LENGTH = 128;
 
     // Size (in bytes) of generated IVs
-    private final static int IV_LENGTH = 12; // REVIEW could bring this to 16 bytes
+    final static int IV_LENGTH = 12; // REVIEW could bring this to 16 bytes
+
+    // Bytes added to every encrypted record on top of the data (IV in front, GCM tag at the end)
+    public final static int RECORD_OVERHEAD = IV_LENGTH + GCM_TAG_LENGTH / 8;
+
+    // Size (in bytes) from which a field is deflated before it is encrypted, unless the vault turned compression off (see
+    // CipherSession.compressesFields()). Shorter fields, like passwords and card numbers, are encrypted as they are:
+    // deflating them saves next to nothing and their compressed length would hint at what they hold
+    public final static int COMPRESSION_THRESHOLD = 256;
+
+    // First byte of a field that was deflated before it was encrypted. UTF-8 never contains it, so fields encrypted as
+    // they are need no flag of their own, and fields from before compression read as they always did
+    private final static int DEFLATED = 0xFF;
+
+    // Largest size (in bytes) a deflated field is inflated to, so a damaged field cannot run the program out of memory
+    private final static int MAX_INFLATED_LENGTH = 64 * 1024 * 1024;
 
 
     // Prevent instantiation
@@ -32,70 +51,343 @@ public final class VaultEncryptor {
     // TODO: add support for other encryption algorithms, likely using a private method that converts the EncryptionAlgorithm enum to the string for Cipher
     // REVIEW: possibly add AAD (Additional Authenticated Data) to the project based off the file name or other meta data
 
-    // Encrypt the data to be stored in the vault
-    public static String encrypt(String data, byte[] key) {
-        try {
-            // Generate a new unique IV
+    // Encrypt a range of bytes into a single record with the IV prepended to the ciphertext
+    public static byte[] encrypt(byte[] data, int offset, int length, CipherSession session) throws GeneralSecurityException {
+        byte[] encrypted = new byte[RECORD_OVERHEAD + length];
+
+        // Write the next unique IV from the session straight into the front of the record
+        session.nextNonce(encrypted, 0);
+
+        // Get the cached cipher object for this thread in encrypt mode, reading the IV from the record in place
+        Cipher cipher = session.getCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, session.getKeySpec(), new GCMParameterSpec(GCM_TAG_LENGTH, encrypted, 0, IV_LENGTH));
+
+        // Encrypt the data into the record directly after the IV
+        cipher.doFinal(data, offset, length, encrypted, IV_LENGTH);
+        return encrypted;
+    }
+
+    // Encrypt bytes into a single record with the IV prepended to the ciphertext
+    public static byte[] encrypt(byte[] data, CipherSession session) throws GeneralSecurityException {
+        return encrypt(data, 0, data.length, session);
+    }
+
+    // Decrypt a record made by encrypt() back into the original bytes
+    public static byte[] decrypt(byte[] encrypted, CipherSession session) throws GeneralSecurityException {
+        checkRecordLength(encrypted.length);
+
+        // Get the cached cipher object for this thread in decrypt mode, reading the IV from the record in place
+        Cipher cipher = session.getCipher();
+        cipher.init(Cipher.DECRYPT_MODE, session.getKeySpec(), new GCMParameterSpec(GCM_TAG_LENGTH, encrypted, 0, IV_LENGTH));
+
+        // Decrypt the ciphertext that follows the IV without copying it out first
+        return cipher.doFinal(encrypted, IV_LENGTH, encrypted.length - IV_LENGTH);
+    }
+
+    // Encrypt the remaining bytes of data into the record buffer. Returns the number of bytes written to the record
+    public static int encrypt(ByteBuffer data, ByteBuffer encrypted, CipherSession session) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+        session.nextNonce(iv, 0);
+
+        Cipher cipher = session.getCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, session.getKeySpec(), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+
+        encrypted.put(iv);
+        return IV_LENGTH + cipher.doFinal(data, encrypted);
+    }
+
+    // Decrypt the remaining bytes of the record buffer into the data buffer. Returns the number of bytes written to data
+    public static int decrypt(ByteBuffer encrypted, ByteBuffer data, CipherSession session) throws GeneralSecurityException {
+        checkRecordLength(encrypted.remaining());
+
+        Cipher cipher = session.getCipher();
+        GCMParameterSpec spec;
+
+        // Use the IV where it sits in the backing array when there is one, otherwise read it out of the buffer
+        if(encrypted.hasArray()) {
+            spec = new GCMParameterSpec(GCM_TAG_LENGTH, encrypted.array(), encrypted.arrayOffset() + encrypted.position(), IV_LENGTH);
+            encrypted.position(encrypted.position() + IV_LENGTH);
+        } else {
             byte[] iv = new byte[IV_LENGTH];
-            SecureRandom rand = new SecureRandom();
-            rand.nextBytes(iv);
+            encrypted.get(iv);
+            spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
+        }
 
-            // Create the spec objects for the key and GCM parameters
-            SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
-            GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
+        cipher.init(Cipher.DECRYPT_MODE, session.getKeySpec(), spec);
+        return cipher.doFinal(encrypted, data);
+    }
 
-            // Get the cipher object in encrypt mode using AES with GCM and no padding
-            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            cipher.init(Cipher.ENCRYPT_MODE, keySpec, spec);
+    // Encrypt a secret held in a char array without building a String from it
+    public static byte[] encryptChars(char[] secret, CipherSession session) throws GeneralSecurityException {
+        ByteBuffer encoded = encodeChars(secret);
 
-            // Encrypt the data
-            byte[] cipherText = cipher.doFinal(data.getBytes());
+        try {
+            return encrypt(encoded.array(), 0, encoded.limit(), session);
+        } finally {
+            // Clear the plaintext bytes of the secret
+            Arrays.fill(encoded.array(), (byte) 0);
+        }
+    }
+
+    // Decrypt a secret into a char array that the caller can clear once done with it
+    public static char[] decryptChars(byte[] encrypted, CipherSession session) throws GeneralSecurityException {
+        return decodeChars(decrypt(encrypted, session));
+    }
+
+    // Decrypt a field into a char array that the caller can clear once done with it, inflating it if it was deflated
+    public static char[] decryptFieldChars(byte[] encrypted, CipherSession session) throws GeneralSecurityException {
+        return decodeChars(decryptFieldBytes(encrypted, session));
+    }
+
+    // Encrypt a field held in a char array into the record stored in the vault, deflating it first if it is long and
+    // the vault compresses fields
+    public static byte[] encryptFieldChars(char[] field, CipherSession session) throws GeneralSecurityException {
+        ByteBuffer encoded = encodeChars(field);
+        byte[] compressed = session.compressesFields() ? compressField(encoded.array(), encoded.limit()) : null;
+
+        try {
+            if(compressed != null) {
+                return encrypt(compressed, session);
+            }
+
+            return encrypt(encoded.array(), 0, encoded.limit(), session);
+        } finally {
+            // Clear the plaintext bytes of the field, deflated or not
+            Arrays.fill(encoded.array(), (byte) 0);
+
+            if(compressed != null) {
+                Arrays.fill(compressed, (byte) 0);
+            }
+        }
+    }
+
+    // Encrypt a field of an entry or group into the record stored in the vault. Goes through encryptFieldChars() so
+    // the only copy of the plaintext left behind is the String the caller already had
+    public static byte[] encryptField(String data, CipherSession session) {
+        char[] field = data.toCharArray();
 
-            // Create the array to hold the resulting encrypted string in
-            byte[] encrypted = new byte[iv.length + cipherText.length];
+        try {
+            return encryptFieldChars(field, session);
+        } catch (GeneralSecurityException e) {
+            // TODO: better handling of exceptions
+            System.out.println("ERROR: VaultEncryptor.encryptField(): " + e.toString());
+            return new byte[0];
+        } finally {
+            Arrays.fill(field, '\0');
+        }
+    }
 
-            // Copy the ciphertext with the IV prepended into the array
-            System.arraycopy(iv, 0, encrypted, 0, iv.length);
-            System.arraycopy(cipherText, 0, encrypted, iv.length, cipherText.length);
+    // Decrypt a field of an entry or group from the record stored in the vault. Goes through decryptFieldChars() so the
+    // only copy of the plaintext left behind is the returned String
+    public static String decryptField(byte[] encrypted, CipherSession session) {
+        char[] field = null;
 
-            // Encode with Base64 here as the resulting bytes from encryption may not correspond to actual characters
-            return Base64.getEncoder().encodeToString(encrypted);
-        } catch (NoSuchPaddingException | IllegalBlockSizeException | NoSuchAlgorithmException | BadPaddingException | InvalidKeyException | InvalidAlgorithmParameterException e) {
+        try {
+            field = decryptFieldChars(encrypted, session);
+            return new String(field);
+        } catch (GeneralSecurityException e) {
             // TODO: better handling of exceptions
-            System.out.println("ERROR: VaultEncryptor.encrypt(): " + e.toString());
+            System.out.println("ERROR: VaultEncryptor.decryptField(): " + e.toString() + ": " + e.getMessage());
             return "";
+        } finally {
+            if(field != null) {
+                Arrays.fill(field, '\0');
+            }
+        }
+    }
+
+    // Decrypt a field into its UTF-8 bytes, inflating it if it was deflated
+    public static byte[] decryptFieldBytes(byte[] encrypted, CipherSession session) throws GeneralSecurityException {
+        byte[] data = decrypt(encrypted, session);
+
+        if(data.length == 0 || (data[0] & 0xFF) != DEFLATED) {
+            return data;
+        }
+
+        try {
+            return inflate(data);
+        } finally {
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+
+    // Deflate a field that was encrypted as it is, if it is long enough to be worth it. Returns the record unchanged if
+    // it is already deflated, too short, or does not get any smaller (for migrating fields from before compression)
+    public static byte[] compressRecord(byte[] encrypted, CipherSession session) throws GeneralSecurityException {
+        byte[] data = decrypt(encrypted, session);
+
+        try {
+            if(data.length < COMPRESSION_THRESHOLD || (data[0] & 0xFF) == DEFLATED) {
+                return encrypted;
+            }
+
+            byte[] compressed = compressField(data, data.length);
+
+            if(compressed == null) {
+                return encrypted;
+            }
+
+            try {
+                return encrypt(compressed, session);
+            } finally {
+                Arrays.fill(compressed, (byte) 0);
+            }
+        } finally {
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+
+    // Inflate a field that was deflated and encrypt it as it is (for vaults that turned compression off). Returns the
+    // record unchanged if it was not deflated
+    public static byte[] decompressRecord(byte[] encrypted, CipherSession session) throws GeneralSecurityException {
+        byte[] data = decrypt(encrypted, session);
+
+        try {
+            if(data.length == 0 || (data[0] & 0xFF) != DEFLATED) {
+                return encrypted;
+            }
+
+            byte[] inflated = inflate(data);
+
+            try {
+                return encrypt(inflated, session);
+            } finally {
+                Arrays.fill(inflated, (byte) 0);
+            }
+        } finally {
+            Arrays.fill(data, (byte) 0);
         }
     }
 
+    // Wrap the key of a session with a key encryption key derived from the master password
+    public static byte[] wrapKey(CipherSession session, byte[] kek) throws GeneralSecurityException {
+        byte[] key = session.getKeySpec().getEncoded();
+        CipherSession kekSession = new CipherSession(kek);
+
+        try {
+            return encrypt(key, kekSession);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+            kekSession.close();
+        }
+    }
+
+    // Unwrap a key with the key encryption key and open a session bound to it
+    public static CipherSession unwrapKey(byte[] wrappedKey, byte[] kek) throws GeneralSecurityException {
+        CipherSession kekSession = new CipherSession(kek);
+        byte[] key = decrypt(wrappedKey, kekSession);
+
+        try {
+            return new CipherSession(key);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+            kekSession.close();
+        }
+    }
+
+    // Encrypt the data to be stored in the vault
+    public static String encrypt(String data, CipherSession session) {
+        byte[] encrypted = encryptField(data, session);
+
+        // Encode with Base64 here as the resulting bytes from encryption may not correspond to actual characters
+        return encrypted.length == 0 ? "" : Base64.getEncoder().encodeToString(encrypted);
+    }
+
     // Decrypt the data from the vault
-    public static String decrypt(String data, byte[] key) {
+    public static String decrypt(String data, CipherSession session) {
+        return decryptField(Base64.getDecoder().decode(data), session);
+    }
+
+    // Encode a char array as UTF-8 into a buffer backed by an array
+    private static ByteBuffer encodeChars(char[] chars) throws GeneralSecurityException {
         try {
-            // Decode the base64 encoded string to bytes
-            byte[] encrypted = Base64.getDecoder().decode(data);
+            return StandardCharsets.UTF_8.newEncoder().encode(CharBuffer.wrap(chars));
+        } catch(CharacterCodingException e) {
+            throw new GeneralSecurityException("Secret is not valid UTF-16", e);
+        }
+    }
 
-            // Extract the IV from the encrypted array
-            byte[] iv = Arrays.copyOfRange(encrypted, 0, IV_LENGTH);
+    // Decode decrypted UTF-8 bytes into a char array, clearing the bytes
+    private static char[] decodeChars(byte[] decrypted) throws GeneralSecurityException {
+        try {
+            CharBuffer chars = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(decrypted));
+            char[] secret = Arrays.copyOf(chars.array(), chars.limit());
 
-            // Extract the ciphertext from the rest of the array
-            byte[] cipherText = Arrays.copyOfRange(encrypted, IV_LENGTH, encrypted.length);
+            // Clear the buffer the decoder used for the plaintext
+            Arrays.fill(chars.array(), '\0');
+            return secret;
+        } catch(CharacterCodingException e) {
+            throw new GeneralSecurityException("Decrypted data is not valid UTF-8", e);
+        } finally {
+            Arrays.fill(decrypted, (byte) 0);
+        }
+    }
+
+    // Deflate the first length UTF-8 bytes of a field behind the DEFLATED flag. Returns null if the field is shorter
+    // than the threshold or deflating does not make it any smaller
+    private static byte[] compressField(byte[] data, int length) {
+        if(length < COMPRESSION_THRESHOLD) {
+            return null;
+        }
 
-            // Get the spec objects for the key and GCM parameters
-            SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
-            GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
+        // Raw deflate without the zlib header and checksum, which GCM already covers
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        byte[] compressed = new byte[length];
+        compressed[0] = (byte) DEFLATED;
 
-            // Get the cipher object in decrypt mode using AES with GCM and no padding
-            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            cipher.init(Cipher.DECRYPT_MODE, keySpec, spec);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            int compressedLength = 1 + deflater.deflate(compressed, 1, compressed.length - 1);
 
-            // Decrypt the cipher text
-            byte[] decryptedData = cipher.doFinal(cipherText);
+            // Only finished within the buffer if the field got smaller
+            if(!deflater.finished()) {
+                return null;
+            }
 
-            // Return as a string cast here as we know the decrypted data will be able to be represented this way
-            return new String(decryptedData);
-        } catch (NoSuchPaddingException | IllegalBlockSizeException | NoSuchAlgorithmException | BadPaddingException | InvalidKeyException | InvalidAlgorithmParameterException e) {
-            // TODO: better handling of exceptions
-            System.out.println("ERROR: VaultEncryptor.decrypt(): " + e.toString() + ": " + e.getMessage());
-            return "";
+            return Arrays.copyOf(compressed, compressedLength);
+        } finally {
+            deflater.end();
+
+            // Clear the deflated field left in the scratch buffer, which is as good as the plaintext
+            Arrays.fill(compressed, (byte) 0);
+        }
+    }
+
+    // Inflate a field deflated by compressField()
+    private static byte[] inflate(byte[] data) throws GeneralSecurityException {
+        Inflater inflater = new Inflater(true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        byte[] buffer = new byte[Math.max(data.length * 4, COMPRESSION_THRESHOLD)];
+
+        try {
+            inflater.setInput(data, 1, data.length - 1);
+
+            while(!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+
+                if(length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("field ends early");
+                } else if(out.size() + length > MAX_INFLATED_LENGTH) {
+                    throw new DataFormatException("field inflates past " + MAX_INFLATED_LENGTH + " bytes");
+                }
+
+                out.write(buffer, 0, length);
+            }
+
+            return out.toByteArray();
+        } catch(DataFormatException e) {
+            throw new GeneralSecurityException("Deflated field is damaged: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+            Arrays.fill(buffer, (byte) 0);
+        }
+    }
+
+    // Check that a record is at least long enough to hold the IV and tag
+    private static void checkRecordLength(int length) throws AEADBadTagException {
+        if(length < RECORD_OVERHEAD) {
+            throw new AEADBadTagException("Encrypted record is too short: " + length + " bytes");
         }
     }
 }
@@ -8,6 +8,7 @@
 
 package com.jgptech.Locals;
 
+import com.jgptech.Locals.Agent.UnlockAgent;
 import com.jgptech.Locals.CLI.UserInput;
 
 import java.util.concurrent.Callable;
@@ -20,20 +21,57 @@ import picocli.CommandLine.Parameters;
 
 @Command(name = "locals", mixinStandardHelpOptions = true, version = "locals 0.1", description = "Locally stored and encrypted password manager")
 public class Main implements Callable<Integer> {
-    @Parameters(index = "0", paramLabel = "VAULT", arity = "0..1", description = "Name of the vault file to create/open.")
+    @Parameters(index = "0", paramLabel = "VAULT", arity = "0..1",
+            description = "Name of the vault file to create/open. May start with a storage scheme: file:, json:, mmap:, dir: or mem:.")
     private String vaultName = "";
 
     @Option(names = {"-n", "--new"}, description = "Create a new vault.")
     private boolean newVault;
 
+    @Option(names = {"--calibrate"}, arity = "0..1", paramLabel = "MILLIS", fallbackValue = "" + UserInput.DEFAULT_UNLOCK_MILLIS,
+            description = "Tune key derivation for this machine to the given unlock time in milliseconds (default: ${FALLBACK-VALUE}).")
+    private Long calibrateMillis;
+
+    @Option(names = {"--agent"}, description = "Run the unlock agent, which lets later invocations open vaults unlocked with --add-to-agent without the password.")
+    private boolean agent;
+
+    @Option(names = {"--agent-timeout"}, paramLabel = "MINUTES", defaultValue = "" + UnlockAgent.DEFAULT_IDLE_MINUTES,
+            description = "Minutes without use after which the agent forgets its keys and exits (default: ${DEFAULT-VALUE}).")
+    private long agentTimeoutMinutes;
+
+    @Option(names = {"--timing"}, description = "Report how long opening and saving the vault took.")
+    private boolean timing;
+
+    @Option(names = {"--read-only"}, description = "Open the vault without ever writing to it.")
+    private boolean readOnly;
+
+    @Option(names = {"--durability"}, paramLabel = "MODE",
+            description = "When writes are forced to disk: always, on-exit or os-buffered (default: always, or the durability set in ~/.locals/storage.properties).")
+    private String durability;
+
+    @Option(names = {"--lock"}, description = "Make the running unlock agent forget every key.")
+    private boolean lock;
+
+    @Option(names = {"--add-to-agent"}, description = "Hand the key to the running unlock agent once the vault is unlocked with its password.")
+    private boolean addToAgent;
+
     @Override
     public Integer call() throws Exception {
-        if(newVault) {
+        if(calibrateMillis != null) {
+            // User requested to benchmark this machine for the key derivation parameters of new and upgraded vaults
+            UserInput.calibrate(calibrateMillis);
+        } else if(agent) {
+            // User requested to keep unlocked keys around for later invocations
+            UserInput.startAgent(agentTimeoutMinutes);
+        } else if(lock) {
+            // User requested the agent to drop every unlocked key
+            UserInput.lockAgent();
+        } else if(newVault) {
             // User set the flag to create a new vault. Will prompt the user if they didn't provide a filename
             UserInput.createNewVault(vaultName);
         } else if(!vaultName.isEmpty()) {
             // User called the program with the filename. Try to open it by asking the user for the password
-            UserInput.openVault(vaultName);
+            UserInput.openVault(vaultName, timing, readOnly, durability, addToAgent);
         } else {
             // Program called with no arguments, open GUI version of program.
             // TODO
@@ -42,6 +80,15 @@ public class Main implements Callable<Integer> {
         return 0;
     }
 
+    @Command(name = "migrate", mixinStandardHelpOptions = true, description = "Convert a vault file to another format. The original is kept with a .bak extension.")
+    int migrate(@Parameters(paramLabel = "VAULT", description = "Name of the vault file to convert.") String vaultName,
+                @Option(names = {"--to"}, paramLabel = "FORMAT", defaultValue = "binary",
+                        description = "Format to convert to, json, binary, or directory for one file per group (default: ${DEFAULT-VALUE}).") String format) {
+        // Copies the encrypted data as is, so no password is needed
+        UserInput.migrateVault(vaultName, format);
+        return 0;
+    }
+
     public static void main(String[] args) {
         int exitCode = new CommandLine(new Main()).execute(args);
     }
@@ -0,0 +1,625 @@
+/*
+ * NAME: BinaryVaultCodec
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Streams a vault to and from the binary format (version 5). Encrypted fields are stored as raw
+ *              IV | ciphertext | tag records instead of Base64 strings. A vault can also be read from a buffer (a
+ *              mapped file), in which case only the header and group names are read up front and each group keeps its
+ *              entries as bytes in the buffer until one of them is needed. Writing encodes the groups in parallel
+ *              into buffers of their own and hands them to the file in a single gathering write
+ *
+ *              File layout (big endian):
+ *                  magic "LCLV", u16 version, u16 flags
+ *                  i32 header length, header (see Vault.writeHeader(DataOutputStream))
+ *                  i32 group count
+ *                  group index, per group: i64 offset of the group (after its length), i32 group length
+ *                  then per group:
+ *                      i32 group length (bytes after this field), record name, record name tag, record id,
+ *                      i32 entry count, then per entry:
+ *                          u8 type, u8 field count, one record per field, then the record name tag, the record
+ *                          search filter, the record host tags (logins only) and the record id (counted in the
+ *                          field count)
+ *              A record is an i32 length (-1 for a missing value) followed by that many bytes. Name tags are the blind
+ *              index tags of the names (see BlindIndex) and search filters are described in SearchIndex. Version 4 is
+ *              the same without the group ids, version 3 is version 4 without the group name tags, and version 2 is
+ *              version 3 without the group index. Groups and entries saved without an id get one from their name (see
+ *              Group.legacyId())
+ */
+
+package com.jgptech.Locals.Vault;
+
+import com.jgptech.Locals.Encryption.BlindIndex;
+import com.jgptech.Locals.Encryption.SearchIndex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+final class BinaryVaultCodec {
+    // First bytes of every binary vault file
+    private static final byte[] MAGIC = {'L', 'C', 'L', 'V'};
+
+    // Version of the format from before the group index, which is still read
+    private static final int VERSION_WITHOUT_INDEX = 2;
+
+    // Version of the format from before the group name tags, which is still read
+    private static final int VERSION_WITHOUT_NAME_TAGS = 3;
+
+    // Version of the format from before the group ids, which is still read
+    private static final int VERSION_WITHOUT_GROUP_IDS = 4;
+
+    // Offset of the header in a vault file, after the magic, version, flags and header length
+    static final int HEADER_OFFSET = MAGIC.length + 2 * Short.BYTES + Integer.BYTES;
+
+    // Bytes per group in the group index (offset and length)
+    private static final int INDEX_ENTRY_LENGTH = Long.BYTES + Integer.BYTES;
+
+    // Bytes copied at a time when writing a group that was never read from a mapped file
+    private static final int COPY_BUFFER_LENGTH = 64 * 1024;
+
+    // Length written for a record with no value
+    private static final int NULL_RECORD = -1;
+
+    // Largest record accepted when reading, so a damaged length cannot run the program out of memory (bytes)
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    // Codes of the entry types
+    private static final int LOGIN = 1;
+    private static final int PAYMENT_CARD = 2;
+    private static final int SSH_KEY = 3;
+    private static final int SECURE_NOTE = 4;
+
+
+    // Prevent instantiation
+    private BinaryVaultCodec() {}
+
+    // Returns true if the stream starts with the binary vault magic. The stream must support mark/reset and is left
+    // where it was
+    static boolean isBinary(InputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+
+        in.mark(MAGIC.length);
+        int read = in.readNBytes(magic, 0, magic.length);
+        in.reset();
+
+        return read == MAGIC.length && Arrays.equals(magic, MAGIC);
+    }
+
+    // Read a vault from the binary format
+    static Vault read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        Vault vault = new Vault();
+        int version = readHeader(in, vault);
+
+        int groupCount = checkLength(in.readInt());
+        ArrayList<Group> groups = new ArrayList<>(groupCount);
+
+        // The groups are read in order, so the index is not needed
+        if(version != VERSION_WITHOUT_INDEX) {
+            in.skipNBytes((long) groupCount * INDEX_ENTRY_LENGTH);
+        }
+
+        for(int groupIndex = 0; groupIndex < groupCount; groupIndex++) {
+            // Group length, only needed by readers that skip groups
+            in.readInt();
+            groups.add(readGroup(in, version));
+        }
+
+        vault.setGroups(groups);
+        return vault;
+    }
+
+    // Read the header and group names of a vault in the binary format held in a buffer, usually a mapped file. The
+    // entries of each group are read from the buffer the first time one is needed, so this takes the same time however
+    // many entries the vault holds
+    static Vault map(ByteBuffer file) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(file));
+        Vault vault = new Vault();
+        int version = readHeader(in, vault);
+
+        int groupCount = checkLength(in.readInt());
+        int position = file.position();
+
+        if(version != VERSION_WITHOUT_INDEX && position + (long) groupCount * INDEX_ENTRY_LENGTH > file.limit()) {
+            throw new IOException("Damaged vault file, group index is outside the file");
+        }
+
+        ArrayList<Group> groups = new ArrayList<>(groupCount);
+
+        for(int groupIndex = 0; groupIndex < groupCount; groupIndex++) {
+            long offset;
+            int length;
+
+            if(version == VERSION_WITHOUT_INDEX) {
+                // Walk the length of each group instead
+                if(position > file.limit() - Integer.BYTES) {
+                    throw new IOException("Damaged vault file, group " + (groupIndex + 1) + " is outside the file");
+                }
+
+                length = checkLength(file.getInt(position));
+                offset = position + Integer.BYTES;
+                position += Integer.BYTES + length;
+            } else {
+                int entry = position + groupIndex * INDEX_ENTRY_LENGTH;
+                offset = file.getLong(entry);
+                length = checkLength(file.getInt(entry + Long.BYTES));
+            }
+
+            if(offset < 0 || offset + length > file.limit()) {
+                throw new IOException("Damaged vault file, group " + (groupIndex + 1) + " is outside the file");
+            }
+
+            groups.add(mapGroup(file.slice((int) offset, length), version));
+        }
+
+        vault.setGroups(groups);
+        return vault;
+    }
+
+    // Read the entries of a group loaded from a mapped file
+    static ArrayList<Entry> readEntries(ByteBuffer encoded, int entryCount) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(encoded));
+        ArrayList<Entry> entries = new ArrayList<>(entryCount);
+
+        for(int entryIndex = 0; entryIndex < entryCount; entryIndex++) {
+            entries.add(readEntry(in));
+        }
+
+        return entries;
+    }
+
+    // Write a vault in the binary format
+    static void write(Vault vault, OutputStream out) throws IOException {
+        byte[] buffer = null;
+
+        for(ByteBuffer encoded : encode(vault)) {
+            if(encoded.hasArray()) {
+                out.write(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining());
+                continue;
+            }
+
+            // Entries never read from a mapped file
+            if(buffer == null) {
+                buffer = new byte[COPY_BUFFER_LENGTH];
+            }
+
+            while(encoded.hasRemaining()) {
+                int length = Math.min(buffer.length, encoded.remaining());
+                encoded.get(buffer, 0, length);
+                out.write(buffer, 0, length);
+            }
+        }
+
+        out.flush();
+    }
+
+    // Write a vault in the binary format to a file with a single gathering write
+    static void write(Vault vault, FileChannel channel) throws IOException {
+        ByteBuffer[] buffers = encode(vault);
+        long remaining = 0;
+
+        for(ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+
+        // A channel may write less than asked for, the buffers it finished are skipped on the next call
+        while(remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    // Encode a vault in the binary format into the buffers that make up the file: the header and group index, then
+    // each group. The groups are encoded in parallel, each into its own buffer, and groups whose entries were never
+    // read from a mapped file are not copied at all since their entries are a slice of the mapping
+    static ByteBuffer[] encode(Vault vault) throws IOException {
+        ArrayList<Group> groups = vault.getGroups();
+        ByteBuffer[][] encodedGroups = new ByteBuffer[groups.size()][];
+
+        if(groups.size() == 1) {
+            encodedGroups[0] = encodeGroup(groups.get(0));
+        } else {
+            // Given the common pool explicitly, as CompletableFuture starts a thread per task when it has a single worker
+            ArrayList<CompletableFuture<ByteBuffer[]>> encoding = new ArrayList<>(groups.size());
+
+            for(Group group : groups) {
+                encoding.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return encodeGroup(group);
+                    } catch(IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, ForkJoinPool.commonPool()));
+            }
+
+            try {
+                for(int groupIndex = 0; groupIndex < encodedGroups.length; groupIndex++) {
+                    encodedGroups[groupIndex] = encoding.get(groupIndex).join();
+                }
+            } catch(CompletionException e) {
+                // Reading the entries of a mapped group can fail as well
+                if(e.getCause() instanceof UncheckedIOException cause) {
+                    throw cause.getCause();
+                }
+
+                throw e;
+            }
+        }
+
+        ByteArrayOutputStream preamble = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(preamble);
+
+        out.write(MAGIC);
+        out.writeShort(VaultFormat.BINARY.getVersion());
+        out.writeShort(0);
+
+        byte[] header = encodeHeader(vault);
+        out.writeInt(header.length);
+        out.write(header);
+
+        out.writeInt(groups.size());
+
+        long offset = HEADER_OFFSET + header.length + Integer.BYTES +
+                (long) groups.size() * INDEX_ENTRY_LENGTH;
+        int bufferCount = 1;
+
+        for(ByteBuffer[] encoded : encodedGroups) {
+            long length = -Integer.BYTES;
+
+            for(ByteBuffer buffer : encoded) {
+                length += buffer.remaining();
+            }
+
+            out.writeLong(offset + Integer.BYTES);
+            out.writeInt((int) length);
+            offset += Integer.BYTES + length;
+            bufferCount += encoded.length;
+        }
+
+        ByteBuffer[] buffers = new ByteBuffer[bufferCount];
+        int bufferIndex = 0;
+        buffers[bufferIndex++] = ByteBuffer.wrap(preamble.toByteArray());
+
+        for(ByteBuffer[] encoded : encodedGroups) {
+            for(ByteBuffer buffer : encoded) {
+                buffers[bufferIndex++] = buffer;
+            }
+        }
+
+        return buffers;
+    }
+
+    // Encode the fields of a vault that come before the groups (see Vault.writeHeader(DataOutputStream))
+    static byte[] encodeHeader(Vault vault) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        vault.writeHeader(new DataOutputStream(header));
+        return header.toByteArray();
+    }
+
+    // Get the length of the header of a vault file from the first HEADER_OFFSET bytes of the file
+    static int readHeaderLength(ByteBuffer start) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        start.get(magic);
+
+        if(!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a binary vault file");
+        }
+
+        // Version and flags
+        start.getInt();
+        return checkLength(start.getInt());
+    }
+
+    // Read the magic, version, flags and header of a vault file into a vault. Returns the version
+    private static int readHeader(DataInputStream in, Vault vault) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+
+        if(!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a binary vault file");
+        }
+
+        int version = in.readUnsignedShort();
+
+        if(version < VERSION_WITHOUT_INDEX || version > VaultFormat.BINARY.getVersion()) {
+            throw new IOException("Unsupported vault format version: " + version);
+        }
+
+        // No flags are defined yet
+        in.readUnsignedShort();
+
+        // The header is length prefixed so fields added later can be skipped by this version
+        byte[] header = new byte[checkLength(in.readInt())];
+        in.readFully(header);
+
+        vault.readHeader(new DataInputStream(new ByteArrayInputStream(header)));
+        return version;
+    }
+
+    // Read a single group after its length
+    private static Group readGroup(DataInputStream in, int version) throws IOException {
+        Group group = new Group();
+        readGroupName(group, in, version);
+
+        int entryCount = checkLength(in.readInt());
+        ArrayList<Entry> entries = new ArrayList<>(entryCount);
+
+        for(int entryIndex = 0; entryIndex < entryCount; entryIndex++) {
+            entries.add(readEntry(in));
+        }
+
+        group.setEntries(entries);
+        return group;
+    }
+
+    // Read a single entry
+    static Entry readEntry(DataInputStream in) throws IOException {
+        Entry entry = newEntry(in.readUnsignedByte());
+        int fieldCount = in.readUnsignedByte();
+
+        // Fields missing from the file stay null. The name tag, search filter, host tags and id follow the fields,
+        // anything after them is dropped
+        byte[][] fields = new byte[entry.getEncryptedFields().length][];
+        byte[] id = null;
+
+        for(int fieldIndex = 0; fieldIndex < fieldCount; fieldIndex++) {
+            byte[] field = readRecord(in);
+
+            if(fieldIndex < fields.length) {
+                fields[fieldIndex] = field;
+            } else if(fieldIndex == fields.length && BlindIndex.isTag(field)) {
+                entry.setNameTag(field);
+            } else if(fieldIndex == fields.length + 1 && SearchIndex.isFilter(field)) {
+                entry.setSearchFilter(field);
+            } else if(fieldIndex == fields.length + 2 && entry instanceof Login login && DomainIndex.isHostTags(field)) {
+                login.setHostTags(field);
+            } else if(fieldIndex == fields.length + 3) {
+                id = field;
+            }
+        }
+
+        entry.setEncryptedFields(fields);
+        entry.setId(Group.isId(id) ? id : Group.legacyId(entry.getEncryptedName()));
+        return entry;
+    }
+
+    // Read the name of a group from a mapped file, leaving its entries unread
+    private static Group mapGroup(ByteBuffer encoded, int version) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(encoded));
+
+        Group group = new Group();
+        readGroupName(group, in, version);
+        int entryCount = checkLength(in.readInt());
+
+        group.setUnloadedEntries(encoded.slice(), entryCount);
+        return group;
+    }
+
+    // Read the name of a group and, from files that have them, its tag and id
+    private static void readGroupName(Group group, DataInputStream in, int version) throws IOException {
+        group.setEncryptedName(readRecord(in));
+
+        if(version > VERSION_WITHOUT_NAME_TAGS) {
+            byte[] tag = readRecord(in);
+            group.setNameTag(BlindIndex.isTag(tag) ? tag : null);
+        }
+
+        byte[] id = (version > VERSION_WITHOUT_GROUP_IDS) ? readRecord(in) : null;
+        group.setId(Group.isId(id) ? id : Group.legacyId(group.getEncryptedName()));
+    }
+
+    // Encode a single group with its length in front. A group whose entries were never read from a mapped file is
+    // encoded as its length, name and entry count followed by the slice of the mapping holding its entries
+    private static ByteBuffer[] encodeGroup(Group group) throws IOException {
+        int length = groupLength(group);
+        ByteBuffer unloaded = group.getUnloadedEntries();
+        GroupBuffer encoded = new GroupBuffer(Integer.BYTES + length - (unloaded == null ? 0 : unloaded.remaining()));
+        DataOutputStream out = new DataOutputStream(encoded);
+
+        out.writeInt(length);
+        writeRecord(out, group.getEncryptedName());
+        writeRecord(out, group.getNameTag());
+        writeRecord(out, group.getId());
+
+        if(unloaded != null) {
+            out.writeInt(group.size());
+            return new ByteBuffer[] {encoded.toByteBuffer(), unloaded};
+        }
+
+        writeEntries(group, out);
+        return new ByteBuffer[] {encoded.toByteBuffer()};
+    }
+
+    // Write the entry count and entries of a group
+    static void writeEntries(Group group, DataOutputStream out) throws IOException {
+        out.writeInt(group.size());
+
+        // Entries never read from a mapped file are copied over as they are
+        ByteBuffer unloaded = group.getUnloadedEntries();
+
+        if(unloaded != null) {
+            byte[] buffer = new byte[Math.min(COPY_BUFFER_LENGTH, unloaded.remaining())];
+
+            while(unloaded.hasRemaining()) {
+                int length = Math.min(buffer.length, unloaded.remaining());
+                unloaded.get(buffer, 0, length);
+                out.write(buffer, 0, length);
+            }
+
+            return;
+        }
+
+        for(Entry entry : group.getEntries()) {
+            writeEntry(entry, out);
+        }
+    }
+
+    // Write a single entry
+    static void writeEntry(Entry entry, DataOutputStream out) throws IOException {
+        byte[][] fields = entry.getEncryptedFields();
+        byte[][] extras = extraRecords(entry);
+
+        out.writeByte(typeCode(entry));
+        out.writeByte(fields.length + extras.length);
+
+        for(byte[] field : fields) {
+            writeRecord(out, field);
+        }
+
+        for(byte[] extra : extras) {
+            writeRecord(out, extra);
+        }
+    }
+
+    // Get the records written after the fields of an entry: the name tag, the search filter, the host tags of a login
+    // and the id. Every entry has an id, so none are left out
+    private static byte[][] extraRecords(Entry entry) {
+        byte[] hostTags = (entry instanceof Login login) ? login.getHostTags() : null;
+        return new byte[][] {entry.getNameTag(), entry.getSearchFilter(), hostTags, entry.getId()};
+    }
+
+    // Get the amount of bytes encodeGroup() encodes for a group after its length
+    private static int groupLength(Group group) {
+        int length = recordLength(group.getEncryptedName()) + recordLength(group.getNameTag()) +
+                     recordLength(group.getId()) + Integer.BYTES;
+        ByteBuffer unloaded = group.getUnloadedEntries();
+
+        if(unloaded != null) {
+            return length + unloaded.remaining();
+        }
+
+        for(Entry entry : group.getEntries()) {
+            length += 2;
+
+            for(byte[] field : entry.getEncryptedFields()) {
+                length += recordLength(field);
+            }
+
+            for(byte[] extra : extraRecords(entry)) {
+                length += recordLength(extra);
+            }
+        }
+
+        return length;
+    }
+
+    // Read a length prefixed record, or null if it has no value
+    static byte[] readRecord(DataInputStream in) throws IOException {
+        int length = in.readInt();
+
+        if(length == NULL_RECORD) {
+            return null;
+        }
+
+        byte[] record = new byte[checkLength(length)];
+        in.readFully(record);
+        return record;
+    }
+
+    // Write a length prefixed record, which may have no value
+    static void writeRecord(DataOutputStream out, byte[] record) throws IOException {
+        if(record == null) {
+            out.writeInt(NULL_RECORD);
+        } else {
+            out.writeInt(record.length);
+            out.write(record);
+        }
+    }
+
+    // Get the amount of bytes writeRecord() writes for a record
+    private static int recordLength(byte[] record) {
+        return Integer.BYTES + (record == null ? 0 : record.length);
+    }
+
+    // Create an empty entry of the type stored in the file
+    private static Entry newEntry(int type) throws IOException {
+        return switch(type) {
+            case LOGIN -> new Login();
+            case PAYMENT_CARD -> new PaymentCard();
+            case SSH_KEY -> new SSHKey();
+            case SECURE_NOTE -> new SecureNote();
+            default -> throw new IOException("Unknown entry type: " + type);
+        };
+    }
+
+    // Get the code stored for the type of an entry
+    private static int typeCode(Entry entry) {
+        return switch(entry) {
+            case Login login -> LOGIN;
+            case PaymentCard card -> PAYMENT_CARD;
+            case SSHKey key -> SSH_KEY;
+            case SecureNote note -> SECURE_NOTE;
+            default -> throw new IllegalArgumentException("Unknown entry type: " + entry.getClass().getName());
+        };
+    }
+
+    // Check a length or count read from the file is sane
+    static int checkLength(int length) throws IOException {
+        if(length < 0 || length > MAX_RECORD_LENGTH) {
+            throw new IOException("Damaged vault file, invalid length: " + length);
+        }
+
+        return length;
+    }
+
+    // Output stream for encoding a group whose bytes are handed out as a buffer without copying them
+    private static final class GroupBuffer extends ByteArrayOutputStream {
+        // Constructor for a group of the given encoded length
+        GroupBuffer(int length) {
+            super(length);
+        }
+
+        // Get the bytes written so far
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    // Reads a byte buffer as a stream, moving its position along
+    static final class ByteBufferInputStream extends InputStream {
+        // Buffer being read
+        private final ByteBuffer buffer;
+
+        // Constructor for reading the given buffer from its position
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if(length == 0) {
+                return 0;
+            }
+
+            if(!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * NAME: BulkCryptoEngine
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Applies a field transform to every encrypted field in a vault in parallel, used for re-keying and migrations
+ */
+
+package com.jgptech.Locals.Vault;
+
+import com.jgptech.Locals.Encryption.FieldTransform;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public final class BulkCryptoEngine {
+    // Amount of entries handled by a single task before it is split in half
+    private final static int ENTRIES_PER_TASK = 256;
+
+    // Pool the work is fanned out on
+    private final ForkJoinPool pool;
+
+
+    // Constructor for an engine using the common pool
+    public BulkCryptoEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    // Constructor for an engine using a specific pool
+    public BulkCryptoEngine(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Transform every encrypted field in the vault. Either every field is replaced or, if any field fails, none are
+    public Result transform(Vault vault, FieldTransform transform) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        List<Group> groups = vault.getGroups();
+
+        // New group names and entry fields are staged here and only put into the vault once every one has succeeded
+        byte[][] groupNames = new byte[groups.size()][];
+        byte[][][][] entryFields = new byte[groups.size()][][][];
+        List<RecursiveAction> tasks = new ArrayList<>();
+
+        for(int groupIndex = 0; groupIndex < groups.size(); groupIndex++) {
+            Group group = groups.get(groupIndex);
+            entryFields[groupIndex] = new byte[group.size()][][];
+            tasks.add(new GroupTask(group, transform, groupNames, entryFields[groupIndex], groupIndex));
+        }
+
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } catch(TransformException e) {
+            throw e.getCause();
+        }
+
+        // Every field was transformed, commit the staged fields to the vault
+        long fields = 0;
+
+        for(int groupIndex = 0; groupIndex < groups.size(); groupIndex++) {
+            Group group = groups.get(groupIndex);
+            group.setEncryptedName(groupNames[groupIndex]);
+            group.markDirty();
+            fields++;
+
+            for(int entryIndex = 0; entryIndex < group.size(); entryIndex++) {
+                group.getEntry(entryIndex).setEncryptedFields(entryFields[groupIndex][entryIndex]);
+                fields += entryFields[groupIndex][entryIndex].length;
+            }
+        }
+
+        return new Result(fields, System.nanoTime() - start);
+    }
+
+    // Transform a single field, leaving missing fields as they are
+    private static byte[] transformField(FieldTransform transform, byte[] field) {
+        if(field == null) {
+            return null;
+        }
+
+        try {
+            return transform.apply(field);
+        } catch(GeneralSecurityException e) {
+            throw new TransformException(e);
+        }
+    }
+
+    // Task transforming the name of a group and fanning its entries out into ranges
+    private static final class GroupTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // Tasks are never serialized, the group and transform are only needed while they run
+        private final transient Group group;
+        private final transient FieldTransform transform;
+        private final byte[][] groupNames;
+        private final byte[][][] entryFields;
+        private final int groupIndex;
+
+        GroupTask(Group group, FieldTransform transform, byte[][] groupNames, byte[][][] entryFields, int groupIndex) {
+            this.group = group;
+            this.transform = transform;
+            this.groupNames = groupNames;
+            this.entryFields = entryFields;
+            this.groupIndex = groupIndex;
+        }
+
+        @Override
+        protected void compute() {
+            groupNames[groupIndex] = transformField(transform, group.getEncryptedName());
+            new EntryTask(group, transform, entryFields, 0, group.size()).compute();
+        }
+    }
+
+    // Task transforming the fields of a range of entries in a group, splitting the range while it is large
+    private static final class EntryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        // Tasks are never serialized, the group and transform are only needed while they run
+        private final transient Group group;
+        private final transient FieldTransform transform;
+        private final byte[][][] entryFields;
+        private final int from;
+        private final int to;
+
+        EntryTask(Group group, FieldTransform transform, byte[][][] entryFields, int from, int to) {
+            this.group = group;
+            this.transform = transform;
+            this.entryFields = entryFields;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > ENTRIES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EntryTask(group, transform, entryFields, from, middle),
+                          new EntryTask(group, transform, entryFields, middle, to));
+                return;
+            }
+
+            for(int entryIndex = from; entryIndex < to; entryIndex++) {
+                byte[][] fields = group.getEntry(entryIndex).getEncryptedFields();
+                byte[][] transformed = new byte[fields.length][];
+
+                for(int fieldIndex = 0; fieldIndex < fields.length; fieldIndex++) {
+                    transformed[fieldIndex] = transformField(transform, fields[fieldIndex]);
+                }
+
+                entryFields[entryIndex] = transformed;
+            }
+        }
+    }
+
+    // Carries a checked exception out of the fork/join tasks
+    private static final class TransformException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TransformException(GeneralSecurityException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized GeneralSecurityException getCause() {
+            return (GeneralSecurityException) super.getCause();
+        }
+    }
+
+    // Outcome of a bulk transform, with the throughput it reached
+    public static final class Result {
+        // Amount of fields transformed
+        private final long fields;
+
+        // Time taken for the transform (nanoseconds)
+        private final long elapsedNanos;
+
+        Result(long fields, long elapsedNanos) {
+            this.fields = fields;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        // Get the amount of fields transformed
+        public long getFields() {
+            return fields;
+        }
+
+        // Get the time taken for the transform (nanoseconds)
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        // Get the throughput of the transform
+        public double getFieldsPerSecond() {
+            return elapsedNanos == 0 ? 0 : fields * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d fields in %.1f ms (%.0f fields/s)", fields, elapsedNanos / 1_000_000.0, getFieldsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * NAME: DirectoryVaultCodec
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Stores a vault as a directory with a manifest and one file per group, so a write only replaces the files
+ *              of the groups whose entries changed. Group files are never overwritten: a changed group is written to a
+ *              new file with the next generation number, the manifest is renamed over the old one to switch to it, and
+ *              only then is the old file deleted. A crash at any point leaves the vault as it was before or after
+ *
+ *              Directory layout:
+ *                  manifest                        vault header and the list of groups
+ *                  <group id>-<generation>.group   entries of one group
+ *                  journal                         changes since the manifest was written (see VaultJournal)
+ *
+ *              Manifest layout (big endian):
+ *                  magic "LCLD", u16 version, u16 flags
+ *                  i32 header length, header (see Vault.writeHeader(DataOutputStream))
+ *                  i32 group count, then per group: group id, i64 generation, record name, record name tag
+ *              Group file layout:
+ *                  magic "LCLG", u16 version, u16 flags, group id, i64 generation
+ *                  i32 entry count, then the entries as in the binary format (see BinaryVaultCodec)
+ *              Version 1 is the same without the group name tags in the manifest
+ */
+
+package com.jgptech.Locals.Vault;
+
+import com.jgptech.Locals.Encryption.BlindIndex;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+
+final class DirectoryVaultCodec {
+    // Name of the manifest in a vault directory
+    private static final String MANIFEST = "manifest";
+
+    // Extension of the group files in a vault directory
+    private static final String GROUP_EXTENSION = ".group";
+
+    // First bytes of the manifest and of every group file
+    private static final byte[] MANIFEST_MAGIC = {'L', 'C', 'L', 'D'};
+    private static final byte[] GROUP_MAGIC = {'L', 'C', 'L', 'G'};
+
+    // Version of the manifest from before the group name tags, which is still read
+    private static final int VERSION_WITHOUT_NAME_TAGS = 1;
+
+
+    // Prevent instantiation
+    private DirectoryVaultCodec() {}
+
+    // Read a vault from a vault directory. If mapped is set the group files are mapped and the entries of each group
+    // are only read once they are needed
+    static Vault read(Path directory, boolean mapped) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(directory.resolve(MANIFEST))));
+        int version = readPreamble(in, MANIFEST_MAGIC, "vault manifest");
+
+        // The header is length prefixed so fields added later can be skipped by this version
+        byte[] header = new byte[BinaryVaultCodec.checkLength(in.readInt())];
+        in.readFully(header);
+
+        Vault vault = new Vault();
+        vault.readHeader(new DataInputStream(new ByteArrayInputStream(header)));
+
+        int groupCount = BinaryVaultCodec.checkLength(in.readInt());
+        ArrayList<Group> groups = new ArrayList<>(groupCount);
+
+        for(int groupIndex = 0; groupIndex < groupCount; groupIndex++) {
+            byte[] id = new byte[Group.ID_LENGTH];
+            in.readFully(id);
+            long generation = in.readLong();
+
+            Group group = new Group();
+            group.setEncryptedName(BinaryVaultCodec.readRecord(in));
+
+            if(version > VERSION_WITHOUT_NAME_TAGS) {
+                byte[] tag = BinaryVaultCodec.readRecord(in);
+                group.setNameTag(BlindIndex.isTag(tag) ? tag : null);
+            }
+
+            readGroupFile(directory, group, id, generation, mapped);
+
+            group.setId(id);
+            group.markWritten(generation);
+            groups.add(group);
+        }
+
+        vault.setGroups(groups);
+        return vault;
+    }
+
+    // Write a vault to a vault directory, creating it if needed. Only groups whose entries changed since they were
+    // read get a new file. Every file is forced to disk before it is relied on if force is set
+    static void write(Vault vault, Path directory, boolean force) throws IOException {
+        if(!Files.isDirectory(directory)) {
+            Files.createDirectories(directory, ownerOnly("rwx------"));
+        }
+
+        List<Group> groups = vault.getGroups();
+        long[] generations = new long[groups.size()];
+        boolean written = false;
+
+        for(int groupIndex = 0; groupIndex < groups.size(); groupIndex++) {
+            Group group = groups.get(groupIndex);
+            generations[groupIndex] = group.getGeneration();
+
+            // A group read from another directory (or whose file went missing) has no file here yet
+            if(group.needsWrite() || !Files.exists(groupPath(directory, group.getId(), group.getGeneration()))) {
+                generations[groupIndex]++;
+                writeGroupFile(directory, group, generations[groupIndex], force);
+                written = true;
+            }
+        }
+
+        // The new group files must be found after a power loss if the manifest that points to them is
+        if(force && written) {
+            Durability.syncDirectory(directory);
+        }
+
+        writeManifest(vault, directory, generations, force);
+
+        for(int groupIndex = 0; groupIndex < groups.size(); groupIndex++) {
+            groups.get(groupIndex).markWritten(generations[groupIndex]);
+        }
+
+        deleteUnused(directory, groups);
+    }
+
+    // Force the manifest, the group files and the directory to disk after writes that were left to the OS
+    static void sync(Path directory) throws IOException {
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, file -> isVaultFile(file.getFileName().toString()))) {
+            for(Path file : files) {
+                try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            }
+        }
+
+        Durability.syncDirectory(directory);
+    }
+
+    // Read the entries of a group from its file, checking the file is the one the manifest points to
+    private static void readGroupFile(Path directory, Group group, byte[] id, long generation, boolean mapped) throws IOException {
+        Path file = groupPath(directory, id, generation);
+        ByteBuffer buffer;
+
+        if(mapped) {
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                if(channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Group file is too large to map: " + file.getFileName());
+                }
+
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        } else {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        }
+
+        DataInputStream in = new DataInputStream(new BinaryVaultCodec.ByteBufferInputStream(buffer));
+        readPreamble(in, GROUP_MAGIC, "group file");
+
+        byte[] fileId = new byte[Group.ID_LENGTH];
+        in.readFully(fileId);
+
+        if(!Arrays.equals(fileId, id) || in.readLong() != generation) {
+            throw new IOException("Damaged vault, group file does not match the manifest: " + file.getFileName());
+        }
+
+        int entryCount = BinaryVaultCodec.checkLength(in.readInt());
+
+        if(mapped) {
+            group.setUnloadedEntries(buffer.slice(), entryCount);
+        } else {
+            group.setEntries(BinaryVaultCodec.readEntries(buffer, entryCount));
+        }
+    }
+
+    // Write the entries of a group to a new file for the given generation
+    private static void writeGroupFile(Path directory, Group group, long generation, boolean force) throws IOException {
+        Path file = groupPath(directory, group.getId(), generation);
+
+        // Left over from a write that failed before the manifest was switched to it
+        Files.deleteIfExists(file);
+
+        try(FileChannel channel = FileChannel.open(file, EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), ownerOnly("rw-------"))) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+            writePreamble(out, GROUP_MAGIC);
+            out.write(group.getId());
+            out.writeLong(generation);
+            BinaryVaultCodec.writeEntries(group, out);
+            out.flush();
+
+            if(force) {
+                channel.force(true);
+            }
+        }
+    }
+
+    // Write the manifest to a temporary file and rename it over the current one, which switches the vault to the new
+    // group files in one step
+    private static void writeManifest(Vault vault, Path directory, long[] generations, boolean force) throws IOException {
+        List<Group> groups = vault.getGroups();
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(manifest);
+        writePreamble(out, MANIFEST_MAGIC);
+
+        byte[] header = BinaryVaultCodec.encodeHeader(vault);
+        out.writeInt(header.length);
+        out.write(header);
+
+        out.writeInt(groups.size());
+
+        for(int groupIndex = 0; groupIndex < groups.size(); groupIndex++) {
+            out.write(groups.get(groupIndex).getId());
+            out.writeLong(generations[groupIndex]);
+            BinaryVaultCodec.writeRecord(out, groups.get(groupIndex).getEncryptedName());
+            BinaryVaultCodec.writeRecord(out, groups.get(groupIndex).getNameTag());
+        }
+
+        replaceManifest(directory, manifest.toByteArray(), force);
+    }
+
+    // Replace the header in the manifest with the one of a vault, keeping the list of groups as it was committed. The
+    // groups in memory may have changes that are only in the journal so far
+    static void writeHeader(Vault vault, Path directory) throws IOException {
+        byte[] committed = Files.readAllBytes(directory.resolve(MANIFEST));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(committed));
+        readPreamble(in, MANIFEST_MAGIC, "vault manifest");
+
+        int preambleLength = MANIFEST_MAGIC.length + 2 * Short.BYTES;
+        int groupsOffset = preambleLength + Integer.BYTES + BinaryVaultCodec.checkLength(in.readInt());
+
+        // The preamble is kept as well, since the list of groups is in the layout of its version
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(manifest);
+        out.write(committed, 0, preambleLength);
+
+        byte[] header = BinaryVaultCodec.encodeHeader(vault);
+        out.writeInt(header.length);
+        out.write(header);
+        out.write(committed, groupsOffset, committed.length - groupsOffset);
+
+        replaceManifest(directory, manifest.toByteArray(), true);
+    }
+
+    // Write a manifest to a temporary file and rename it over the current one
+    private static void replaceManifest(Path directory, byte[] manifest, boolean force) throws IOException {
+        Path temp = Files.createTempFile(directory, "." + MANIFEST, ".tmp");
+
+        try {
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(manifest);
+
+                while(buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+
+                if(force) {
+                    channel.force(true);
+                }
+            }
+
+            try {
+                Files.move(temp, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(temp, directory.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            // Only still there if the write failed
+            Files.deleteIfExists(temp);
+        }
+
+        if(force) {
+            Durability.syncDirectory(directory);
+        }
+    }
+
+    // Delete the group files the manifest no longer points to: older generations, removed groups, and files from writes
+    // that failed. A file that cannot be deleted is tried again on the next write
+    private static void deleteUnused(Path directory, List<Group> groups) {
+        Set<Path> used = new HashSet<>();
+
+        for(Group group : groups) {
+            used.add(groupPath(directory, group.getId(), group.getGeneration()));
+        }
+
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + GROUP_EXTENSION)) {
+            for(Path file : files) {
+                if(!used.contains(file)) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch(IOException e) {
+                        // Tried again on the next write
+                    }
+                }
+            }
+        } catch(IOException e) {
+            // Tried again on the next write
+        }
+    }
+
+    // Read and check the magic, version and flags at the start of the manifest or a group file. Returns the version
+    private static int readPreamble(DataInputStream in, byte[] magic, String kind) throws IOException {
+        byte[] read = new byte[magic.length];
+        in.readFully(read);
+
+        if(!Arrays.equals(read, magic)) {
+            throw new IOException("Not a " + kind);
+        }
+
+        int version = in.readUnsignedShort();
+
+        if(version < VERSION_WITHOUT_NAME_TAGS || version > VaultFormat.DIRECTORY.getVersion()) {
+            throw new IOException("Unsupported " + kind + " version: " + version);
+        }
+
+        // No flags are defined yet
+        in.readUnsignedShort();
+        return version;
+    }
+
+    // Write the magic, version and flags at the start of the manifest or a group file
+    private static void writePreamble(DataOutputStream out, byte[] magic) throws IOException {
+        out.write(magic);
+        out.writeShort(VaultFormat.DIRECTORY.getVersion());
+        out.writeShort(0);
+    }
+
+    // Get the path of the file holding the given generation of a group
+    private static Path groupPath(Path directory, byte[] id, long generation) {
+        return directory.resolve(HexFormat.of().formatHex(id) + "-" + generation + GROUP_EXTENSION);
+    }
+
+    // Returns true if a file in a vault directory is the manifest or a group file
+    private static boolean isVaultFile(String name) {
+        return name.equals(MANIFEST) || name.endsWith(GROUP_EXTENSION);
+    }
+
+    // Get the attributes that make a new file or directory private to its owner, where the file system has POSIX
+    // permissions
+    private static FileAttribute<?>[] ownerOnly(String permissions) {
+        if(!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return new FileAttribute<?>[0];
+        }
+
+        return new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions))};
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * NAME: DirectoryVaultStore
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Store for a vault kept as a directory with one file per group (see DirectoryVaultCodec), with its
+ *              journal inside the directory. A commit only writes the files of the groups that changed, and a header
+ *              commit only the manifest
+ */
+
+package com.jgptech.Locals.Vault;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+final class DirectoryVaultStore extends FileVaultStore {
+    // Whether the group files are mapped, so the entries of each group are only read once they are needed
+    private final boolean mapped;
+
+
+    // Constructor for the vault directory at the given path
+    DirectoryVaultStore(String location, Path directory, boolean mapped) {
+        super(location, directory, journalPathFor(directory), VaultFormat.DIRECTORY);
+        this.mapped = mapped;
+    }
+
+    // Get the path of the journal that belongs to a vault directory
+    static Path journalPathFor(Path directory) {
+        return directory.resolve("journal");
+    }
+
+    @Override
+    public boolean exists() {
+        return Files.isDirectory(getPath());
+    }
+
+    @Override
+    public void open() throws IOException {
+        opened(DirectoryVaultCodec.read(getPath(), mapped && MappedVaultStore.CAN_REPLACE_MAPPED_FILES));
+    }
+
+    @Override
+    public void commit(Vault vault, boolean force) throws IOException {
+        DirectoryVaultCodec.write(vault, getPath(), force);
+    }
+
+    @Override
+    public boolean commitHeader(Vault vault) throws IOException {
+        DirectoryVaultCodec.writeHeader(vault, getPath());
+        return true;
+    }
+
+    @Override
+    void syncVault() throws IOException {
+        DirectoryVaultCodec.sync(getPath());
+    }
+}
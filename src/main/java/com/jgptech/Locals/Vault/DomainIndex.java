@@ -0,0 +1,276 @@
+/*
+ * NAME: DomainIndex
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Index of the logins of a group by the host of their URL, for finding the logins that belong to a site
+ *              without decrypting any URL. The host of a login is split into its site (the registrable domain, like
+ *              example.com or example.co.uk) and the labels in front of it, and each of those domains is kept as a tag
+ *              (see BlindIndex). The tags are kept with the login and form a trie, from the site down to the full host.
+ *              A match walks the trie along the host of a URL, which finds the logins for the same host, for a parent
+ *              domain of it, and for any other host of the same site
+ */
+
+package com.jgptech.Locals.Vault;
+
+import com.jgptech.Locals.Encryption.BlindIndex;
+import com.jgptech.Locals.Encryption.CipherSession;
+
+import java.net.IDN;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+public final class DomainIndex {
+    // Second level labels under which country code domains register sites (like co.uk or com.au). Stands in for the
+    // full public suffix list, which would have to be kept up to date with the program
+    private static final Set<String> SECOND_LEVEL_LABELS = Set.of("ac", "co", "com", "edu", "gov", "go", "ne", "net",
+                                                                  "or", "org");
+
+    // How closely a login matches the host of a URL, from closest to furthest
+    public enum Rank {
+        // The login is for the same host
+        EXACT_HOST,
+
+        // The login is for a parent domain of the host, up to the site
+        PARENT_DOMAIN,
+
+        // The login is for another host of the same site
+        SAME_SITE
+    }
+
+    // A login that matches the host of a URL
+    public static final class Match {
+        // Order of matches: by rank, then closer parent domains first, then by group and entry
+        static final Comparator<Match> ORDER = Comparator.comparing(Match::getRank)
+                                                         .thenComparing(Comparator.comparingInt((Match match) -> match.depth).reversed())
+                                                         .thenComparingInt(Match::getGroupIndex)
+                                                         .thenComparingInt(Match::getEntryIndex);
+
+        private final Rank rank;
+        private final int groupIndex;
+        private final int entryIndex;
+
+        // Amount of labels the host of a login for a parent domain has past the site
+        private final int depth;
+
+        // Constructor for a match
+        private Match(Rank rank, int groupIndex, int entryIndex, int depth) {
+            this.rank = rank;
+            this.groupIndex = groupIndex;
+            this.entryIndex = entryIndex;
+            this.depth = depth;
+        }
+
+        // Get how closely the login matches
+        public Rank getRank() {
+            return rank;
+        }
+
+        // Get the index of the group of the login
+        public int getGroupIndex() {
+            return groupIndex;
+        }
+
+        // Get the index of the login in its group
+        public int getEntryIndex() {
+            return entryIndex;
+        }
+    }
+
+    // A domain in the trie, with the logins for exactly that host
+    private static final class Node {
+        private final HashMap<ByteBuffer, Node> children = new HashMap<>(2);
+        private final List<Integer> entries = new ArrayList<>(1);
+    }
+
+    // Sites of the logins in the group, by the tag of the site
+    private final HashMap<ByteBuffer, Node> sites = new HashMap<>();
+
+
+    // Constructor for an empty index
+    DomainIndex() {}
+
+    // Add a login with the given host tags
+    void add(byte[] hostTags, int entryIndex) {
+        if(hostTags == null || hostTags.length == 0) {
+            return;
+        }
+
+        Node node = sites.computeIfAbsent(tagAt(hostTags, 0), tag -> new Node());
+
+        for(int offset = BlindIndex.TAG_LENGTH; offset < hostTags.length; offset += BlindIndex.TAG_LENGTH) {
+            node = node.children.computeIfAbsent(tagAt(hostTags, offset), tag -> new Node());
+        }
+
+        node.entries.add(entryIndex);
+    }
+
+    // Add the logins of the group that match a host with the given tags to a list of matches
+    void match(byte[] hostTags, int groupIndex, List<Match> matches) {
+        if(hostTags == null || hostTags.length == 0) {
+            return;
+        }
+
+        Node site = sites.get(tagAt(hostTags, 0));
+
+        if(site == null) {
+            return;
+        }
+
+        // Walk down from the site as far as the host goes
+        List<Node> path = new ArrayList<>();
+        path.add(site);
+
+        for(int offset = BlindIndex.TAG_LENGTH; offset < hostTags.length; offset += BlindIndex.TAG_LENGTH) {
+            Node child = path.get(path.size() - 1).children.get(tagAt(hostTags, offset));
+
+            if(child == null) {
+                break;
+            }
+
+            path.add(child);
+        }
+
+        boolean foundHost = path.size() * BlindIndex.TAG_LENGTH == hostTags.length;
+        Set<Node> onPath = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for(int depth = 0; depth < path.size(); depth++) {
+            Rank rank = (foundHost && depth == path.size() - 1) ? Rank.EXACT_HOST : Rank.PARENT_DOMAIN;
+            addMatches(path.get(depth), rank, groupIndex, depth, matches);
+            onPath.add(path.get(depth));
+        }
+
+        // Every other host under the site, which are all as close as each other
+        ArrayDeque<Node> nodes = new ArrayDeque<>();
+        nodes.push(site);
+
+        while(!nodes.isEmpty()) {
+            Node node = nodes.pop();
+
+            if(!onPath.contains(node)) {
+                addMatches(node, Rank.SAME_SITE, groupIndex, 0, matches);
+            }
+
+            node.children.values().forEach(nodes::push);
+        }
+    }
+
+    // Add the logins for exactly the host of a node to a list of matches
+    private static void addMatches(Node node, Rank rank, int groupIndex, int depth, List<Match> matches) {
+        for(int entryIndex : node.entries) {
+            matches.add(new Match(rank, groupIndex, entryIndex, depth));
+        }
+    }
+
+    // Get the host tags of a URL: the tag of its site, followed by the tag of each longer domain down to the full host.
+    // Empty if the URL has no host
+    public static byte[] hostTags(String url, CipherSession session) {
+        String host = hostOf(url);
+
+        if(host == null) {
+            return new byte[0];
+        }
+
+        String[] labels = host.split("\\.");
+        int siteLabels = siteLabelCount(host, labels);
+        byte[] tags = new byte[(labels.length - siteLabels + 1) * BlindIndex.TAG_LENGTH];
+
+        for(int count = siteLabels; count <= labels.length; count++) {
+            String domain = String.join(".", List.of(labels).subList(labels.length - count, labels.length));
+            System.arraycopy(BlindIndex.tagDomain(domain, session), 0, tags, (count - siteLabels) * BlindIndex.TAG_LENGTH,
+                             BlindIndex.TAG_LENGTH);
+        }
+
+        return tags;
+    }
+
+    // Returns true if host tags read from a vault file are well formed
+    static boolean isHostTags(byte[] hostTags) {
+        return hostTags != null && hostTags.length % BlindIndex.TAG_LENGTH == 0;
+    }
+
+    // Get the host of a URL in lower case ASCII, without its scheme, user, port, path or trailing dot. A bare host like
+    // example.com is taken as a URL too. Returns null if there is no host
+    static String hostOf(String url) {
+        if(url == null) {
+            return null;
+        }
+
+        String host = url.strip();
+        int scheme = host.indexOf("://");
+
+        if(scheme >= 0) {
+            host = host.substring(scheme + 3);
+        }
+
+        for(char end : new char[] {'/', '?', '#'}) {
+            int index = host.indexOf(end);
+
+            if(index >= 0) {
+                host = host.substring(0, index);
+            }
+        }
+
+        host = host.substring(host.lastIndexOf('@') + 1);
+
+        if(host.startsWith("[")) {
+            // IPv6 address, which may be followed by a port
+            int close = host.indexOf(']');
+            host = (close < 0) ? host.substring(1) : host.substring(1, close);
+        } else {
+            int colon = host.lastIndexOf(':');
+
+            if(colon >= 0 && host.indexOf(':') == colon) {
+                host = host.substring(0, colon);
+            }
+        }
+
+        host = host.toLowerCase(Locale.ROOT);
+
+        while(host.endsWith(".")) {
+            host = host.substring(0, host.length() - 1);
+        }
+
+        try {
+            host = IDN.toASCII(host, IDN.ALLOW_UNASSIGNED);
+        } catch(IllegalArgumentException e) {
+            // Not a valid internationalized name, kept as it is
+        }
+
+        if(host.isEmpty() || host.startsWith(".") || host.contains("..") || host.chars().anyMatch(Character::isWhitespace)) {
+            return null;
+        }
+
+        return host;
+    }
+
+    // Get the amount of labels at the end of a host that name its site. An IP address or a host with a single label is
+    // a site of its own
+    private static int siteLabelCount(String host, String[] labels) {
+        if(labels.length <= 2 || host.contains(":") || host.chars().allMatch(c -> c == '.' || Character.isDigit(c))) {
+            return labels.length;
+        }
+
+        String topLevel = labels[labels.length - 1];
+        String secondLevel = labels[labels.length - 2];
+
+        if(topLevel.length() == 2 && SECOND_LEVEL_LABELS.contains(secondLevel)) {
+            return 3;
+        }
+
+        return 2;
+    }
+
+    // Get the tag at an offset of host tags as a key of the trie
+    private static ByteBuffer tagAt(byte[] hostTags, int offset) {
+        return ByteBuffer.wrap(hostTags, offset, BlindIndex.TAG_LENGTH).slice();
+    }
+}
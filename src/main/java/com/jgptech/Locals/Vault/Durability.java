@@ -0,0 +1,103 @@
+/*
+ * NAME: Durability
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Enum for when vault writes are forced to disk, trading write latency against what survives a crash or
+ *              power loss. Writes are always atomic, so any mode leaves either the old or the new vault file behind
+ */
+
+package com.jgptech.Locals.Vault;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+public enum Durability {
+    // Every vault write and journal flush is forced to disk before it counts as saved
+    ALWAYS("always"),
+    // Writes during a session are left to the OS and everything is forced to disk when the vault is closed
+    ON_EXIT("on-exit"),
+    // Nothing is forced, the OS writes the data out when it sees fit. Survives the program crashing, not the machine
+    OS_BUFFERED("os-buffered");
+
+    // File the durability for this machine can be set in, with a line like "durability=on-exit"
+    private static final Path HOST_SETTINGS_PATH = Paths.get(System.getProperty("user.home"), ".locals", "storage.properties");
+
+    // Durability for this machine, loaded the first time it is needed
+    private static Durability hostDefault;
+
+    // Name of the mode as typed on the command line
+    private final String name;
+
+    // Constructor for Durability
+    private Durability(String name) {
+        this.name = name;
+    }
+
+    // Returns true if every write is forced to disk as it happens
+    boolean syncsEveryWrite() {
+        return this == ALWAYS;
+    }
+
+    // Returns true if the vault is forced to disk at the latest when it is closed
+    boolean syncsOnClose() {
+        return this != OS_BUFFERED;
+    }
+
+    // Get the mode from its name as typed on the command line
+    public static Durability fromName(String name) throws IllegalArgumentException {
+        for(Durability durability : Durability.values()) {
+            if(durability.name.equalsIgnoreCase(name)) {
+                return durability;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown durability: " + name + " (use always, on-exit or os-buffered)");
+    }
+
+    // Get the durability set for this machine, or ALWAYS if none is set
+    public static synchronized Durability getDefault() {
+        if(hostDefault == null) {
+            hostDefault = loadHostDefault();
+        }
+
+        return hostDefault;
+    }
+
+    // Force a directory to disk, so a file created, renamed or deleted in it survives a power loss
+    static void syncDirectory(Path directory) {
+        try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch(IOException e) {
+            // Directories cannot be opened on some platforms (Windows), where the rename is already durable
+        }
+    }
+
+    // Load the durability set for this machine
+    private static Durability loadHostDefault() {
+        if(!Files.exists(HOST_SETTINGS_PATH)) {
+            return ALWAYS;
+        }
+
+        Properties properties = new Properties();
+
+        try(InputStream in = Files.newInputStream(HOST_SETTINGS_PATH)) {
+            properties.load(in);
+            return fromName(properties.getProperty("durability", ALWAYS.name));
+        } catch(IOException | IllegalArgumentException e) {
+            System.out.println("Error: could not read the storage settings, using durability 'always': " + e.getMessage());
+            return ALWAYS;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
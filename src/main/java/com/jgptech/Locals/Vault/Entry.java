@@ -12,6 +12,9 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import java.util.Base64;
 
+import com.jgptech.Locals.Encryption.BlindIndex;
+import com.jgptech.Locals.Encryption.CipherSession;
+import com.jgptech.Locals.Encryption.SearchIndex;
 import com.jgptech.Locals.Encryption.VaultEncryptor;
 
 @JsonTypeInfo(
@@ -21,33 +24,138 @@ import com.jgptech.Locals.Encryption.VaultEncryptor;
 )
 public abstract class Entry {
     // The name of the entry
-    protected String name;
+    protected byte[] name;
 
     // The notes for the entry
-    protected String notes;
+    protected byte[] notes;
+
+    // Blind index tag of the name (see BlindIndex), or null for an entry from before names were tagged until its group
+    // is indexed
+    private byte[] nameTag;
+
+    // Search filter of the searchable fields (see SearchIndex), or null for an entry from before entries were indexed
+    // for search until it is first searched
+    private byte[] searchFilter;
+
+    // Random id the entry keeps for as long as it exists, so it can be referred to wherever it is moved. Given the
+    // first time it is needed, or read from the vault file
+    private byte[] id;
 
 
     // Empty constructor for Jackson
     Entry() {}
 
     // Get the name of the entry
-    public String getName(byte[] key) {
-        return VaultEncryptor.decrypt(name, key);
+    public String getName(CipherSession session) {
+        return session.getNames().get(name);
     }
 
     // Set the name of the entry
-    public void setName(String name, byte[] key) {
-        this.name = VaultEncryptor.encrypt(name, key);
+    public void setName(String name, CipherSession session) {
+        session.getNames().invalidate(this.name);
+        this.name = VaultEncryptor.encryptField(name, session);
+        this.nameTag = BlindIndex.tag(name, session);
+        updateSearchFilter(session);
+    }
+
+    @JsonIgnore
+    // Get the encrypted name of the entry
+    byte[] getEncryptedName() {
+        return name;
+    }
+
+    @JsonIgnore
+    // Get the id of the entry, giving a new entry its id
+    byte[] getId() {
+        if(id == null) {
+            id = Group.newId();
+        }
+
+        return id;
+    }
+
+    @JsonIgnore
+    // Set the id of an entry read from the vault file
+    void setId(byte[] id) {
+        this.id = id;
+    }
+
+    @JsonIgnore
+    // Get the blind index tag of the name, or null if the entry was not tagged yet
+    byte[] getNameTag() {
+        return nameTag;
+    }
+
+    @JsonIgnore
+    // Set the blind index tag of the name, read from the vault file or computed when the group is indexed
+    void setNameTag(byte[] nameTag) {
+        this.nameTag = nameTag;
+    }
+
+    @JsonIgnore
+    // Get the search filter, or null if the entry was not indexed for search yet
+    byte[] getSearchFilter() {
+        return searchFilter;
+    }
+
+    @JsonIgnore
+    // Set the search filter, read from the vault file
+    void setSearchFilter(byte[] searchFilter) {
+        this.searchFilter = searchFilter;
+    }
+
+    // Tag the name and build the search filter, for a new entry once every field is filled in or an entry from before
+    // entries were indexed
+    void index(CipherSession session) {
+        String[] text = getSearchableText(session);
+
+        // The name is always the first searchable field
+        nameTag = BlindIndex.tag(text[0], session);
+        searchFilter = SearchIndex.filter(text, session);
+    }
+
+    // Rebuild the search filter after one of the searchable fields changed
+    protected void updateSearchFilter(CipherSession session) {
+        searchFilter = SearchIndex.filter(getSearchableText(session), session);
+    }
+
+    // Returns true if one of the searchable fields holds the text of a query. Only decrypts the fields if the search
+    // filter may hold the text
+    boolean matches(SearchIndex.Query query, CipherSession session) {
+        if(!query.mightMatch(searchFilter)) {
+            return false;
+        }
+
+        for(String field : getSearchableText(session)) {
+            if(query.matches(field)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Decrypt the searchable fields, leaving missing ones null
+    private String[] getSearchableText(CipherSession session) {
+        byte[][] fields = getSearchableFields();
+        String[] text = new String[fields.length];
+
+        for(int index = 0; index < fields.length; index++) {
+            text[index] = (fields[index] == null) ? null : VaultEncryptor.decryptField(fields[index], session);
+        }
+
+        return text;
     }
 
     // Get the notes for this entry
-    public String getNotes(byte[] key) {
-        return VaultEncryptor.decrypt(notes, key);
+    public String getNotes(CipherSession session) {
+        return VaultEncryptor.decryptField(notes, session);
     }
 
     // Set the notes for this entry
-    public void setNotes(String notes, byte[] key) {
-        this.notes = VaultEncryptor.encrypt(notes, key);
+    public void setNotes(String notes, CipherSession session) {
+        this.notes = VaultEncryptor.encryptField(notes, session);
+        updateSearchFilter(session);
     }
 
     @JsonIgnore
@@ -74,7 +182,21 @@ public abstract class Entry {
         return this instanceof SecureNote;
     }
 
+    @JsonIgnore
+    // Get the encrypted fields of this entry. Used for operations that need to touch every field, like re-encryption
+    abstract byte[][] getEncryptedFields();
+
+    @JsonIgnore
+    // Replace the encrypted fields of this entry with ones in the same order as getEncryptedFields()
+    abstract void setEncryptedFields(byte[][] fields);
+
+    @JsonIgnore
+    // Get the encrypted fields a search looks through, name first. Subclasses add the fields of their own worth searching
+    byte[][] getSearchableFields() {
+        return new byte[][] {name, notes};
+    }
+
     @JsonIgnore
     // Print the details of this entry. Must be implemented per subclass due to differentiating elements.
-    public abstract void print(byte[] key);
+    public abstract void print(CipherSession session);
 }
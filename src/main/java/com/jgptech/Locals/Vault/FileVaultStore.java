@@ -0,0 +1,402 @@
+/*
+ * NAME: FileVaultStore
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Store for a vault kept in a single file in the JSON or binary format, with its journal in a file next to
+ *              it. The whole file is read when the store is opened. A commit writes a temporary file next to the vault
+ *              file and renames it over it, so a crash leaves either the old or the new file and never part of one.
+ *              A header commit writes the header over the one in a binary file instead, after saving a copy of it next to
+ *              the file that is written again the next time the store is opened if the commit was cut off
+ *
+ *              Header copy layout (big endian): i32 header length, i32 CRC32C of the header, header
+ */
+
+package com.jgptech.Locals.Vault;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+class FileVaultStore implements VaultStore {
+    // Location the store was opened with
+    private final String location;
+
+    // Path of the vault file
+    private final Path path;
+
+    // Path of the journal file
+    private final Path journalPath;
+
+    // Format the vault file is in, or null until it is read for a store that takes either
+    private VaultFormat format;
+
+    // Vault read by open() without its groups, and the groups not handed out yet
+    private Vault vault;
+    private List<Group> groups;
+
+    // Open journal file, or null until the first append
+    private FileChannel journal;
+
+
+    // Constructor for a vault file in the given format, or in either if format is null
+    FileVaultStore(String location, Path path, VaultFormat format) {
+        this(location, path, journalPathFor(path), format);
+    }
+
+    // Constructor for a store keeping its journal at the given path
+    FileVaultStore(String location, Path path, Path journalPath, VaultFormat format) {
+        this.location = location;
+        this.path = path;
+        this.journalPath = journalPath;
+        this.format = format;
+    }
+
+    // Get the path of the journal that belongs to a vault file
+    static Path journalPathFor(Path vaultPath) {
+        return Paths.get(vaultPath + ".journal");
+    }
+
+    @Override
+    public String getLocation() {
+        return location;
+    }
+
+    @Override
+    public VaultFormat getFormat() {
+        // A new vault file is written in the binary format
+        if(format == null) {
+            format = VaultStores.detectFormat(path);
+        }
+
+        return (format == null) ? VaultFormat.BINARY : format;
+    }
+
+    @Override
+    public boolean exists() {
+        return Files.isRegularFile(path);
+    }
+
+    @Override
+    public void open() throws IOException {
+        recoverHeader();
+
+        try(InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            VaultFormat found = BinaryVaultCodec.isBinary(in) ? VaultFormat.BINARY : VaultFormat.JSON;
+
+            if(format != null && format != found) {
+                throw new IOException("Vault file is not in the " + format.name().toLowerCase() + " format");
+            }
+
+            format = found;
+            opened((found == VaultFormat.BINARY) ? BinaryVaultCodec.read(in) : VaultCodec.read(in));
+        }
+    }
+
+    @Override
+    public Vault readHeader() throws IOException {
+        if(vault == null) {
+            throw new IOException("Vault store is not open");
+        }
+
+        return vault;
+    }
+
+    @Override
+    public int getGroupCount() {
+        return (groups == null) ? 0 : groups.size();
+    }
+
+    @Override
+    public Group readGroup(int groupIndex) throws IOException {
+        if(groups == null) {
+            throw new IOException("Vault store is not open");
+        }
+
+        // Each group is handed out once, so a group later removed from the vault is not kept here
+        return groups.set(groupIndex, null);
+    }
+
+    @Override
+    public ByteBuffer readMutations() throws IOException {
+        if(!Files.exists(journalPath)) {
+            return null;
+        }
+
+        return ByteBuffer.wrap(Files.readAllBytes(journalPath));
+    }
+
+    @Override
+    public synchronized void appendMutations(ByteBuffer[] records, boolean force) throws IOException {
+        if(journal == null) {
+            journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        long start = journal.size();
+        long length = 0;
+
+        for(ByteBuffer record : records) {
+            length += record.remaining();
+        }
+
+        try {
+            for(long written = 0; written < length; ) {
+                written += journal.write(records);
+            }
+
+            if(force) {
+                journal.force(false);
+
+                // A new journal file is only found after a power loss if its directory entry is on disk too
+                if(start == 0) {
+                    Durability.syncDirectory(parentOf(journalPath));
+                }
+            }
+        } catch(IOException e) {
+            // Leave no part of the records behind, so the next append does not follow a torn one
+            journal.truncate(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void truncateMutations(long length) throws IOException {
+        if(journal != null) {
+            journal.truncate(length);
+            journal.force(false);
+            return;
+        }
+
+        try(FileChannel file = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+            file.truncate(length);
+            file.force(false);
+        }
+    }
+
+    @Override
+    public synchronized void deleteMutations() throws IOException {
+        close();
+        Files.deleteIfExists(journalPath);
+    }
+
+    @Override
+    public void commit(Vault vault, boolean force) throws IOException {
+        if(Files.isDirectory(path)) {
+            throw new IOException("Vault path is a directory: " + path);
+        }
+
+        // Replace the file a link points to rather than the link
+        Path target = Files.isSymbolicLink(path) ? path.toRealPath() : path;
+        Path directory = parentOf(target);
+        Path temp = Files.createTempFile(directory, "." + target.getFileName(), ".tmp");
+
+        try {
+            // The temporary file is only readable by the owner, keep the permissions of the file it replaces instead
+            if(Files.exists(target)) {
+                copyPermissions(target, temp);
+            }
+
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                if(getFormat() == VaultFormat.JSON) {
+                    OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+                    VaultCodec.write(vault, out);
+                    out.flush();
+                } else {
+                    BinaryVaultCodec.write(vault, channel);
+                }
+
+                if(force) {
+                    channel.force(true);
+                }
+            }
+
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            // Only still there if the write failed
+            Files.deleteIfExists(temp);
+        }
+
+        // The rename is only durable once the directory is on disk
+        if(force) {
+            Durability.syncDirectory(directory);
+        }
+    }
+
+    @Override
+    public boolean commitHeader(Vault vault) throws IOException {
+        // A JSON file has no fixed place for the header
+        if(getFormat() != VaultFormat.BINARY) {
+            return false;
+        }
+
+        byte[] header = BinaryVaultCodec.encodeHeader(vault);
+
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The groups start right after the header, so a header of another length would move every one of them
+            if(readHeaderLength(channel) != header.length) {
+                return false;
+            }
+
+            // A crash while the header is written over could leave part of the old one and part of the new one, so a
+            // copy is saved first to finish the write with
+            saveHeaderCopy(header);
+            writeHeader(channel, header);
+        }
+
+        Files.delete(headerCopyPath());
+        return true;
+    }
+
+    @Override
+    public synchronized void sync() throws IOException {
+        syncVault();
+
+        if(journal != null) {
+            journal.force(false);
+        }
+
+        Durability.syncDirectory(parentOf(path));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    // Get the path of the vault file
+    Path getPath() {
+        return path;
+    }
+
+    // Keep a vault read by open() to hand out through readHeader() and readGroup()
+    void opened(Vault read) {
+        groups = read.getGroups();
+        read.setGroups(new ArrayList<>());
+        vault = read;
+    }
+
+    // Force the committed vault to disk
+    void syncVault() throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    // Finish a header commit that was cut off by writing the saved copy of the header over the one in the vault file. A
+    // copy that was not saved in full is dropped, the file still has its previous header then
+    void recoverHeader() throws IOException {
+        Path copyPath = headerCopyPath();
+
+        if(!Files.exists(copyPath)) {
+            return;
+        }
+
+        ByteBuffer copy = ByteBuffer.wrap(Files.readAllBytes(copyPath));
+
+        if(copy.remaining() >= 2 * Integer.BYTES && copy.getInt() == copy.remaining() - Integer.BYTES) {
+            int checksum = copy.getInt();
+            byte[] header = new byte[copy.remaining()];
+            copy.get(header);
+
+            CRC32C crc = new CRC32C();
+            crc.update(header);
+
+            if((int) crc.getValue() == checksum) {
+                System.out.println("Finishing a change to the vault header that was cut off");
+
+                try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    if(readHeaderLength(channel) == header.length) {
+                        writeHeader(channel, header);
+                    }
+                }
+            }
+        }
+
+        Files.delete(copyPath);
+    }
+
+    // Save a copy of a header next to the vault file and force it to disk
+    private void saveHeaderCopy(byte[] header) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(header);
+
+        ByteBuffer copy = ByteBuffer.allocate(2 * Integer.BYTES + header.length);
+        copy.putInt(header.length).putInt((int) crc.getValue()).put(header).flip();
+
+        try(FileChannel channel = FileChannel.open(headerCopyPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(copy.hasRemaining()) {
+                channel.write(copy);
+            }
+
+            channel.force(true);
+        }
+
+        // The copy is only found after a power loss if its directory entry is on disk too
+        Durability.syncDirectory(parentOf(headerCopyPath()));
+    }
+
+    // Get the path of the copy of the header saved during a header commit
+    private Path headerCopyPath() {
+        return Paths.get(path + ".header");
+    }
+
+    // Read the length of the header of the binary vault file open in a channel
+    private static int readHeaderLength(FileChannel channel) throws IOException {
+        ByteBuffer start = ByteBuffer.allocate(BinaryVaultCodec.HEADER_OFFSET);
+
+        while(start.hasRemaining()) {
+            if(channel.read(start, start.position()) < 0) {
+                throw new IOException("Vault file ends before its header");
+            }
+        }
+
+        return BinaryVaultCodec.readHeaderLength(start.flip());
+    }
+
+    // Write a header over the one of the binary vault file open in a channel and force it to disk
+    private static void writeHeader(FileChannel channel, byte[] header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+
+        while(buffer.hasRemaining()) {
+            channel.write(buffer, BinaryVaultCodec.HEADER_OFFSET + buffer.position());
+        }
+
+        channel.force(true);
+    }
+
+    // Get the directory a file is in
+    static Path parentOf(Path file) {
+        return file.toAbsolutePath().getParent();
+    }
+
+    // Give a file the POSIX permissions of another, where the file system has them
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch(UnsupportedOperationException e) {
+            // Not a POSIX file system (Windows)
+        }
+    }
+}
@@ -8,48 +8,139 @@
 
 package com.jgptech.Locals.Vault;
 
+import com.jgptech.Locals.Encryption.BlindIndex;
+import com.jgptech.Locals.Encryption.CipherSession;
+import com.jgptech.Locals.Encryption.SearchIndex;
 import com.jgptech.Locals.Encryption.VaultEncryptor;
 
 import java.awt.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 public class Group {
+    // Length of the id of a group or entry (bytes)
+    static final int ID_LENGTH = 16;
+
+    // Source of the ids of new groups and entries
+    private static final SecureRandom RANDOM = new SecureRandom();
+
     @JsonIgnore
     // Shows that a given index is invalid
     private final int INVALID_INDEX = -1; // TODO: need to make this something "global" for the project
 
     // Name of the group
-    private String name;
+    private byte[] name;
+
+    @JsonIgnore
+    // Blind index tag of the name (see BlindIndex), or null for a group from before names were tagged until the vault's
+    // groups are indexed
+    private byte[] nameTag;
 
 //    // Color for the group
 //    private Color color;
 
     // TODO: add predefined list of icons to identify the group as well
 
-    // Array list to hold entries in this group
+    // Array list to hold entries in this group, or null while they are still in the mapped vault file
     private ArrayList<Entry> entries = new ArrayList<>();
 
+    @JsonIgnore
+    // Encoded entries of a group loaded from a mapped vault file, read the first time an entry is needed
+    private ByteBuffer unloadedEntries;
+
+    @JsonIgnore
+    // Amount of entries in unloadedEntries
+    private int unloadedCount;
+
+    @JsonIgnore
+    // Random id the group keeps for as long as it exists, which names its file in a directory vault and lets others
+    // refer to the group wherever it is moved
+    private byte[] id = newId();
+
+    @JsonIgnore
+    // Version of the file of this group in a directory vault, or 0 if it has none yet
+    private long generation = 0;
+
+    @JsonIgnore
+    // Whether the entries changed since the file of this group in a directory vault was written
+    private boolean dirty = true;
+
+    @JsonIgnore
+    // Whether entries saved before an index was kept with them were indexed since the vault was last written. Those
+    // changes are not in the journal, so the vault is written when it is closed to keep them
+    private boolean backfilled = false;
+
+    @JsonIgnore
+    // Index of the first entry with each name, by the tag of the name. Built the first time an entry is looked up by
+    // name and dropped whenever entries are moved, removed or changed, or null while there is none
+    private HashMap<ByteBuffer, Integer> nameIndex;
+
+    @JsonIgnore
+    // Index of the logins by the domains of their URLs. Built the first time a URL is matched and dropped whenever the
+    // entry indexes are, or null while there is none
+    private DomainIndex domainIndex;
+
+    @JsonIgnore
+    // Entries by their id. Built the first time an entry is looked up by id and then kept up to date as entries are
+    // added and removed, since their ids never change and moving an entry does not touch it, or null while there is none
+    private HashMap<ByteBuffer, Entry> idIndex;
+
 
     // Constructor for loading a group from an existing vault file (Jackson requires an empty constructor)
     Group() {}
 
     // Constructor for a new group
-    public Group(String name, Color color, byte[] key /*Image groupImage*/) {
-        this.name = VaultEncryptor.encrypt(name, key);
+    public Group(String name, Color color, CipherSession session /*Image groupImage*/) {
+        this.name = VaultEncryptor.encryptField(name, session);
+        this.nameTag = BlindIndex.tag(name, session);
 //        this.color = color;
     }
 
     // Get the name of this group
-    public String getName(byte[] key) {
-        return VaultEncryptor.decrypt(name, key);
+    public String getName(CipherSession session) {
+        return session.getNames().get(name);
     }
 
     // Set the name of this group
-    public void setName(String name, byte[] key) {
-        this.name = VaultEncryptor.encrypt(name, key);
+    public void setName(String name, CipherSession session) {
+        session.getNames().invalidate(this.name);
+        this.name = VaultEncryptor.encryptField(name, session);
+        this.nameTag = BlindIndex.tag(name, session);
+    }
+
+    @JsonIgnore
+    // Get the encrypted name of this group. Used for operations that need to touch every field, like re-encryption
+    byte[] getEncryptedName() {
+        return name;
+    }
+
+    @JsonIgnore
+    // Replace the encrypted name of this group
+    void setEncryptedName(byte[] name) {
+        this.name = name;
+    }
+
+    @JsonIgnore
+    // Get the blind index tag of the name, or null if the group was not tagged yet
+    byte[] getNameTag() {
+        return nameTag;
+    }
+
+    @JsonIgnore
+    // Set the blind index tag of the name, read from the vault file or computed when the groups are indexed
+    void setNameTag(byte[] nameTag) {
+        this.nameTag = nameTag;
     }
 
 //    // Get the color of the group
@@ -62,15 +153,115 @@ public class Group {
 //        this.color = color;
 //    }
 
+    // Get the id of this group
+    byte[] getId() {
+        return id;
+    }
+
+    // Set the id of a group loaded from a vault file
+    void setId(byte[] id) {
+        this.id = id;
+    }
+
+    // Get the version of the file of this group in a directory vault, or 0 if it has none yet
+    long getGeneration() {
+        return generation;
+    }
+
+    // Returns true if the file of this group in a directory vault needs to be written. The name is kept in the
+    // manifest, so renaming a group does not count
+    boolean needsWrite() {
+        return dirty || generation == 0;
+    }
+
+    // Note that an entry of this group was changed in place, which may have renamed it. Its id stays the same, so the
+    // index by id is kept
+    void markDirty() {
+        dirty = true;
+        nameIndex = null;
+        domainIndex = null;
+    }
+
+    // Note that the entries of this group are in the given version of its file in a directory vault
+    void markWritten(long generation) {
+        this.generation = generation;
+        this.dirty = false;
+    }
+
+    // Returns true if entries were indexed since the vault was last written (see backfilled)
+    boolean isBackfilled() {
+        return backfilled;
+    }
+
+    // Note that the indexes added to the entries of this group are saved, after the vault was written
+    void markBackfillWritten() {
+        backfilled = false;
+    }
+
+    // Generate the id of a new group or entry
+    static byte[] newId() {
+        byte[] id = new byte[ID_LENGTH];
+        RANDOM.nextBytes(id);
+        return id;
+    }
+
+    // Get the id of a group or entry saved before they had ids from its encrypted name. The random IV makes every
+    // encrypted name unique, and the name stays as it is in the file until the next write saves the id, so the id is
+    // the same every time the file is read. Returns a new id if there is no name
+    static byte[] legacyId(byte[] encryptedName) {
+        if(encryptedName == null) {
+            return newId();
+        }
+
+        try {
+            return Arrays.copyOf(MessageDigest.getInstance("SHA-256").digest(encryptedName), ID_LENGTH);
+        } catch(NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Returns true if an id read from a vault file is well formed
+    static boolean isId(byte[] id) {
+        return id != null && id.length == ID_LENGTH;
+    }
+
     // Get the amount of entries in this group
     public int size() {
-        return entries.size();
+        return (entries == null) ? unloadedCount : entries.size();
     }
 
     @JsonIgnore
     // Check if this group is empty
     public boolean isEmpty() {
-        return entries.isEmpty();
+        return size() == 0;
+    }
+
+    // Keep the entries of this group as encoded bytes until one is needed
+    void setUnloadedEntries(ByteBuffer encoded, int count) {
+        entries = null;
+        unloadedEntries = encoded;
+        unloadedCount = count;
+    }
+
+    // Get the encoded entries of this group if none has been needed yet, or null once they are read
+    ByteBuffer getUnloadedEntries() {
+        return (entries == null) ? unloadedEntries.duplicate() : null;
+    }
+
+    // Get the entries, reading them from the vault file the first time. The shell is the only thread that touches groups
+    private ArrayList<Entry> entries() {
+        if(entries == null) {
+            try {
+                entries = BinaryVaultCodec.readEntries(unloadedEntries.duplicate(), unloadedCount);
+            } catch(IOException e) {
+                throw new UncheckedIOException("could not read the entries of this group: " + e.getMessage(), e);
+            }
+
+            unloadedEntries = null;
+        }
+
+        return entries;
     }
 
     /****************************************************************************************************************/
@@ -79,82 +270,288 @@ public class Group {
 
     // Get the entries array (for Jackson)
     public ArrayList<Entry> getEntries() {
-        return entries;
+        return entries();
     }
 
     // Set the entries array (for Jackson)
     public void setEntries(ArrayList<Entry> entries) {
         this.entries = entries;
+        this.unloadedEntries = null;
+        this.dirty = true;
+        this.nameIndex = null;
+        this.domainIndex = null;
+        this.idIndex = null;
     }
 
     @JsonIgnore
     // Get an entry from this group
     public Entry getEntry(int entryIndex) throws IndexOutOfBoundsException {
-        if(entryIndex < 0 || entryIndex > entries.size()) {
+        if(entryIndex < 0 || entryIndex >= entries().size()) {
             throw new IndexOutOfBoundsException("Invalid entry index: " + entryIndex);
         }
 
-        return entries.get(entryIndex);
+        return entries().get(entryIndex);
     }
 
     // REVIEW: needed?
     // Add an entry to the end of this group
     public void addEntry(Entry entry) {
-        entries.add(entry);
+        entries().add(entry);
+        dirty = true;
+
+        // Entries after it keep their index, so the index only needs the new one. An untagged entry is tagged when the
+        // index is built again
+        if(nameIndex != null) {
+            if(entry.getNameTag() == null) {
+                nameIndex = null;
+            } else {
+                nameIndex.putIfAbsent(ByteBuffer.wrap(entry.getNameTag()), entries().size() - 1);
+            }
+        }
+
+        if(idIndex != null) {
+            idIndex.put(ByteBuffer.wrap(entry.getId()), entry);
+        }
+
+        if(domainIndex != null && entry instanceof Login login) {
+            if(login.getHostTags() == null) {
+                domainIndex = null;
+            } else {
+                domainIndex.add(login.getHostTags(), entries().size() - 1);
+            }
+        }
+    }
+
+    // Add entries to the end of this group, in order
+    void addEntries(List<Entry> added) {
+        entries().addAll(added);
+        markDirty();
+
+        if(idIndex != null) {
+            for(Entry entry : added) {
+                idIndex.put(ByteBuffer.wrap(entry.getId()), entry);
+            }
+        }
     }
 
     // Add an entry at a specific index of this group
     public boolean addEntry(Entry entry, int entryIndex) {
         // Check that the requested index is not outside bounds of array
-        if(entryIndex < 0 || entryIndex > entries.size()) {
+        if(entryIndex < 0 || entryIndex > entries().size()) {
             return false;
         }
 
-        entries.add(entryIndex, entry);
+        entries().add(entryIndex, entry);
+        markDirty();
+
+        if(idIndex != null) {
+            idIndex.put(ByteBuffer.wrap(entry.getId()), entry);
+        }
+
         return true;
     }
 
     // Remove an entry from this group
     public boolean removeEntry(int entryIndex) {
         // Check that the requested index is not outside bounds of array
-        if(entryIndex < 0 || entryIndex > entries.size()) {
+        if(entryIndex < 0 || entryIndex >= entries().size()) {
             return false;
         }
 
-        entries.remove(entryIndex);
+        Entry removed = entries().remove(entryIndex);
+        markDirty();
+
+        if(idIndex != null) {
+            idIndex.remove(ByteBuffer.wrap(removed.getId()));
+        }
+
         return true;
     }
 
     // Move an existing entry to another index of this group
     public boolean moveEntry(int currentEntryIndex, int newEntryIndex) {
         // Check that both indices are within bounds of array
-        if(currentEntryIndex < 0 || currentEntryIndex > entries.size() ||
-           newEntryIndex < 0 || newEntryIndex > entries.size()) {
+        if(currentEntryIndex < 0 || currentEntryIndex >= entries().size() ||
+           newEntryIndex < 0 || newEntryIndex >= entries().size()) {
             return false;
         }
 
-        Entry bufferEntry = entries.get(currentEntryIndex);
-        entries.remove(currentEntryIndex);
-        entries.add(newEntryIndex, bufferEntry);
+        Entry bufferEntry = entries().get(currentEntryIndex);
+        entries().remove(currentEntryIndex);
+        entries().add(newEntryIndex, bufferEntry);
+        markDirty();
         return true;
     }
 
+    // Replace an entry of this group with a new version of it read from the journal. Returns the entry it replaced
+    Entry replaceEntry(int entryIndex, Entry entry) throws IndexOutOfBoundsException {
+        Entry replaced = entries().set(entryIndex, entry);
+        markDirty();
+
+        // Entries saved before they had ids take theirs from their name, which may have changed
+        if(idIndex != null) {
+            idIndex.remove(ByteBuffer.wrap(replaced.getId()));
+            idIndex.put(ByteBuffer.wrap(entry.getId()), entry);
+        }
+
+        return replaced;
+    }
+
     // List all the entries in this group
-    public void listEntries(byte[] key) {
+    public void listEntries(CipherSession session) {
         // REVIEW: need this if? or will work same if removed? better coding practice to leave it anyways?
-        if(!entries.isEmpty()) {
+        if(!entries().isEmpty()) {
             System.out.println();
 
-            for (int index = 0; index < entries.size(); index++) {
-                System.out.println((index + 1) + ". " + entries.get(index).getName(key));
+            for (int index = 0; index < entries().size(); index++) {
+                System.out.println((index + 1) + ". " + entries().get(index).getName(session));
             }
 
             System.out.println();
         }
     }
 
+    @JsonIgnore
+    // Get the encrypted names of the entries, for decrypting them ahead of use
+    List<byte[]> getEncryptedEntryNames() {
+        List<byte[]> names = new ArrayList<>(size());
+
+        for(Entry entry : entries()) {
+            names.add(entry.getEncryptedName());
+        }
+
+        return names;
+    }
+
+    // Find the entry with the given name, ignoring case. Returns the index of the first one, or INVALID_INDEX if there
+    // is none. Takes a single lookup by the tag of the name once the group is indexed
+    public int findEntry(String name, CipherSession session) {
+        Integer entryIndex = nameIndex(session).get(ByteBuffer.wrap(BlindIndex.tag(name, session)));
+        return (entryIndex == null) ? INVALID_INDEX : entryIndex;
+    }
+
+    // Get the entry with the given id, or null if there is none. Takes a single lookup once the group is indexed
+    Entry getEntryById(byte[] id) {
+        if(idIndex == null) {
+            ArrayList<Entry> entries = entries();
+            HashMap<ByteBuffer, Entry> index = HashMap.newHashMap(entries.size());
+
+            for(Entry entry : entries) {
+                index.putIfAbsent(ByteBuffer.wrap(entry.getId()), entry);
+            }
+
+            idIndex = index;
+        }
+
+        return idIndex.get(ByteBuffer.wrap(id));
+    }
+
+    // Find the entry with the given id. Returns its index, or INVALID_INDEX if there is none. The entry is found with a
+    // single lookup once the group is indexed, but its index is found by comparing it against the entries in order, so
+    // this takes time linear in the size of the group. The index by id keeps entries rather than indexes, since every
+    // index after an added, removed or moved entry would have to be updated
+    public int findEntryById(byte[] id) {
+        Entry entry = getEntryById(id);
+        return (entry == null) ? INVALID_INDEX : entries().indexOf(entry);
+    }
+
+    // Get the index of the entries by the tags of their names, building it if there is none. Entries from before names
+    // were tagged have their names decrypted and tagged here, which is saved when the vault is closed at the latest
+    private HashMap<ByteBuffer, Integer> nameIndex(CipherSession session) {
+        if(nameIndex == null) {
+            ArrayList<Entry> entries = entries();
+            HashMap<ByteBuffer, Integer> index = HashMap.newHashMap(entries.size());
+
+            for(int entryIndex = 0; entryIndex < entries.size(); entryIndex++) {
+                Entry entry = entries.get(entryIndex);
+
+                if(entry.getNameTag() == null && entry.getEncryptedName() != null) {
+                    entry.setNameTag(BlindIndex.tag(entry.getName(session), session));
+                    dirty = true;
+                    backfilled = true;
+                }
+
+                if(entry.getNameTag() != null) {
+                    index.putIfAbsent(ByteBuffer.wrap(entry.getNameTag()), entryIndex);
+                }
+            }
+
+            nameIndex = index;
+        }
+
+        return nameIndex;
+    }
+
+    // Find the entries holding the given text in one of their searchable fields. Returns their indexes in order. Only
+    // the entries whose search filter may hold the text are decrypted. Entries from before entries were indexed for
+    // search are indexed here first, which is saved when the vault is closed at the latest
+    public List<Integer> search(SearchIndex.Query query, CipherSession session) {
+        ArrayList<Entry> entries = entries();
+
+        if(entries.stream().anyMatch(entry -> entry.getSearchFilter() == null)) {
+            entries.parallelStream().filter(entry -> entry.getSearchFilter() == null).forEach(entry -> entry.index(session));
+            dirty = true;
+            backfilled = true;
+        }
+
+        List<Integer> found = new ArrayList<>();
+
+        for(int entryIndex = 0; entryIndex < entries.size(); entryIndex++) {
+            if(entries.get(entryIndex).matches(query, session)) {
+                found.add(entryIndex);
+            }
+        }
+
+        return found;
+    }
+
+    // Add the logins of this group that match a host with the given tags (see DomainIndex) to a list of matches.
+    // Logins from before logins were indexed by domain have their URLs decrypted and tagged here, which is saved when
+    // the vault is closed at the latest
+    void matchHost(byte[] hostTags, int groupIndex, List<DomainIndex.Match> matches, CipherSession session) {
+        if(domainIndex == null) {
+            ArrayList<Entry> entries = entries();
+            DomainIndex index = new DomainIndex();
+
+            for(int entryIndex = 0; entryIndex < entries.size(); entryIndex++) {
+                if(entries.get(entryIndex) instanceof Login login) {
+                    if(login.getHostTags() == null) {
+                        login.indexHost(session);
+                        dirty = true;
+                        backfilled = true;
+                    }
+
+                    index.add(login.getHostTags(), entryIndex);
+                }
+            }
+
+            domainIndex = index;
+        }
+
+        domainIndex.match(hostTags, groupIndex, matches);
+    }
+
+    // Drop the name tags, search filters and host tags of the group and its entries, after the data key changed. They
+    // are built again with the new key when they are next needed
+    void clearIndexes() {
+        nameTag = null;
+        nameIndex = null;
+        domainIndex = null;
+
+        for(Entry entry : entries()) {
+            entry.setNameTag(null);
+            entry.setSearchFilter(null);
+
+            if(entry instanceof Login login) {
+                login.setHostTags(null);
+            }
+        }
+
+        dirty = true;
+    }
+
     // Check if a given entry index is valid for this group
-    public int isValidEntryIndex(String entryWord, byte[] key) {
+    public int isValidEntryIndex(String entryWord, CipherSession session) {
         int entryIndex = -1; // REVIEW: make INVALID INDEX accessible from somewhere across this package
 
         // Check if the user entered the entry number
@@ -167,12 +564,7 @@ public class Group {
             }
         } catch (NumberFormatException e) {
             // Check if the user entered the entry name
-            for(int index = 0; index < size(); index++) {
-                if(entryWord.equals(getEntry(index).getName(key).toLowerCase())) {
-                    entryIndex = index;
-                    break;
-                }
-            }
+            entryIndex = findEntry(entryWord, session);
         }
 
         return entryIndex;
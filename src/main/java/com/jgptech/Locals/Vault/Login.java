@@ -8,21 +8,28 @@
 
 package com.jgptech.Locals.Vault;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.jgptech.Locals.Encryption.CipherSession;
 import com.jgptech.Locals.Encryption.VaultEncryptor;
 
 import java.util.Base64;
 
 @JsonTypeName("login")
-public class Login extends Entry {
+public final class Login extends Entry {
     // Username for the account login
-    private String username;
+    private byte[] username;
 
     // Password for the account login
-    private String password;
+    private byte[] password;
 
     // URL or website for this entry
-    private String url;
+    private byte[] url;
+
+    @JsonIgnore
+    // Tags of the domains of the URL's host (see DomainIndex), empty if the URL has no host, or null for a login from
+    // before logins were indexed by domain until its group is
+    private byte[] hostTags;
 
     // REVIEW: should fill any variable that has the password in it with garbage data or 0's after they are done being used to clear them from memory
 
@@ -30,52 +37,102 @@ public class Login extends Entry {
     Login() {}
 
     // Constructor for a new entry
-    public Login(String name, String username, String password, String url, String notes, byte[] key) {
-        this.name = VaultEncryptor.encrypt(name, key);
-        this.username = VaultEncryptor.encrypt(username, key);
-        this.password = VaultEncryptor.encrypt(password, key);
-        this.url = VaultEncryptor.encrypt(url, key);
-        this.notes = VaultEncryptor.encrypt(notes, key);
+    public Login(String name, String username, String password, String url, String notes, CipherSession session) {
+        this.name = VaultEncryptor.encryptField(name, session);
+        this.username = VaultEncryptor.encryptField(username, session);
+        this.password = VaultEncryptor.encryptField(password, session);
+        this.url = VaultEncryptor.encryptField(url, session);
+        this.notes = VaultEncryptor.encryptField(notes, session);
+        index(session);
     }
 
     // Get the username for this entry
-    public String getUsername(byte[] key) {
-        return VaultEncryptor.decrypt(username, key);
+    public String getUsername(CipherSession session) {
+        return VaultEncryptor.decryptField(username, session);
     }
 
     // Set the username for this entry
-    public void setUsername(String username, byte[] key) {
-        this.username = VaultEncryptor.encrypt(username, key);
+    public void setUsername(String username, CipherSession session) {
+        this.username = VaultEncryptor.encryptField(username, session);
+        updateSearchFilter(session);
     }
 
     // Get the password for this login
-    public String getPassword(byte[] key) {
-        return VaultEncryptor.decrypt(password, key);
+    public String getPassword(CipherSession session) {
+        return VaultEncryptor.decryptField(password, session);
     }
 
     // Set the password for this entry
-    public void setPassword(String password, byte[] key) {
-        this.password = VaultEncryptor.encrypt(password, key);
+    public void setPassword(String password, CipherSession session) {
+        this.password = VaultEncryptor.encryptField(password, session);
     }
 
     // Get the URL for this entry
-    public String getUrl(byte[] key) {
-        return VaultEncryptor.decrypt(url, key);
+    public String getUrl(CipherSession session) {
+        return VaultEncryptor.decryptField(url, session);
     }
 
     // Set the URL for this entry
-    public void setUrl(String url, byte[] key) {
-        this.url = VaultEncryptor.encrypt(url, key);
+    public void setUrl(String url, CipherSession session) {
+        this.url = VaultEncryptor.encryptField(url, session);
+        this.hostTags = DomainIndex.hostTags(url, session);
+        updateSearchFilter(session);
+    }
+
+    @JsonIgnore
+    // Get the tags of the domains of the URL's host, or null if the login was not indexed by domain yet
+    byte[] getHostTags() {
+        return hostTags;
+    }
+
+    @JsonIgnore
+    // Set the tags of the domains of the URL's host, read from the vault file or computed when the group is indexed
+    void setHostTags(byte[] hostTags) {
+        this.hostTags = hostTags;
+    }
+
+    // Tag the domains of the URL's host again
+    void indexHost(CipherSession session) {
+        hostTags = DomainIndex.hostTags((url == null) ? null : getUrl(session), session);
+    }
+
+    @Override
+    // Tag the name, build the search filter and tag the domains of the URL's host
+    void index(CipherSession session) {
+        super.index(session);
+        indexHost(session);
+    }
+
+    @Override
+    // Get the encrypted fields of this entry in the order name, notes, username, password, url
+    byte[][] getEncryptedFields() {
+        return new byte[][] {name, notes, username, password, url};
+    }
+
+    @Override
+    // Replace the encrypted fields of this entry in the same order as getEncryptedFields()
+    void setEncryptedFields(byte[][] fields) {
+        name = fields[0];
+        notes = fields[1];
+        username = fields[2];
+        password = fields[3];
+        url = fields[4];
+    }
+
+    @Override
+    // Get the encrypted fields a search looks through, in the order name, notes, username, url
+    byte[][] getSearchableFields() {
+        return new byte[][] {name, notes, username, url};
     }
 
     // Print the relevant details for this entry
-    public void print(byte[] key) {
+    public void print(CipherSession session) {
         System.out.println();
-        System.out.println("Name: " + getName(key));
-        System.out.println("Username: " + getUsername(key));
-        System.out.println("Password: " + getPassword(key)); // REVIEW: add way to print without the password showing, like '******'
-        System.out.println("URL: " + getUrl(key));
-        System.out.println("Notes: " + getNotes(key));
+        System.out.println("Name: " + getName(session));
+        System.out.println("Username: " + getUsername(session));
+        System.out.println("Password: " + getPassword(session)); // REVIEW: add way to print without the password showing, like '******'
+        System.out.println("URL: " + getUrl(session));
+        System.out.println("Notes: " + getNotes(session));
         System.out.println();
     }
 }
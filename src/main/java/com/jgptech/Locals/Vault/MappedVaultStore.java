@@ -0,0 +1,49 @@
+/*
+ * NAME: MappedVaultStore
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Store for a vault file in the binary format that is mapped instead of read. Only the header and group
+ *              names are read when the store is opened, and each group reads its entries from the mapping the first
+ *              time one is needed, so opening takes the same time and little heap however large the vault is
+ */
+
+package com.jgptech.Locals.Vault;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+final class MappedVaultStore extends FileVaultStore {
+    // Whether a file can be replaced or deleted while it is mapped. Windows refuses to, so files are read in full there
+    static final boolean CAN_REPLACE_MAPPED_FILES = !System.getProperty("os.name", "").startsWith("Windows");
+
+
+    // Constructor for the vault file at the given path
+    MappedVaultStore(String location, Path path) {
+        super(location, path, VaultFormat.BINARY);
+    }
+
+    @Override
+    public void open() throws IOException {
+        recoverHeader();
+
+        // Files over 2 GiB cannot be mapped in one piece
+        if(!CAN_REPLACE_MAPPED_FILES || Files.size(getPath()) > Integer.MAX_VALUE) {
+            super.open();
+            return;
+        }
+
+        MappedByteBuffer file;
+
+        // The mapping stays valid after the channel is closed, and after the file is replaced since commits rename
+        try(FileChannel channel = FileChannel.open(getPath(), StandardOpenOption.READ)) {
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        opened(BinaryVaultCodec.map(file));
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * NAME: MemoryVaultStore
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Store that keeps a vault in memory for as long as the program runs, encoded in the binary format the
+ *              same way a vault file is. Stores with the same name share the vault, so a vault committed by one can be
+ *              opened by the next. Meant for tests and for benchmarking the other stores without the disk
+ */
+
+package com.jgptech.Locals.Vault;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+final class MemoryVaultStore implements VaultStore {
+    // Committed vault and change log of every memory store, by name
+    private static final Map<String, Image> IMAGES = new ConcurrentHashMap<>();
+
+    // Committed vault and change log kept under one name
+    private static final class Image {
+        // Committed vault in the binary format, or null if nothing was committed yet
+        private byte[] vault;
+
+        // Changes appended since the last commit
+        private final ByteArrayOutputStream mutations = new ByteArrayOutputStream();
+    }
+
+    // Location the store was opened with
+    private final String location;
+
+    // Vault and change log of this store
+    private final Image image;
+
+    // Vault read by open() without its groups, and the groups not handed out yet
+    private Vault vault;
+    private List<Group> groups;
+
+
+    // Constructor for the memory store with the given name
+    MemoryVaultStore(String location, String name) {
+        this.location = location;
+        this.image = IMAGES.computeIfAbsent(name, key -> new Image());
+    }
+
+    @Override
+    public String getLocation() {
+        return location;
+    }
+
+    @Override
+    public VaultFormat getFormat() {
+        return VaultFormat.BINARY;
+    }
+
+    @Override
+    public boolean exists() {
+        synchronized(image) {
+            return image.vault != null;
+        }
+    }
+
+    @Override
+    public void open() throws IOException {
+        byte[] committed;
+
+        synchronized(image) {
+            committed = image.vault;
+        }
+
+        if(committed == null) {
+            throw new IOException("No vault in memory at " + location);
+        }
+
+        // A commit replaces the array rather than changing it, so groups can keep reading their entries from this one
+        Vault read = BinaryVaultCodec.map(ByteBuffer.wrap(committed));
+        groups = read.getGroups();
+        read.setGroups(new ArrayList<>());
+        vault = read;
+    }
+
+    @Override
+    public Vault readHeader() throws IOException {
+        if(vault == null) {
+            throw new IOException("Vault store is not open");
+        }
+
+        return vault;
+    }
+
+    @Override
+    public int getGroupCount() {
+        return (groups == null) ? 0 : groups.size();
+    }
+
+    @Override
+    public Group readGroup(int groupIndex) throws IOException {
+        if(groups == null) {
+            throw new IOException("Vault store is not open");
+        }
+
+        // Each group is handed out once, so a group later removed from the vault is not kept here
+        return groups.set(groupIndex, null);
+    }
+
+    @Override
+    public ByteBuffer readMutations() {
+        synchronized(image) {
+            return (image.mutations.size() == 0) ? null : ByteBuffer.wrap(image.mutations.toByteArray());
+        }
+    }
+
+    @Override
+    public void appendMutations(ByteBuffer[] records, boolean force) {
+        synchronized(image) {
+            for(ByteBuffer record : records) {
+                byte[] bytes = new byte[record.remaining()];
+                record.get(bytes);
+                image.mutations.writeBytes(bytes);
+            }
+        }
+    }
+
+    @Override
+    public void truncateMutations(long length) {
+        synchronized(image) {
+            byte[] kept = image.mutations.toByteArray();
+            image.mutations.reset();
+            image.mutations.write(kept, 0, (int) Math.min(length, kept.length));
+        }
+    }
+
+    @Override
+    public void deleteMutations() {
+        synchronized(image) {
+            image.mutations.reset();
+        }
+    }
+
+    @Override
+    public void commit(Vault vault, boolean force) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryVaultCodec.write(vault, out);
+
+        synchronized(image) {
+            image.vault = out.toByteArray();
+        }
+    }
+
+    @Override
+    public boolean commitHeader(Vault vault) throws IOException {
+        byte[] header = BinaryVaultCodec.encodeHeader(vault);
+
+        synchronized(image) {
+            if(image.vault == null || BinaryVaultCodec.readHeaderLength(ByteBuffer.wrap(image.vault)) != header.length) {
+                return false;
+            }
+
+            // Groups opened earlier may still be reading from the committed array, so it is copied rather than changed
+            byte[] committed = image.vault.clone();
+            System.arraycopy(header, 0, committed, BinaryVaultCodec.HEADER_OFFSET, header.length);
+            image.vault = committed;
+        }
+
+        return true;
+    }
+
+    @Override
+    public void sync() {
+        // Nothing here is on disk
+    }
+
+    @Override
+    public void close() {
+        // Nothing is held open
+    }
+}
@@ -10,100 +10,120 @@ package com.jgptech.Locals.Vault;
 
 import com.fasterxml.jackson.annotation.JsonTypeName;
 
+import com.jgptech.Locals.Encryption.CipherSession;
 import com.jgptech.Locals.Encryption.VaultEncryptor;
 
 @JsonTypeName("paymentCard")
-public class PaymentCard extends Entry {
+public final class PaymentCard extends Entry {
     // Name on the card
-    private String cardholderName;
+    private byte[] cardholderName;
 
     // The card number
-    private String cardNumber;
+    private byte[] cardNumber;
 
     // The brand of the card
-    private String brand; // TODO: add enum for brands
+    private byte[] brand; // TODO: add enum for brands
 
     // The expiration date of the card
-    private String expireDate;
+    private byte[] expireDate;
 
     // The security code of the card
-    private String securityCode;
+    private byte[] securityCode;
 
 
     // Empty constructor for Jackson
     PaymentCard() {}
 
     // Constructor for a new payment card
-    public PaymentCard(String name, String cardholderName, String cardNumber, String brand, String expireDate, String securityCode, String notes, byte[] key) {
-        this.name = VaultEncryptor.encrypt(name, key);
-        this.cardholderName = VaultEncryptor.encrypt(cardholderName, key);
-        this.cardNumber = VaultEncryptor.encrypt( cardNumber, key);
-        this.brand = VaultEncryptor.encrypt(brand, key);
-        this.expireDate = VaultEncryptor.encrypt(expireDate, key);
-        this.securityCode = VaultEncryptor.encrypt(securityCode, key);
-        this.notes = VaultEncryptor.encrypt(notes, key);
+    public PaymentCard(String name, String cardholderName, String cardNumber, String brand, String expireDate, String securityCode, String notes, CipherSession session) {
+        this.name = VaultEncryptor.encryptField(name, session);
+        this.cardholderName = VaultEncryptor.encryptField(cardholderName, session);
+        this.cardNumber = VaultEncryptor.encryptField( cardNumber, session);
+        this.brand = VaultEncryptor.encryptField(brand, session);
+        this.expireDate = VaultEncryptor.encryptField(expireDate, session);
+        this.securityCode = VaultEncryptor.encryptField(securityCode, session);
+        this.notes = VaultEncryptor.encryptField(notes, session);
+        index(session);
     }
 
     // Get the cardholder name
-    public String getCardholderName(byte[] key) {
-        return VaultEncryptor.decrypt(cardholderName, key);
+    public String getCardholderName(CipherSession session) {
+        return VaultEncryptor.decryptField(cardholderName, session);
     }
 
     // Set the cardholder name
-    public void setCardholderName(String cardholderName, byte[] key) {
-        this.cardholderName = VaultEncryptor.encrypt(cardholderName, key);
+    public void setCardholderName(String cardholderName, CipherSession session) {
+        this.cardholderName = VaultEncryptor.encryptField(cardholderName, session);
     }
 
     // Get the card number
-    public String getCardNumber(byte[] key) {
-        return VaultEncryptor.decrypt(cardNumber, key);
+    public String getCardNumber(CipherSession session) {
+        return VaultEncryptor.decryptField(cardNumber, session);
     }
 
     // Set the card number
-    public void setCardNumber(String cardNumber, byte[] key) {
-        this.cardNumber = VaultEncryptor.encrypt(cardNumber, key);
+    public void setCardNumber(String cardNumber, CipherSession session) {
+        this.cardNumber = VaultEncryptor.encryptField(cardNumber, session);
     }
 
     // Get the brand
-    public String getBrand(byte[] key) {
-        return VaultEncryptor.decrypt(brand, key);
+    public String getBrand(CipherSession session) {
+        return VaultEncryptor.decryptField(brand, session);
     }
 
     // Set the brand
-    public void setBrand(String brand, byte[] key) {
-        this.brand = VaultEncryptor.encrypt(brand, key);
+    public void setBrand(String brand, CipherSession session) {
+        this.brand = VaultEncryptor.encryptField(brand, session);
     }
 
     // Get the expiration date
-    public String getExpireDate(byte[] key) {
-        return VaultEncryptor.decrypt(expireDate, key);
+    public String getExpireDate(CipherSession session) {
+        return VaultEncryptor.decryptField(expireDate, session);
     }
 
     // Set the expiration date
-    public void setExpireDate(String expireDate, byte[] key) {
-        this.expireDate = VaultEncryptor.encrypt(expireDate, key);
+    public void setExpireDate(String expireDate, CipherSession session) {
+        this.expireDate = VaultEncryptor.encryptField(expireDate, session);
     }
 
     // Get the security code
-    public String getSecurityCode(byte[] key) {
-        return VaultEncryptor.decrypt(securityCode, key);
+    public String getSecurityCode(CipherSession session) {
+        return VaultEncryptor.decryptField(securityCode, session);
     }
 
     // Set the security code
-    public void setSecurityCode(String securityCode, byte[] key) {
-        this.securityCode = VaultEncryptor.encrypt(securityCode, key);
+    public void setSecurityCode(String securityCode, CipherSession session) {
+        this.securityCode = VaultEncryptor.encryptField(securityCode, session);
+    }
+
+    @Override
+    // Get the encrypted fields of this entry in the order name, notes, cardholderName, cardNumber, brand, expireDate, securityCode
+    byte[][] getEncryptedFields() {
+        return new byte[][] {name, notes, cardholderName, cardNumber, brand, expireDate, securityCode};
+    }
+
+    @Override
+    // Replace the encrypted fields of this entry in the same order as getEncryptedFields()
+    void setEncryptedFields(byte[][] fields) {
+        name = fields[0];
+        notes = fields[1];
+        cardholderName = fields[2];
+        cardNumber = fields[3];
+        brand = fields[4];
+        expireDate = fields[5];
+        securityCode = fields[6];
     }
 
     // Print the relevant details for this payment card
-    public void print(byte[] key) {
+    public void print(CipherSession session) {
         System.out.println();
-        System.out.println("Name: " + getName(key));
-        System.out.println("Cardholder Name: " + getCardholderName(key));
-        System.out.println("Card Number: " + getCardNumber(key)); // REVIEW: add way to display without showing card number, like '**** **** **** ****'
-        System.out.println("Brand: " + getBrand(key));
-        System.out.println("Expiration Date: " + getExpireDate(key));
-        System.out.println("Security Code: " + getSecurityCode(key));
-        System.out.println("Notes: " + getNotes(key));
+        System.out.println("Name: " + getName(session));
+        System.out.println("Cardholder Name: " + getCardholderName(session));
+        System.out.println("Card Number: " + getCardNumber(session)); // REVIEW: add way to display without showing card number, like '**** **** **** ****'
+        System.out.println("Brand: " + getBrand(session));
+        System.out.println("Expiration Date: " + getExpireDate(session));
+        System.out.println("Security Code: " + getSecurityCode(session));
+        System.out.println("Notes: " + getNotes(session));
         System.out.println();
     }
 }
@@ -10,70 +10,95 @@ package com.jgptech.Locals.Vault;
 
 import com.fasterxml.jackson.annotation.JsonTypeName;
 
+import com.jgptech.Locals.Encryption.CipherSession;
 import com.jgptech.Locals.Encryption.VaultEncryptor;
 
 @JsonTypeName("sshKey")
-public class SSHKey extends Entry {
+public final class SSHKey extends Entry {
     // The private SSH key
-    private String privateKey;
+    private byte[] privateKey;
 
     // The public SSH key
-    private String publicKey;
+    private byte[] publicKey;
 
     // The fingerprint of the key
-    private String fingerprint;
+    private byte[] fingerprint;
 
 
     // Empty constructor for Jackson
     SSHKey() {}
 
     // Constructor for a new SSH Key
-    public SSHKey(String name, String privateKey, String publicKey, String fingerprint, String notes, byte[] key) {
-        this.name = VaultEncryptor.encrypt(name, key);
-        this.privateKey = VaultEncryptor.encrypt(privateKey, key);
-        this.publicKey = VaultEncryptor.encrypt(publicKey, key);
-        this.fingerprint = VaultEncryptor.encrypt(fingerprint, key);
-        this.notes = VaultEncryptor.encrypt(notes, key);
+    public SSHKey(String name, String privateKey, String publicKey, String fingerprint, String notes, CipherSession session) {
+        this.name = VaultEncryptor.encryptField(name, session);
+        this.privateKey = VaultEncryptor.encryptField(privateKey, session);
+        this.publicKey = VaultEncryptor.encryptField(publicKey, session);
+        this.fingerprint = VaultEncryptor.encryptField(fingerprint, session);
+        this.notes = VaultEncryptor.encryptField(notes, session);
+        index(session);
     }
 
     // Get the private key
-    public String getPrivateKey(byte[] key) {
-        return VaultEncryptor.decrypt(privateKey, key);
+    public String getPrivateKey(CipherSession session) {
+        return VaultEncryptor.decryptField(privateKey, session);
     }
 
     // Set the private key
-    public void setPrivateKey(String privateKey, byte[] key) {
-        this.privateKey = VaultEncryptor.encrypt(privateKey, key);
+    public void setPrivateKey(String privateKey, CipherSession session) {
+        this.privateKey = VaultEncryptor.encryptField(privateKey, session);
     }
 
     // Get the public key
-    public String getPublicKey(byte[] key) {
-        return VaultEncryptor.decrypt(publicKey, key);
+    public String getPublicKey(CipherSession session) {
+        return VaultEncryptor.decryptField(publicKey, session);
     }
 
     // Set the public key
-    public void setPublicKey(String publicKey, byte[] key) {
-        this.publicKey = VaultEncryptor.encrypt(publicKey, key);
+    public void setPublicKey(String publicKey, CipherSession session) {
+        this.publicKey = VaultEncryptor.encryptField(publicKey, session);
     }
 
     // Get the fingerprint
-    public String getFingerprint(byte[] key) {
-        return VaultEncryptor.decrypt(fingerprint, key);
+    public String getFingerprint(CipherSession session) {
+        return VaultEncryptor.decryptField(fingerprint, session);
     }
 
     // Set the fingerprint
-    public void setFingerprint(String fingerprint, byte[] key) {
-        this.fingerprint = VaultEncryptor.encrypt(fingerprint, key);
+    public void setFingerprint(String fingerprint, CipherSession session) {
+        this.fingerprint = VaultEncryptor.encryptField(fingerprint, session);
+        updateSearchFilter(session);
+    }
+
+    @Override
+    // Get the encrypted fields of this entry in the order name, notes, privateKey, publicKey, fingerprint
+    byte[][] getEncryptedFields() {
+        return new byte[][] {name, notes, privateKey, publicKey, fingerprint};
+    }
+
+    @Override
+    // Replace the encrypted fields of this entry in the same order as getEncryptedFields()
+    void setEncryptedFields(byte[][] fields) {
+        name = fields[0];
+        notes = fields[1];
+        privateKey = fields[2];
+        publicKey = fields[3];
+        fingerprint = fields[4];
+    }
+
+    @Override
+    // Get the encrypted fields a search looks through, in the order name, notes, fingerprint
+    byte[][] getSearchableFields() {
+        return new byte[][] {name, notes, fingerprint};
     }
 
     // Print the relevant details for ssh key
-    public void print(byte[] key) {
+    public void print(CipherSession session) {
         System.out.println();
-        System.out.println("Name: " + getName(key));
-        System.out.println("Private Key: " + getPrivateKey(key)); // REVIEW: add way to hide private key
-        System.out.println("Public Key: " + getPublicKey(key));
-        System.out.println("Fingerprint: " + getFingerprint(key));
-        System.out.println("Notes: " + getNotes(key));
+        System.out.println("Name: " + getName(session));
+        System.out.println("Private Key: " + getPrivateKey(session)); // REVIEW: add way to hide private key
+        System.out.println("Public Key: " + getPublicKey(session));
+        System.out.println("Fingerprint: " + getFingerprint(session));
+        System.out.println("Notes: " + getNotes(session));
         System.out.println();
     }
 }
@@ -10,10 +10,11 @@ package com.jgptech.Locals.Vault;
 
 import com.fasterxml.jackson.annotation.JsonTypeName;
 
+import com.jgptech.Locals.Encryption.CipherSession;
 import com.jgptech.Locals.Encryption.VaultEncryptor;
 
 @JsonTypeName("secureNote")
-public class SecureNote extends Entry {
+public final class SecureNote extends Entry {
     // The SecureNote class is almost empty as it only contains what the Entry class has: a name, salt, and note.
     // It is still given its own class and file since Entry is meant to be an abstract class that cannot be called
     // directly and for better organization of our data.
@@ -21,16 +22,30 @@ public class SecureNote extends Entry {
     // Empty constructor for Jackson
     SecureNote() {}
 
-    public SecureNote(String name, String notes, byte[] key) {
-        this.name = VaultEncryptor.encrypt(name, key);
-        this.notes = VaultEncryptor.encrypt(notes, key);
+    public SecureNote(String name, String notes, CipherSession session) {
+        this.name = VaultEncryptor.encryptField(name, session);
+        this.notes = VaultEncryptor.encryptField(notes, session);
+        index(session);
+    }
+
+    @Override
+    // Get the encrypted fields of this entry in the order name, notes
+    byte[][] getEncryptedFields() {
+        return new byte[][] {name, notes};
+    }
+
+    @Override
+    // Replace the encrypted fields of this entry in the same order as getEncryptedFields()
+    void setEncryptedFields(byte[][] fields) {
+        name = fields[0];
+        notes = fields[1];
     }
 
     // Print the relevant details for this secure note
-    public void print(byte[] key) {
+    public void print(CipherSession session) {
         System.out.println();
-        System.out.println("Name: " + getName(key));
-        System.out.println("Notes: " + getNotes(key));
+        System.out.println("Name: " + getName(session));
+        System.out.println("Notes: " + getNotes(session));
         System.out.println();
     }
 }
@@ -8,84 +8,196 @@
 
 package com.jgptech.Locals.Vault;
 
-import com.fasterxml.jackson.databind.jsontype.NamedType;
+import com.jgptech.Locals.Encryption.BlindIndex;
+import com.jgptech.Locals.Encryption.CipherSession;
+import com.jgptech.Locals.Encryption.FieldTransform;
+import com.jgptech.Locals.Encryption.HashingAlgorithm;
+import com.jgptech.Locals.Encryption.KdfParameters;
+import com.jgptech.Locals.Encryption.KeyDerivation;
+import com.jgptech.Locals.Encryption.KeyHasher;
+import com.jgptech.Locals.Encryption.SearchIndex;
+import com.jgptech.Locals.Encryption.VaultEncryptor;
 
 import java.awt.*;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.nio.file.*;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 import javax.crypto.*;
-import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.exc.StreamReadException;
-import com.fasterxml.jackson.databind.DatabindException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 public class Vault {
     @JsonIgnore
-    // Path object of the vault
-    private Path path = null;
+    // Store the vault is kept in
+    private VaultStore store = null;
+
+    // Hashing algorithm used for this vault. Vaults from before it was stored leave it out and use KdfParameters.DEFAULT
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private HashingAlgorithm hashingAlgorithm;
+
+    // Memory (KB), iterations and lanes the hashing algorithm is run with for this vault
+    private int kdfMemory;
+    private int kdfIterations;
+    private int kdfParallelism;
 
-//    // Hashing algorithm used for this vault
-//    private HashingAlgorithm hashingAlgorithm;
-//
 //    // Encryption algorithm used for this vault
 //    private EncryptionAlgorithm encryptionAlgorithm;
 
     // The salt used with the master password to derive the secret key for encryption/decryption in this vault
     private String saltEnc;
 
-    // The salt used with the master password to output a hash used for authentication purposes
+    // The salt used with the master password to output a hash used for authentication purposes. Only used by
+    // KeyDerivation.DualArgon2 vaults
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     private String saltAuth;
 
+    @JsonProperty
+    // How the master password is turned into the master hash and the key encryption key (value of KeyDerivation)
+    private int keyDerivation = KeyDerivation.DualArgon2.getValue();
+
     // Hash of the master password for this vault
     private String masterHash;
 
+    // Random key the vault data is encrypted with, wrapped with the key derived from the master password and saltEnc
+    private String wrappedKey;
+
+    // Random id given to every write of the vault file, so a journal can tell whether its changes are already in the file
+    private String journalId;
+
+    // Whether long fields are deflated before they are encrypted. Deflated lengths depend on what a field holds, so
+    // vaults that cannot have that show turn it off. Vaults from before it was stored compress
+    private boolean compressFields = true;
+
+    @JsonIgnore
+    // Journal the changes to this vault are saved to, or null until the vault is unlocked
+    private VaultJournal journal;
+
+    @JsonIgnore
+    // Flushes the journal in the background, or null until the vault is unlocked or if it is read-only
+    private WriteBehind writeBehind;
+
+    @JsonIgnore
+    // Whether anything was changed since the vault was opened
+    private boolean changed = false;
+
+    @JsonIgnore
+    // Whether groups saved before names were tagged were tagged since the vault was last written. Like the indexes of
+    // the entries (see Group.isBackfilled()) the tags are not in the journal, so the vault is written when it is closed
+    private boolean backfilled = false;
+
+    @JsonIgnore
+    // Whether the vault was opened read-only, in which case nothing is ever written to disk
+    private boolean readOnly = false;
+
+    @JsonIgnore
+    // When writes of this vault are forced to disk
+    private Durability durability = Durability.getDefault();
+
+    @JsonIgnore
+    // Whether anything was written without being forced to disk, to be forced when the vault is closed
+    private boolean unsynced = false;
+
     // Groups in the vault
     private ArrayList<Group> groups = new ArrayList<>();
 
     @JsonIgnore
-    // The default/general group index
-    private final int GENERAL_GROUP_INDEX = 1;
+    // Index of the first group with each name, by the tag of the name. Built the first time a group is looked up by
+    // name and dropped whenever groups are added, moved, removed or renamed, or null while there is none
+    private HashMap<ByteBuffer, Integer> groupNameIndex;
+
+    @JsonIgnore
+    // Groups by their id. Built the first time a group is looked up by id and then kept up to date as groups are added
+    // and removed, since their ids never change and moving a group does not touch it, or null while there is none
+    private HashMap<ByteBuffer, Group> groupIdIndex;
+
+    @JsonIgnore
+    // Group of every entry, by the id of the entry. Built the first time an entry is looked up by id, which reads the
+    // entries of every group, and then kept up to date as entries are added, moved and removed, or null while there is
+    // none
+    private HashMap<ByteBuffer, Group> entryGroups;
+
+    @JsonIgnore
+    // The default/general group index. The first group is the one the entries of removed groups are moved to
+    private final int GENERAL_GROUP_INDEX = 0;
 
 
     // Constructor for loading an existing vault (Jackson requires an empty constructor)
     Vault() {}
 
     // Constructor for creating a new vault
-    public Vault(String filename, byte[] key, byte[] saltEnc, byte[] saltAuth, byte[] masterHash) {
-        this.path = Paths.get(filename);
-        this.saltEnc = Base64.getEncoder().encodeToString(saltEnc);
-        this.saltAuth = Base64.getEncoder().encodeToString(saltAuth);
-        this.masterHash = Base64.getEncoder().encodeToString(masterHash);
-        groups.add(new Group("General", Color.blue, key));
+    public Vault(String filename, String password) throws IllegalArgumentException {
+        this.store = VaultStores.forLocation(filename, true);
+
+        // Generate the random key the vault data is encrypted with and wrap it with the master password, hashed with the
+        // target parameters for this machine
+        CipherSession session = new CipherSession(KeyHasher.generateKey());
+        wrapKey(password, session, KdfParameters.getTarget());
+
+        groups.add(new Group("General", Color.blue, session));
+        session.close();
     }
 
     @JsonIgnore
     // Get the name of the vault
     public String getName() {
-        return path.toString();
+        return store.getLocation();
     }
 
     @JsonIgnore
-    // Set the name of this vault
-    public void setName(String name) {
-        path = Paths.get(name);
+    // Set the name of this vault, which moves it to the store at that location
+    public void setName(String name) throws IllegalArgumentException {
+        store = VaultStores.forLocation(name, true);
+    }
+
+    @JsonIgnore
+    // Get the store the vault is kept in
+    public VaultStore getStore() {
+        return store;
+    }
+
+    @JsonIgnore
+    // Move the vault to another store from the next write on
+    public void setStore(VaultStore store) {
+        this.store = store;
+    }
+
+    @JsonIgnore
+    // Get the parameters the master password is hashed with for this vault
+    public KdfParameters getKdfParameters() {
+        // Vaults from before the parameters were stored all used the defaults
+        if(hashingAlgorithm == null) {
+            return KdfParameters.DEFAULT;
+        }
+
+        return new KdfParameters(hashingAlgorithm, kdfMemory, kdfIterations, kdfParallelism);
+    }
+
+    @JsonIgnore
+    // Set the parameters the master password is hashed with for this vault
+    private void setKdfParameters(KdfParameters parameters) {
+        hashingAlgorithm = parameters.getAlgorithm();
+        kdfMemory = parameters.getMemory();
+        kdfIterations = parameters.getIterations();
+        kdfParallelism = parameters.getParallelism();
     }
 
-//    // Get the hashing algorithm for this vault
-//    public HashingAlgorithm getHashingAlgorithm() {
-//        return hashingAlgorithm;
-//    }
-//
-//    // Set the hashing algorithm for this vault
-//    public void setHashingAlgorithm(HashingAlgorithm hashingAlgorithm) {
-//        this.hashingAlgorithm = hashingAlgorithm;
-//    }
-//
 //    // Get the encryption algorithm for this vault
 //    public EncryptionAlgorithm getEncryptionAlgorithm() {
 //        return encryptionAlgorithm;
@@ -108,12 +220,12 @@ public class Vault {
 
     // Get the saltAuth for this vault
     public byte[] getSaltAuth() {
-        return Base64.getDecoder().decode(saltAuth);
+        return saltAuth == null ? null : Base64.getDecoder().decode(saltAuth);
     }
 
     // Set the saltAuth for this vault
     public void setSaltAuth(byte[] saltAuth) {
-        this.saltAuth = Base64.getEncoder().encodeToString(saltAuth);
+        this.saltAuth = saltAuth == null ? null : Base64.getEncoder().encodeToString(saltAuth);
     }
 
     // Get the hash of the master password for this vault
@@ -126,6 +238,213 @@ public class Vault {
         this.masterHash = Base64.getEncoder().encodeToString(masterHash);
     }
 
+    @JsonIgnore
+    // Get the way the master password is derived into keys for this vault
+    public KeyDerivation getKeyDerivation() {
+        return KeyDerivation.fromValue(keyDerivation);
+    }
+
+    // Get the wrapped data encryption key for this vault
+    public byte[] getWrappedKey() {
+        return wrappedKey == null ? null : Base64.getDecoder().decode(wrappedKey);
+    }
+
+    // Set the wrapped data encryption key for this vault
+    public void setWrappedKey(byte[] wrappedKey) {
+        this.wrappedKey = Base64.getEncoder().encodeToString(wrappedKey);
+    }
+
+    // Check the password against the master hash and unwrap the data encryption key. Returns null if the password is wrong
+    public CipherSession unlock(String password) {
+        KdfParameters parameters = getKdfParameters();
+        byte[] masterKey = KeyHasher.deriveKey(password, getSaltEnc(), parameters);
+
+        try {
+            if(getKeyDerivation() == KeyDerivation.Argon2HKDF) {
+                // The single Argon2 run is split into the authentication hash and the key encryption key
+                if(!MessageDigest.isEqual(KeyHasher.deriveAuthHash(masterKey), getMasterHash())) {
+                    return null;
+                }
+
+                byte[] kek = KeyHasher.deriveKeyEncryptionKey(masterKey);
+                CipherSession session;
+
+                try {
+                    session = VaultEncryptor.unwrapKey(getWrappedKey(), kek);
+                } finally {
+                    Arrays.fill(kek, (byte) 0);
+                }
+
+                // Bring in the saved changes before anything below writes the vault file
+                replayJournal(session);
+
+                if(upgradeKdfParameters(password, session)) {
+                    commitHeader();
+                }
+
+                return session;
+            }
+
+            // Older vaults run Argon2 a second time against saltAuth for the authentication hash
+            if(!MessageDigest.isEqual(KeyHasher.deriveKey(password, getSaltAuth(), parameters), getMasterHash())) {
+                return null;
+            }
+
+            // Vaults created before the data key was wrapped have their data encrypted directly with the derived key
+            CipherSession session = (wrappedKey == null) ? upgradeToWrappedKey(masterKey) : VaultEncryptor.unwrapKey(getWrappedKey(), masterKey);
+            replayJournal(session);
+
+            // Move the vault over to a single Argon2 run. The output against saltEnc is the new master key, so this needs
+            // no extra Argon2 run
+            setMasterKey(masterKey, session, parameters);
+
+            if(!readOnly) {
+                System.out.println("Upgraded vault to a single Argon2 run per unlock");
+
+                // The data was re-encrypted if it had no wrapped key yet, so the whole vault is written
+                upgradeKdfParameters(password, session);
+                write();
+            }
+
+            return session;
+        } catch(GeneralSecurityException e) {
+            System.out.println("ERROR: could not unwrap the key for this vault: " + e.getMessage());
+            return null;
+        } finally {
+            Arrays.fill(masterKey, (byte) 0);
+        }
+    }
+
+    // Returns true if the session holds the data key of this vault, checked by decrypting the name of the first group
+    public boolean isUnlockedBy(CipherSession session) {
+        if(groups.isEmpty()) {
+            return false;
+        }
+
+        try {
+            VaultEncryptor.decrypt(groups.get(0).getEncryptedName(), session);
+            return true;
+        } catch(GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    // Change the master password by wrapping the data encryption key again and saving the new header. None of the vault
+    // data is re-encrypted or written
+    public boolean changePassword(String password, CipherSession session) {
+        // Hash with the target parameters for this machine, unless the vault already uses stronger ones
+        KdfParameters target = KdfParameters.getTarget();
+        KdfParameters parameters = getKdfParameters().isWeakerThan(target) ? target : getKdfParameters();
+
+        return wrapKey(password, session, parameters) && commitHeader();
+    }
+
+    // Wrap the data encryption key with a key derived from the password with the given parameters
+    private boolean wrapKey(String password, CipherSession session, KdfParameters parameters) {
+        // Use a new salt every time the password changes
+        byte[] newSaltEnc = KeyHasher.generateSalt();
+        byte[] masterKey = KeyHasher.deriveKey(password, newSaltEnc, parameters);
+
+        try {
+            setMasterKey(masterKey, session, parameters);
+        } catch(GeneralSecurityException e) {
+            System.out.println("ERROR: could not wrap the key for this vault: " + e.getMessage());
+            return false;
+        } finally {
+            Arrays.fill(masterKey, (byte) 0);
+        }
+
+        saltEnc = toBase64(newSaltEnc);
+        return true;
+    }
+
+    // Hash the master password again if this vault's parameters are below the target for this machine. Returns true if
+    // the key was wrapped again, which still has to be saved
+    private boolean upgradeKdfParameters(String password, CipherSession session) {
+        KdfParameters target = KdfParameters.getTarget();
+
+        if(readOnly || !getKdfParameters().isWeakerThan(target) || !wrapKey(password, session, target)) {
+            return false;
+        }
+
+        System.out.println("Upgraded key derivation for this vault to " + target);
+        return true;
+    }
+
+    // Split the master key into the master hash and the key that wraps the data encryption key
+    private void setMasterKey(byte[] masterKey, CipherSession session, KdfParameters parameters) throws GeneralSecurityException {
+        byte[] kek = KeyHasher.deriveKeyEncryptionKey(masterKey);
+
+        try {
+            wrappedKey = toBase64(VaultEncryptor.wrapKey(session, kek));
+        } finally {
+            Arrays.fill(kek, (byte) 0);
+        }
+
+        masterHash = toBase64(KeyHasher.deriveAuthHash(masterKey));
+        setKdfParameters(parameters);
+        keyDerivation = KeyDerivation.Argon2HKDF.getValue();
+        saltAuth = null;
+    }
+
+    // Move a vault encrypted directly with the password derived key over to a random data encryption key
+    private CipherSession upgradeToWrappedKey(byte[] key) throws GeneralSecurityException {
+        CipherSession oldSession = new CipherSession(key);
+        CipherSession session = new CipherSession(KeyHasher.generateKey());
+
+        BulkCryptoEngine.Result result = new BulkCryptoEngine().transform(this, FieldTransform.rekey(oldSession, session));
+        oldSession.close();
+
+        // Name tags and search filters are keyed with keys split off of the data key, so every one changes with it
+        for(Group group : groups) {
+            group.clearIndexes();
+        }
+
+        groupNameIndex = null;
+
+        System.out.println("Upgraded vault to a wrapped data key, re-encrypted " + result);
+        return session;
+    }
+
+    // Returns true if long fields are deflated before they are encrypted
+    public boolean isCompressingFields() {
+        return compressFields;
+    }
+
+    // Turn deflating long fields on or off, deflate or inflate the fields already saved to match, and write the vault.
+    // Turning it on also deflates the long fields written before fields were compressed. Returns null if it failed
+    public BulkCryptoEngine.Result compress(boolean compress, CipherSession session) {
+        boolean previous = compressFields;
+        compressFields = compress;
+        session.setCompressFields(compress);
+
+        try {
+            FieldTransform transform = compress ? FieldTransform.compress(session) : FieldTransform.decompress(session);
+            BulkCryptoEngine.Result result = new BulkCryptoEngine().transform(this, transform);
+
+            if(write()) {
+                return result;
+            }
+        } catch(GeneralSecurityException e) {
+            System.out.println("ERROR: could not " + (compress ? "compress" : "decompress") + " the fields of this vault: " + e.getMessage());
+        }
+
+        // Fields read the same either way, so only the setting goes back
+        compressFields = previous;
+        session.setCompressFields(previous);
+        return null;
+    }
+
+    // Get the counts of what this vault holds and how well its fields compress. Returns null if a field cannot be read
+    public VaultStats getStats(CipherSession session) {
+        try {
+            return VaultStats.of(this, session);
+        } catch(GeneralSecurityException e) {
+            System.out.println("ERROR: could not read the fields of this vault: " + e.getMessage());
+            return null;
+        }
+    }
+
     // Get the amount of groups in this vault
     public int size() {
         return groups.size();
@@ -137,69 +456,96 @@ public class Vault {
         return groups.isEmpty();
     }
 
-    // Load data from the vault file
+    // Load data from the vault file, in whichever format it was written
     public static Vault load(String vaultName) {
-        ObjectMapper mapper = new ObjectMapper();
-
-        // Register the Entry subclasses
-        mapper.registerSubtypes(
-                new NamedType(Login.class, "login"),
-                new NamedType(PaymentCard.class, "paymentCard"),
-                new NamedType(SecureNote.class, "secureNote"),
-                new NamedType(SSHKey.class, "sshKey")
-        );
+        return load(vaultName, false);
+    }
 
-        mapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
-        Path vaultPath = Paths.get(vaultName);
+    // Load data from the vault file, in whichever format it was written. If mapped is set a binary vault file is mapped
+    // and the entries of each group are only read once they are needed, so opening a large vault is fast and untouched
+    // groups take no heap. JSON vault files are always read in full. The name may start with the scheme of a store (see
+    // VaultStores)
+    public static Vault load(String vaultName, boolean mapped) {
+        try {
+            return load(VaultStores.forLocation(vaultName, mapped));
+        } catch(IllegalArgumentException e) {
+            System.out.println("Error: invalid vault location: " + e.getMessage());
+            return null;
+        }
+    }
 
+    // Load data from a vault store
+    public static Vault load(VaultStore store) {
         try {
-            return mapper.readValue(vaultPath.toFile(), Vault.class);
+            store.open();
+            Vault vault = store.readHeader();
+            vault.checkKdfParameters();
+            int groupCount = store.getGroupCount();
+
+            for(int groupIndex = 0; groupIndex < groupCount; groupIndex++) {
+                vault.groups.add(store.readGroup(groupIndex));
+            }
+
+            vault.store = store;
+            return vault;
         } catch (StreamReadException e) {
             System.out.println("Error: malformed JSON: " + e.getMessage());
-        } catch (DatabindException e) {
-            System.out.println("Error: JSON formatting incorrect for vault file: " + e.getMessage());
-        } catch (IOException e) {
-            System.out.println("Error: could not read vault file: " + e.getMessage());
+        } catch (IOException | IllegalArgumentException e) {
+            // IllegalArgumentException is thrown for a hashing algorithm this version does not know
+            System.out.println("Error: could not read vault: " + e.getMessage());
         }
 
         return null;
     }
 
-    // Write data to the vault file
-    public boolean write() {
-        ObjectMapper mapper = new ObjectMapper();
+    // Get the id of the vault file the journal belongs to, or null for a vault file from before the journal
+    byte[] getJournalId() {
+        return fromBase64(journalId);
+    }
 
-        // Register the Entry subclasses
-        mapper.registerSubtypes(
-                new NamedType(Login.class, "login"),
-                new NamedType(PaymentCard.class, "paymentCard"),
-                new NamedType(SecureNote.class, "secureNote"),
-                new NamedType(SSHKey.class, "sshKey")
-        );
+    // Check the key derivation parameters read from the vault file, so a damaged file is turned down when it is loaded
+    // instead of failing inside Argon2 when it is unlocked
+    private void checkKdfParameters() throws IOException {
+        try {
+            getKdfParameters();
+        } catch(IllegalArgumentException e) {
+            throw new IOException("invalid key derivation parameters: " + e.getMessage(), e);
+        }
+    }
 
-        mapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+    // Write data to the vault file
+    public boolean write() {
         boolean success = true;
 
         // Check that this vault has enough data to write
-        if(path == null || saltEnc.isEmpty() || saltAuth.isEmpty()) {
+        if(readOnly) {
+            System.out.println("ERROR: vault is opened read-only");
+            success = false;
+        } else if(store == null || saltEnc == null || masterHash == null || wrappedKey == null) {
             System.out.println("ERROR: not enough data to write to vault");
             success = false;
         } else {
-            // REVIEW: not checking if file already exists because if it does, we assume that we are updating an existing file. Correct?
-            // Check if the file path exists
-            if(Files.exists(path)) {
-                // Check if the file path is a directory
-                if(Files.isDirectory(path)) {
-                    System.out.println("Error: vault path is a directory: " + path.toString());
-                    success = false;
-                }
-            }
+            // Try to create the file. It holds every change so far, so it gets a new journal id that makes the current
+            // journal stale
+            String previousJournalId = journalId;
+            journalId = Base64.getEncoder().encodeToString(VaultJournal.newId());
 
-            // Try to create the file
             try {
-                mapper.writerWithDefaultPrettyPrinter().writeValue(path.toFile(), this);
+                store.commit(this, durability.syncsEveryWrite());
+                unsynced |= !durability.syncsEveryWrite();
+
+                if(journal != null) {
+                    journal.reset(fromBase64(journalId));
+                }
+
+                backfilled = false;
+
+                for(Group group : groups) {
+                    group.markBackfillWritten();
+                }
             } catch (IOException e) {
                 System.out.println("Error: could not write data to file: " + e.getMessage());
+                journalId = previousJournalId;
                 success = false;
             }
         }
@@ -207,6 +553,522 @@ public class Vault {
         return success;
     }
 
+    // Save a change to the fields that come before the groups. Where the store can, only the header of the committed
+    // vault is replaced, which leaves the groups and the journal as they are. Otherwise the whole vault is written
+    private boolean commitHeader() {
+        // A vault file from before the journal gets its journal id from a full write
+        if(readOnly || store == null || journalId == null) {
+            return write();
+        }
+
+        try {
+            if(store.commitHeader(this)) {
+                return true;
+            }
+        } catch(IOException e) {
+            System.out.println("Error: could not write the vault header, writing the whole vault: " + e.getMessage());
+        }
+
+        return write();
+    }
+
+    // Apply the changes saved in the journal since the vault file was written, and save later changes to it. Called
+    // once the vault is unlocked, since the journal is encrypted with the vault key
+    public void replayJournal(CipherSession session) {
+        // Fields encrypted with the session from here on follow the setting of this vault
+        session.setCompressFields(compressFields);
+
+        if(journal != null || store == null) {
+            return;
+        }
+
+        // A vault file from before the journal has no id for one to belong to. It gets one when the first change
+        // writes the whole file
+        VaultJournal opened = new VaultJournal(store, journalId == null ? null : fromBase64(journalId), session);
+
+        try {
+            opened.replay(this::applyJournalRecord, !readOnly);
+        } catch(IOException e) {
+            System.out.println("Error: could not read the journal for this vault: " + e.getMessage());
+        }
+
+        journal = opened;
+
+        if(!readOnly) {
+            writeBehind = new WriteBehind(journal, durability);
+        }
+    }
+
+    // Returns true if there are changes to this vault that are not on disk yet
+    public boolean isDirty() {
+        return journal != null && journal.hasPending();
+    }
+
+    // Save the changes to this vault before it is closed. The vault file is only written if this session changed the
+    // vault and the journal is due to be folded into it, or if indexes were added to groups or entries saved before
+    // they had them (which are not in the journal), and anything left to the OS is forced to disk unless the
+    // durability is OS_BUFFERED. Returns false if the changes could not be saved
+    public boolean close() {
+        boolean saved = true;
+
+        if(writeBehind != null) {
+            try {
+                writeBehind.close();
+
+                if((changed && journal.isDue()) || isBackfilled()) {
+                    saved = write();
+                }
+            } catch(IOException e) {
+                System.out.println("Error: could not save changes to the journal, writing the whole vault: " + e.getMessage());
+                saved = write();
+            }
+        }
+
+        if(unsynced && durability.syncsOnClose()) {
+            saved = sync() && saved;
+        }
+
+        try {
+            store.close();
+        } catch(IOException e) {
+            System.out.println("Error: could not close the vault: " + e.getMessage());
+            saved = false;
+        }
+
+        return saved;
+    }
+
+    // Returns true if indexes were added to groups or entries since the vault was last written
+    private boolean isBackfilled() {
+        return backfilled || groups.stream().anyMatch(Group::isBackfilled);
+    }
+
+    // Queue a change for the journal, which is flushed in the background shortly after. The journal is folded into the
+    // vault file right away when it is due. Changes made before the vault is unlocked, changes being replayed, and
+    // changes to a read-only vault are not saved
+    private void record(int operation, VaultJournal.RecordWriter writer) {
+        if(writeBehind == null) {
+            return;
+        }
+
+        changed = true;
+        unsynced |= !durability.syncsEveryWrite();
+
+        // The first change to a vault file from before the journal writes the whole file, which gives it a journal id
+        if(journalId == null) {
+            write();
+            return;
+        }
+
+        try {
+            journal.add(operation, writer);
+        } catch(IOException | GeneralSecurityException e) {
+            System.out.println("Error: could not save the change to the journal, writing the whole vault: " + e.getMessage());
+            write();
+            return;
+        }
+
+        if(journal.isDue()) {
+            write();
+        } else {
+            writeBehind.changed();
+        }
+    }
+
+    // Apply one change read from the journal. Removals, moves and updates carry the ids of their groups and entries
+    // after the indexes, which are used in place of the indexes. Changes saved before they carried ids end after the
+    // indexes (and older versions of the program stop reading there)
+    private void applyJournalRecord(int operation, DataInputStream in) throws IOException {
+        switch(operation) {
+            case VaultJournal.ADD_GROUP -> {
+                int groupIndex = in.readInt();
+                Group group = new Group();
+                readGroupName(group, in);
+
+                // Changes saved before groups had ids end after the name
+                byte[] id = (in.available() > 0) ? BinaryVaultCodec.readRecord(in) : null;
+                group.setId(Group.isId(id) ? id : Group.legacyId(group.getEncryptedName()));
+                groups.add(groupIndex, group);
+                groupAdded(group);
+            }
+            case VaultJournal.REMOVE_GROUP -> {
+                int groupIndex = in.readInt();
+                removeGroup((in.available() > 0) ? readGroupIndex(in) : groupIndex);
+            }
+            case VaultJournal.MOVE_GROUP -> {
+                int currentGroupIndex = in.readInt();
+                int newGroupIndex = in.readInt();
+                moveGroup((in.available() > 0) ? readGroupIndex(in) : currentGroupIndex, newGroupIndex);
+            }
+            case VaultJournal.RENAME_GROUP -> {
+                readGroupName(getGroup(in.readInt()), in);
+                groupNameIndex = null;
+            }
+            case VaultJournal.ADD_ENTRY -> addEntry(in.readInt(), BinaryVaultCodec.readEntry(in));
+            case VaultJournal.REMOVE_ENTRY -> {
+                int groupIndex = in.readInt();
+                int entryIndex = in.readInt();
+
+                if(in.available() > 0) {
+                    groupIndex = readGroupIndex(in);
+                    entryIndex = entryIndexOf(getGroup(groupIndex), BinaryVaultCodec.readRecord(in));
+                }
+
+                removeEntry(groupIndex, entryIndex);
+            }
+            case VaultJournal.MOVE_ENTRY -> {
+                int fromGroupIndex = in.readInt();
+                int toGroupIndex = in.readInt();
+                int entryIndex = in.readInt();
+
+                if(in.available() > 0) {
+                    fromGroupIndex = readGroupIndex(in);
+                    toGroupIndex = readGroupIndex(in);
+                    entryIndex = entryIndexOf(getGroup(fromGroupIndex), BinaryVaultCodec.readRecord(in));
+                }
+
+                moveEntry(fromGroupIndex, toGroupIndex, entryIndex);
+            }
+            case VaultJournal.UPDATE_ENTRY -> {
+                int groupIndex = in.readInt();
+                int entryIndex = in.readInt();
+                Entry entry = BinaryVaultCodec.readEntry(in);
+
+                // The entry holds its own id
+                if(in.available() > 0) {
+                    groupIndex = readGroupIndex(in);
+                    entryIndex = entryIndexOf(getGroup(groupIndex), entry.getId());
+                }
+
+                Group group = getGroup(groupIndex);
+                Entry replaced = group.replaceEntry(entryIndex, entry);
+
+                if(entryGroups != null) {
+                    entryGroups.remove(ByteBuffer.wrap(replaced.getId()));
+                    entryGroups.put(ByteBuffer.wrap(entry.getId()), group);
+                }
+            }
+            default -> throw new IOException("Unknown journal operation: " + operation);
+        }
+    }
+
+    // Read the id of a group from the journal and get the index of the group
+    private int readGroupIndex(DataInputStream in) throws IOException {
+        int groupIndex = findGroupById(BinaryVaultCodec.readRecord(in));
+
+        if(groupIndex < 0) {
+            throw new IOException("Journal refers to a group that is not in the vault");
+        }
+
+        return groupIndex;
+    }
+
+    // Get the index of the entry of a group with an id read from the journal
+    private static int entryIndexOf(Group group, byte[] id) throws IOException {
+        int entryIndex = group.findEntryById(id);
+
+        if(entryIndex < 0) {
+            throw new IOException("Journal refers to an entry that is not in its group");
+        }
+
+        return entryIndex;
+    }
+
+    // Write the name of a group and its tag for the journal
+    private static void writeGroupName(Group group, DataOutputStream out) throws IOException {
+        BinaryVaultCodec.writeRecord(out, group.getEncryptedName());
+        BinaryVaultCodec.writeRecord(out, group.getNameTag());
+    }
+
+    // Read the name of a group and its tag from the journal. Changes saved before names were tagged end after the name
+    private static void readGroupName(Group group, DataInputStream in) throws IOException {
+        group.setEncryptedName(BinaryVaultCodec.readRecord(in));
+        byte[] tag = (in.available() > 0) ? BinaryVaultCodec.readRecord(in) : null;
+        group.setNameTag(BlindIndex.isTag(tag) ? tag : null);
+    }
+
+    // Force the vault file and its directory to disk after writes that were left to the OS
+    private boolean sync() {
+        try {
+            store.sync();
+        } catch(IOException e) {
+            System.out.println("Error: could not force the vault file to disk: " + e.getMessage());
+            return false;
+        }
+
+        unsynced = false;
+        return true;
+    }
+
+    // Convert the vault file to another format. The encrypted data is copied as is, so no password is needed. The
+    // original file is kept next to the vault with a .bak extension. Returns false if the vault could not be converted
+    public static boolean migrate(String vaultName, VaultFormat target) {
+        Vault vault = load(vaultName);
+
+        if(vault == null) {
+            return false;
+        }
+
+        if(vault.getFormat() == target) {
+            System.out.println("Vault is already in the " + target.name().toLowerCase() + " format");
+            return true;
+        }
+
+        Path path = Paths.get(vaultName);
+        Path temp = Paths.get(path + ".tmp");
+        Path backup = Paths.get(path + ".bak");
+        boolean directories = (vault.getFormat() == VaultFormat.DIRECTORY || target == VaultFormat.DIRECTORY);
+
+        try {
+            long sizeBefore = sizeOf(path);
+            Path journalBefore = journalPathFor(path, vault.getFormat());
+
+            // Left over from a conversion that failed
+            deleteTree(temp);
+            VaultStores.forFormat(temp, target).commit(vault, vault.durability.syncsEveryWrite());
+
+            // Read the converted file back and check it holds exactly the same data before replacing the original
+            Vault converted = load(VaultStores.forFormat(temp, target));
+
+            if(converted == null || !Arrays.equals(vault.toBytes(), converted.toBytes())) {
+                System.out.println("ERROR: converted vault does not match the original, left unchanged");
+                deleteTree(temp);
+                return false;
+            }
+
+            if(!directories) {
+                // Keep a copy of the original and swap the converted file in with one rename, so the vault is never missing
+                Files.copy(path, backup, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                // A file and a directory cannot be swapped with one rename, so the original is moved aside first and
+                // put back if the converted vault cannot be moved in
+                deleteTree(backup);
+                Files.move(path, backup);
+
+                try {
+                    Files.move(temp, path);
+                } catch(IOException e) {
+                    Files.move(backup, path);
+                    throw e;
+                }
+
+                // The journal of a vault directory is inside it. Both copies keep the journal, which still belongs to
+                // them since the journal id is copied too
+                Path journalAfter = journalPathFor(path, target);
+                Path backupJournal = journalPathFor(backup, vault.getFormat());
+
+                if(vault.getFormat() != VaultFormat.DIRECTORY && Files.exists(journalBefore)) {
+                    Files.move(journalBefore, backupJournal, StandardCopyOption.REPLACE_EXISTING);
+                }
+
+                if(Files.exists(backupJournal)) {
+                    Files.copy(backupJournal, journalAfter, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+
+            // Converting is a one-off, so it is forced to disk like a vault being closed
+            vault.store = VaultStores.forFormat(path, target);
+            vault.unsynced = true;
+            vault.close();
+
+            System.out.println("Converted vault to the " + target.name().toLowerCase() + " format (" + sizeBefore +
+                    " bytes -> " + sizeOf(path) + " bytes), original kept at " + backup);
+            return true;
+        } catch(IOException e) {
+            System.out.println("Error: could not convert vault file: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Get the path of the journal of a vault kept at a path in the given format
+    private static Path journalPathFor(Path path, VaultFormat format) {
+        return (format == VaultFormat.DIRECTORY) ? DirectoryVaultStore.journalPathFor(path) : FileVaultStore.journalPathFor(path);
+    }
+
+    // Get the size of a vault file, or of every file in a vault directory (bytes)
+    private static long sizeOf(Path path) throws IOException {
+        if(!Files.isDirectory(path)) {
+            return Files.size(path);
+        }
+
+        try(Stream<Path> files = Files.list(path)) {
+            long size = 0;
+
+            for(Path file : (Iterable<Path>) files::iterator) {
+                size += Files.size(file);
+            }
+
+            return size;
+        }
+    }
+
+    // Delete a file, or a vault directory and the files in it, if it exists
+    private static void deleteTree(Path path) throws IOException {
+        if(Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            try(Stream<Path> files = Files.list(path)) {
+                for(Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        Files.deleteIfExists(path);
+    }
+
+    // Encode this vault in the binary format in memory, to compare the data of two vaults
+    private byte[] toBytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryVaultCodec.write(this, out);
+        return out.toByteArray();
+    }
+
+    // Returns true if the vault was opened read-only
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    // Open the vault read-only, so nothing is written to disk. Must be set before the vault is unlocked
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    // Get when writes of this vault are forced to disk
+    public Durability getDurability() {
+        return durability;
+    }
+
+    // Set when writes of this vault are forced to disk. Must be set before the vault is unlocked
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    // Get the format the vault is written in
+    public VaultFormat getFormat() {
+        return store.getFormat();
+    }
+
+    // Write the fields of this vault that come before the groups (for VaultCodec)
+    void writeHeader(JsonGenerator generator) throws IOException {
+        if(hashingAlgorithm != null) {
+            generator.writeStringField("hashingAlgorithm", hashingAlgorithm.name());
+        }
+
+        generator.writeNumberField("kdfMemory", kdfMemory);
+        generator.writeNumberField("kdfIterations", kdfIterations);
+        generator.writeNumberField("kdfParallelism", kdfParallelism);
+        generator.writeStringField("saltEnc", saltEnc);
+
+        if(saltAuth != null) {
+            generator.writeStringField("saltAuth", saltAuth);
+        }
+
+        generator.writeNumberField("keyDerivation", keyDerivation);
+        generator.writeStringField("masterHash", masterHash);
+        generator.writeStringField("wrappedKey", wrappedKey);
+
+        if(journalId != null) {
+            generator.writeStringField("journalId", journalId);
+        }
+
+        // Left out while it has the value vaults from before it was stored have
+        if(!compressFields) {
+            generator.writeBooleanField("compressFields", false);
+        }
+    }
+
+    // Read one of the fields that come before the groups, with the parser on its value. Returns false if the field is
+    // not one of them (for VaultCodec)
+    boolean readHeaderField(String field, JsonParser parser) throws IOException {
+        switch(field) {
+            case "hashingAlgorithm" -> hashingAlgorithm = readHashingAlgorithm(parser);
+            case "kdfMemory" -> kdfMemory = parser.getValueAsInt();
+            case "kdfIterations" -> kdfIterations = parser.getValueAsInt();
+            case "kdfParallelism" -> kdfParallelism = parser.getValueAsInt();
+            case "saltEnc" -> saltEnc = parser.getValueAsString();
+            case "saltAuth" -> saltAuth = parser.getValueAsString();
+            case "keyDerivation" -> keyDerivation = parser.getValueAsInt();
+            case "masterHash" -> masterHash = parser.getValueAsString();
+            case "wrappedKey" -> wrappedKey = parser.getValueAsString();
+            case "journalId" -> journalId = parser.getValueAsString();
+            case "compressFields" -> compressFields = parser.getValueAsBoolean(true);
+            default -> {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Write the fields of this vault that come before the groups in the binary format (for BinaryVaultCodec)
+    void writeHeader(DataOutputStream out) throws IOException {
+        // -1 marks a vault from before the hashing algorithm was stored
+        out.writeByte(hashingAlgorithm == null ? -1 : hashingAlgorithm.getValue());
+        out.writeInt(kdfMemory);
+        out.writeInt(kdfIterations);
+        out.writeInt(kdfParallelism);
+        out.writeByte(keyDerivation);
+
+        BinaryVaultCodec.writeRecord(out, fromBase64(saltEnc));
+        BinaryVaultCodec.writeRecord(out, fromBase64(saltAuth));
+        BinaryVaultCodec.writeRecord(out, fromBase64(masterHash));
+        BinaryVaultCodec.writeRecord(out, fromBase64(wrappedKey));
+        BinaryVaultCodec.writeRecord(out, fromBase64(journalId));
+        out.writeBoolean(compressFields);
+    }
+
+    // Read the fields of this vault that come before the groups in the binary format (for BinaryVaultCodec)
+    void readHeader(DataInputStream in) throws IOException {
+        int algorithm = in.readByte();
+
+        try {
+            hashingAlgorithm = (algorithm == -1) ? null : HashingAlgorithm.fromValue(algorithm);
+        } catch(IllegalArgumentException e) {
+            throw new IOException("Unknown hashing algorithm: " + algorithm);
+        }
+
+        kdfMemory = in.readInt();
+        kdfIterations = in.readInt();
+        kdfParallelism = in.readInt();
+        keyDerivation = in.readUnsignedByte();
+
+        saltEnc = toBase64(BinaryVaultCodec.readRecord(in));
+        saltAuth = toBase64(BinaryVaultCodec.readRecord(in));
+        masterHash = toBase64(BinaryVaultCodec.readRecord(in));
+        wrappedKey = toBase64(BinaryVaultCodec.readRecord(in));
+
+        // Vault files from before the journal end here, and those from before the compression setting after the journal id
+        journalId = (in.available() > 0) ? toBase64(BinaryVaultCodec.readRecord(in)) : null;
+        compressFields = (in.available() <= 0) || in.readBoolean();
+    }
+
+    // Decode a header field held in memory, which may be null
+    private static byte[] fromBase64(String value) {
+        return value == null ? null : Base64.getDecoder().decode(value);
+    }
+
+    // Encode a header field the way it is held in memory, which may be null
+    private static String toBase64(byte[] value) {
+        return value == null ? null : Base64.getEncoder().encodeToString(value);
+    }
+
+    // Read the hashing algorithm by name, or by position like Jackson allowed for enums
+    private static HashingAlgorithm readHashingAlgorithm(JsonParser parser) throws IOException {
+        return switch(parser.currentToken()) {
+            case VALUE_NULL -> null;
+            case VALUE_NUMBER_INT -> {
+                int ordinal = parser.getIntValue();
+
+                if(ordinal < 0 || ordinal >= HashingAlgorithm.values().length) {
+                    throw new IOException("Unknown hashing algorithm: " + ordinal);
+                }
+
+                yield HashingAlgorithm.values()[ordinal];
+            }
+            default -> HashingAlgorithm.valueOf(parser.getValueAsString());
+        };
+    }
+
     /****************************************************************************************************************/
     /***************************************************** GROUP ****************************************************/
     /****************************************************************************************************************/
@@ -222,11 +1084,14 @@ public class Vault {
     // Set the groups array (for Jackson)
     void setGroups(ArrayList<Group> groups) {
         this.groups = groups;
+        groupNameIndex = null;
+        groupIdIndex = null;
+        entryGroups = null;
     }
 
     @JsonIgnore
     public Group getGroup(int groupIndex) throws IndexOutOfBoundsException {
-        if(groupIndex < 0 || groupIndex > groups.size()) {
+        if(groupIndex < 0 || groupIndex >= groups.size()) {
             throw new IndexOutOfBoundsException("Invalid group index: " + groupIndex);
         }
 
@@ -237,67 +1102,103 @@ public class Vault {
     // Add a group to the end of this vault
     public void addGroup(Group group) {
         groups.add(group);
+        groupAdded(group);
+        recordAddGroup(groups.size() - 1);
     }
 
     @JsonIgnore
     // Add a group at a specific index of this vault
-    public void addGroup(int groupIndex, String name, Color color, byte[] key) throws IndexOutOfBoundsException {
+    public void addGroup(int groupIndex, String name, Color color, CipherSession session) throws IndexOutOfBoundsException {
         if(groupIndex < 0 || groupIndex > groups.size()) {
             throw new IndexOutOfBoundsException("Invalid group index: " + groupIndex);
         }
 
-        groups.add(groupIndex, new Group(name, color, key));
+        Group group = new Group(name, color, session);
+        groups.add(groupIndex, group);
+        groupAdded(group);
+        recordAddGroup(groupIndex);
+    }
+
+    // Save a group that was just added to the journal
+    private void recordAddGroup(int groupIndex) {
+        Group group = groups.get(groupIndex);
+
+        record(VaultJournal.ADD_GROUP, out -> {
+            out.writeInt(groupIndex);
+            writeGroupName(group, out);
+            BinaryVaultCodec.writeRecord(out, group.getId());
+        });
+    }
+
+    // Rename a group of this vault
+    public void renameGroup(int groupIndex, String name, CipherSession session) throws IndexOutOfBoundsException {
+        Group group = getGroup(groupIndex);
+        group.setName(name, session);
+        groupNameIndex = null;
+
+        record(VaultJournal.RENAME_GROUP, out -> {
+            out.writeInt(groupIndex);
+            writeGroupName(group, out);
+        });
     }
 
     @JsonIgnore
     // Move a group in the array
     public void moveGroup(int currentGroupIndex, int newGroupIndex) throws IndexOutOfBoundsException {
-        if(currentGroupIndex < 0 || currentGroupIndex > groups.size()) {
+        if(currentGroupIndex < 0 || currentGroupIndex >= groups.size()) {
             throw new IndexOutOfBoundsException("Invalid group index: " + currentGroupIndex);
-        } else if(newGroupIndex < 0 || newGroupIndex > groups.size()) {
+        } else if(newGroupIndex < 0 || newGroupIndex >= groups.size()) {
             throw new IndexOutOfBoundsException("Invalid group index: " + newGroupIndex);
         }
 
-        Group group = groups.get(currentGroupIndex);
-        groups.remove(currentGroupIndex);
+        Group group = groups.remove(currentGroupIndex);
+        groups.add(newGroupIndex, group);
+        groupNameIndex = null;
 
-        if(newGroupIndex == groups.size() - 1) {
-            groups.add(group);
-        } else {
-            groups.add(newGroupIndex, group);
-        }
+        record(VaultJournal.MOVE_GROUP, out -> {
+            out.writeInt(currentGroupIndex);
+            out.writeInt(newGroupIndex);
+            BinaryVaultCodec.writeRecord(out, group.getId());
+        });
     }
 
     public void removeGroup(int groupIndex) throws IndexOutOfBoundsException {
-        if(groupIndex < 0 || groupIndex > groups.size()) {
+        if(groupIndex < 0 || groupIndex >= groups.size()) {
             throw new IndexOutOfBoundsException("Invalid group index: " + groupIndex);
-        } else if(groupIndex == 1) {
+        } else if(groupIndex == GENERAL_GROUP_INDEX) {
             throw new IndexOutOfBoundsException("Cannot remove 'General' group"); // REVIEW: general group should later be made to "All" and contain references to all entries in all groups
         }
 
-        // Take all entries out of this group and place them in the General/Default group
-        for(int entryIndex = 0; entryIndex < groups.get(groupIndex).size(); entryIndex++) {
-            Entry entry = groups.get(groupIndex).getEntry(entryIndex);
+        // Move all entries of this group to the end of the General/Default group in one step, keeping their order,
+        // then drop the group with them
+        Group group = groups.remove(groupIndex);
+        Group general = groups.get(GENERAL_GROUP_INDEX);
+        general.addEntries(group.getEntries());
 
-            // Add entry to the General group
-            groups.get(GENERAL_GROUP_INDEX).addEntry(entry);
+        groupNameIndex = null;
 
-            // Remove the entry from the previous group
-            groups.get(groupIndex).removeEntry(entryIndex);
+        if(groupIdIndex != null) {
+            groupIdIndex.remove(ByteBuffer.wrap(group.getId()));
         }
 
-        // We can now safely remove the group with no entries in it
-        groups.remove(groupIndex);
+        for(Entry entry : group.getEntries()) {
+            entryPlaced(entry, general);
+        }
+
+        record(VaultJournal.REMOVE_GROUP, out -> {
+            out.writeInt(groupIndex);
+            BinaryVaultCodec.writeRecord(out, group.getId());
+        });
     }
 
     @JsonIgnore
     // List all the groups in this vault
-    public void listGroups(byte[] key) {
+    public void listGroups(CipherSession session) {
         if(!groups.isEmpty()) {
             System.out.println();
 
             for(int index = 0; index < groups.size(); index++) {
-                System.out.println((index + 1) + ". " + groups.get(index).getName(key));
+                System.out.println((index + 1) + ". " + groups.get(index).getName(session));
             }
 
             System.out.println();
@@ -305,7 +1206,7 @@ public class Vault {
     }
 
     // Check if a given group index is valid for this group
-    public int isValidGroupIndex(String groupWord, byte[] key) {
+    public int isValidGroupIndex(String groupWord, CipherSession session) {
         int groupIndex = -1;
 
         // Check if the user entered the group number
@@ -318,15 +1219,124 @@ public class Vault {
             }
         } catch(NumberFormatException e) {
             // Check if the user entered the group name
-            for(int index = 0; index < size(); index++) {
-                if(groupWord.equals(getGroup(index).getName(key).toLowerCase())) {
-                    groupIndex = index;
-                    break;
+            groupIndex = findGroup(groupWord, session);
+        }
+
+        return groupIndex;
+    }
+
+    // Find the group with the given name, ignoring case. Returns the index of the first one, or -1 if there is none.
+    // Takes a single lookup by the tag of the name once the groups are indexed
+    public int findGroup(String name, CipherSession session) {
+        if(groupNameIndex == null) {
+            HashMap<ByteBuffer, Integer> index = HashMap.newHashMap(groups.size());
+
+            for(int groupIndex = 0; groupIndex < groups.size(); groupIndex++) {
+                Group group = groups.get(groupIndex);
+
+                // Groups from before names were tagged are tagged here, which is saved when the vault is closed at the latest
+                if(group.getNameTag() == null && group.getEncryptedName() != null) {
+                    group.setNameTag(BlindIndex.tag(group.getName(session), session));
+                    backfilled = true;
+                }
+
+                if(group.getNameTag() != null) {
+                    index.putIfAbsent(ByteBuffer.wrap(group.getNameTag()), groupIndex);
                 }
             }
+
+            groupNameIndex = index;
         }
 
-        return groupIndex;
+        Integer groupIndex = groupNameIndex.get(ByteBuffer.wrap(BlindIndex.tag(name, session)));
+        return (groupIndex == null) ? -1 : groupIndex;
+    }
+
+    // Drop the index of the groups by name and add a group to the index by id, after the group was added
+    private void groupAdded(Group group) {
+        groupNameIndex = null;
+
+        if(groupIdIndex != null) {
+            groupIdIndex.put(ByteBuffer.wrap(group.getId()), group);
+        }
+    }
+
+    // Get the id of a group, which stays the same wherever the group is moved and across sessions
+    public byte[] getGroupId(int groupIndex) throws IndexOutOfBoundsException {
+        return getGroup(groupIndex).getId().clone();
+    }
+
+    // Find the group with the given id. Returns its index, or -1 if there is none. The group is found with a single
+    // lookup once the groups are indexed, but its index is found by comparing it against the groups in order, so this
+    // takes time linear in the amount of groups
+    public int findGroupById(byte[] id) {
+        if(groupIdIndex == null) {
+            HashMap<ByteBuffer, Group> index = HashMap.newHashMap(groups.size());
+
+            for(Group group : groups) {
+                index.putIfAbsent(ByteBuffer.wrap(group.getId()), group);
+            }
+
+            groupIdIndex = index;
+        }
+
+        Group group = groupIdIndex.get(ByteBuffer.wrap(id));
+        return (group == null) ? -1 : groups.indexOf(group);
+    }
+
+    @JsonIgnore
+    // Get the encrypted names of the groups, for looking them up and decrypting them ahead of use
+    private List<byte[]> getEncryptedGroupNames() {
+        List<byte[]> names = new ArrayList<>(groups.size());
+
+        for(Group group : groups) {
+            names.add(group.getEncryptedName());
+        }
+
+        return names;
+    }
+
+    // Find the entries holding the given text in their name, notes, username, URL or fingerprint, ignoring case. Returns
+    // the indexes of the matching entries by the index of their group, in order, leaving out groups without any
+    public Map<Integer, List<Integer>> search(String text, CipherSession session) {
+        SearchIndex.Query query = SearchIndex.query(text, session);
+        Map<Integer, List<Integer>> found = new LinkedHashMap<>();
+
+        for(int groupIndex = 0; groupIndex < groups.size(); groupIndex++) {
+            List<Integer> entries = groups.get(groupIndex).search(query, session);
+
+            if(!entries.isEmpty()) {
+                found.put(groupIndex, entries);
+            }
+        }
+
+        return found;
+    }
+
+    // Find the logins for the host of a URL, like a browser filling in a login would. Returns the logins for the same
+    // host first, then those for its parent domains (closest first), then those for other hosts of the same site.
+    // Takes a few lookups in the domain index of each group once the groups are indexed, without decrypting any URL
+    public List<DomainIndex.Match> matchUrl(String url, CipherSession session) {
+        byte[] hostTags = DomainIndex.hostTags(url, session);
+        List<DomainIndex.Match> matches = new ArrayList<>();
+
+        if(hostTags.length > 0) {
+            for(int groupIndex = 0; groupIndex < groups.size(); groupIndex++) {
+                groups.get(groupIndex).matchHost(hostTags, groupIndex, matches, session);
+            }
+
+            matches.sort(DomainIndex.Match.ORDER);
+        }
+
+        return matches;
+    }
+
+    // Decrypt the names of every group and of the entries of one group in the background, so listing the group and
+    // looking its entries up by name does not wait on decryption. The entries are read here, on the calling thread
+    public void warmNames(int groupIndex, CipherSession session) throws IndexOutOfBoundsException {
+        List<byte[]> names = getEncryptedGroupNames();
+        names.addAll(getGroup(groupIndex).getEncryptedEntryNames());
+        session.getNames().warm(names);
     }
 
     /****************************************************************************************************************/
@@ -335,25 +1345,123 @@ public class Vault {
 
     // Move an entry from one group to another
     public void moveEntry(int fromGroupIndex, int toGroupIndex, int entryIndex) throws IndexOutOfBoundsException {
-        if(fromGroupIndex < 0 || fromGroupIndex > groups.size()) {
+        if(fromGroupIndex < 0 || fromGroupIndex >= groups.size()) {
             throw new IndexOutOfBoundsException("Invalid from group index: " + fromGroupIndex);
         }
 
-        if(toGroupIndex < 0 || toGroupIndex > groups.size()) {
+        if(toGroupIndex < 0 || toGroupIndex >= groups.size()) {
             throw new IndexOutOfBoundsException("Invalid to group index:" + toGroupIndex);
         }
 
-        Entry entry = groups.get(fromGroupIndex).getEntry(entryIndex);
-        groups.get(toGroupIndex).addEntry(entry);
-        groups.get(fromGroupIndex).removeEntry(entryIndex);
+        Group fromGroup = groups.get(fromGroupIndex);
+        Group toGroup = groups.get(toGroupIndex);
+        Entry entry = fromGroup.getEntry(entryIndex);
+
+        // Taken out before it is added, so moving an entry to the end of its own group keeps it in the index by id
+        fromGroup.removeEntry(entryIndex);
+        toGroup.addEntry(entry);
+        entryPlaced(entry, toGroup);
+
+        record(VaultJournal.MOVE_ENTRY, out -> {
+            out.writeInt(fromGroupIndex);
+            out.writeInt(toGroupIndex);
+            out.writeInt(entryIndex);
+            BinaryVaultCodec.writeRecord(out, fromGroup.getId());
+            BinaryVaultCodec.writeRecord(out, toGroup.getId());
+            BinaryVaultCodec.writeRecord(out, entry.getId());
+        });
+    }
+
+    // Get the id of an entry, which stays the same wherever the entry is moved and across sessions
+    public byte[] getEntryId(int groupIndex, int entryIndex) throws IndexOutOfBoundsException {
+        return getGroup(groupIndex).getEntry(entryIndex).getId().clone();
+    }
+
+    // Find the entry with the given id. Returns the index of its group and its index in the group, or null if there is
+    // none. Only the group holding the entry is searched, but finding the indexes takes time linear in the amount of
+    // groups and the size of that group (see Group.findEntryById())
+    public int[] findEntryById(byte[] id) {
+        if(entryGroups == null) {
+            HashMap<ByteBuffer, Group> index = new HashMap<>();
+
+            for(Group group : groups) {
+                for(Entry entry : group.getEntries()) {
+                    index.put(ByteBuffer.wrap(entry.getId()), group);
+                }
+            }
+
+            entryGroups = index;
+        }
+
+        Group group = entryGroups.get(ByteBuffer.wrap(id));
+
+        if(group == null) {
+            return null;
+        }
+
+        return new int[] {findGroupById(group.getId()), group.findEntryById(id)};
+    }
+
+    // Note the group an entry was added or moved to in the index of the entries by id
+    private void entryPlaced(Entry entry, Group group) {
+        if(entryGroups != null) {
+            entryGroups.put(ByteBuffer.wrap(entry.getId()), group);
+        }
+    }
+
+    // Add an entry to the end of a group
+    public void addEntry(int groupIndex, Entry entry) throws IndexOutOfBoundsException {
+        Group group = getGroup(groupIndex);
+        group.addEntry(entry);
+        entryPlaced(entry, group);
+
+        record(VaultJournal.ADD_ENTRY, out -> {
+            out.writeInt(groupIndex);
+            BinaryVaultCodec.writeEntry(entry, out);
+        });
+    }
+
+    // Remove an entry from a group
+    public void removeEntry(int groupIndex, int entryIndex) throws IndexOutOfBoundsException {
+        Group group = getGroup(groupIndex);
+        Entry entry = group.getEntry(entryIndex);
+
+        if(!group.removeEntry(entryIndex)) {
+            throw new IndexOutOfBoundsException("Invalid entry index: " + entryIndex);
+        }
+
+        if(entryGroups != null) {
+            entryGroups.remove(ByteBuffer.wrap(entry.getId()));
+        }
+
+        record(VaultJournal.REMOVE_ENTRY, out -> {
+            out.writeInt(groupIndex);
+            out.writeInt(entryIndex);
+            BinaryVaultCodec.writeRecord(out, group.getId());
+            BinaryVaultCodec.writeRecord(out, entry.getId());
+        });
+    }
+
+    // Save an entry after its fields were changed through its setters
+    public void updateEntry(int groupIndex, int entryIndex) throws IndexOutOfBoundsException {
+        Group group = getGroup(groupIndex);
+        Entry entry = group.getEntry(entryIndex);
+        group.markDirty();
+
+        record(VaultJournal.UPDATE_ENTRY, out -> {
+            out.writeInt(groupIndex);
+            out.writeInt(entryIndex);
+            BinaryVaultCodec.writeEntry(entry, out);
+            BinaryVaultCodec.writeRecord(out, group.getId());
+        });
     }
 
     // List the entries of a group in the vault
-    public void listEntries(int groupIndex, byte[] key) throws IndexOutOfBoundsException {
-        if(groupIndex < 0 || groupIndex > groups.size()) {
+    public void listEntries(int groupIndex, CipherSession session) throws IndexOutOfBoundsException {
+        if(groupIndex < 0 || groupIndex >= groups.size()) {
             throw new IndexOutOfBoundsException("Invalid group index: " + groupIndex);
         }
 
-        groups.get(groupIndex).listEntries(key);
+        groups.get(groupIndex).listEntries(session);
     }
 }
@@ -0,0 +1,340 @@
+/*
+ * NAME: VaultCodec
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Reads and writes the JSON vault file with the Jackson streaming API. Shared by every load and write, and
+ *              produces the same file the ObjectMapper did, plus the blind index tag of every name (see BlindIndex) in a
+ *              "nameTag" property, the search filter of every entry (see SearchIndex) in a "searchFilter" property
+ *              and the host tags of every login (see DomainIndex) in a "hostTags" property, all of which older versions
+ *              skip, as well as the id of every group and entry in an "id" property. Groups and entries saved without
+ *              an id get one from their name (see Group.legacyId())
+ */
+
+package com.jgptech.Locals.Vault;
+
+import com.jgptech.Locals.Encryption.BlindIndex;
+import com.jgptech.Locals.Encryption.SearchIndex;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+final class VaultCodec {
+    // Factory for every parser and generator. Thread-safe once configured. Leaves the output stream open so the caller
+    // can force it to disk before closing it
+    private static final JsonFactory FACTORY = JsonFactory.builder().disable(StreamWriteFeature.AUTO_CLOSE_TARGET).build();
+
+    // Names of the entry types as stored in the "type" property
+    private static final String LOGIN = "login";
+    private static final String PAYMENT_CARD = "paymentCard";
+    private static final String SSH_KEY = "sshKey";
+    private static final String SECURE_NOTE = "secureNote";
+
+    // Property names of the fields of each entry type, in the order of getEncryptedFields()
+    private static final String[] LOGIN_FIELDS = {"name", "notes", "username", "password", "url"};
+    private static final String[] PAYMENT_CARD_FIELDS = {"name", "notes", "cardholderName", "cardNumber", "brand", "expireDate", "securityCode"};
+    private static final String[] SSH_KEY_FIELDS = {"name", "notes", "privateKey", "publicKey", "fingerprint"};
+    private static final String[] SECURE_NOTE_FIELDS = {"name", "notes"};
+
+    // Property names of the blind index tag of a group or entry name and of the search filter of an entry
+    private static final String NAME_TAG = "nameTag";
+    private static final String SEARCH_FILTER = "searchFilter";
+    private static final String HOST_TAGS = "hostTags";
+    private static final String ID = "id";
+
+
+    // Prevent instantiation
+    private VaultCodec() {}
+
+    // Read a vault from JSON
+    static Vault read(InputStream in) throws IOException {
+        try(JsonParser parser = FACTORY.createParser(in)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            Vault vault = new Vault();
+
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+
+                if(field.equals("groups")) {
+                    vault.setGroups(readGroups(parser));
+                } else if(!vault.readHeaderField(field, parser)) {
+                    // Unknown property, possibly from a newer version
+                    parser.skipChildren();
+                }
+            }
+
+            expect(parser, parser.currentToken(), JsonToken.END_OBJECT);
+            return vault;
+        }
+    }
+
+    // Write a vault as JSON
+    static void write(Vault vault, OutputStream out) throws IOException {
+        try(JsonGenerator generator = FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            // The pretty printer keeps state while writing, so each write gets its own
+            generator.setPrettyPrinter(new DefaultPrettyPrinter());
+
+            generator.writeStartObject();
+            vault.writeHeader(generator);
+
+            generator.writeArrayFieldStart("groups");
+
+            for(Group group : vault.getGroups()) {
+                writeGroup(group, generator);
+            }
+
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    // Read the array of groups
+    private static ArrayList<Group> readGroups(JsonParser parser) throws IOException {
+        ArrayList<Group> groups = new ArrayList<>();
+
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return groups;
+        }
+
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+
+        while(parser.nextToken() == JsonToken.START_OBJECT) {
+            groups.add(readGroup(parser));
+        }
+
+        expect(parser, parser.currentToken(), JsonToken.END_ARRAY);
+        return groups;
+    }
+
+    // Read a single group, with the parser on its START_OBJECT
+    private static Group readGroup(JsonParser parser) throws IOException {
+        Group group = new Group();
+        byte[] id = null;
+
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            switch(field) {
+                case "name" -> group.setEncryptedName(readBinary(parser));
+                case NAME_TAG -> group.setNameTag(readNameTag(parser));
+                case ID -> id = readId(parser);
+                case "entries" -> group.setEntries(readEntries(parser));
+                default -> parser.skipChildren();
+            }
+        }
+
+        expect(parser, parser.currentToken(), JsonToken.END_OBJECT);
+        group.setId(Group.isId(id) ? id : Group.legacyId(group.getEncryptedName()));
+        return group;
+    }
+
+    // Read the array of entries of a group
+    private static ArrayList<Entry> readEntries(JsonParser parser) throws IOException {
+        ArrayList<Entry> entries = new ArrayList<>();
+
+        if(parser.currentToken() == JsonToken.VALUE_NULL) {
+            return entries;
+        }
+
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+
+        while(parser.nextToken() == JsonToken.START_OBJECT) {
+            entries.add(readEntry(parser));
+        }
+
+        expect(parser, parser.currentToken(), JsonToken.END_ARRAY);
+        return entries;
+    }
+
+    // Read a single entry, with the parser on its START_OBJECT
+    private static Entry readEntry(JsonParser parser) throws IOException {
+        // The type is written first, but hand edited files may have it anywhere, so the fields are held until the end
+        String type = null;
+        Map<String, byte[]> values = new HashMap<>();
+
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+
+            if(field.equals("type")) {
+                type = parser.getValueAsString();
+            } else if(parser.currentToken() == JsonToken.VALUE_STRING || parser.currentToken() == JsonToken.VALUE_NULL) {
+                values.put(field, readBinary(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        expect(parser, parser.currentToken(), JsonToken.END_OBJECT);
+
+        Entry entry = newEntry(type, parser);
+        String[] names = fieldNames(entry);
+        byte[][] fields = new byte[names.length][];
+
+        for(int index = 0; index < names.length; index++) {
+            fields[index] = values.get(names[index]);
+        }
+
+        entry.setEncryptedFields(fields);
+
+        byte[] nameTag = values.get(NAME_TAG);
+        entry.setNameTag(BlindIndex.isTag(nameTag) ? nameTag : null);
+
+        byte[] searchFilter = values.get(SEARCH_FILTER);
+        entry.setSearchFilter(SearchIndex.isFilter(searchFilter) ? searchFilter : null);
+
+        if(entry instanceof Login login) {
+            byte[] hostTags = values.get(HOST_TAGS);
+            login.setHostTags(DomainIndex.isHostTags(hostTags) ? hostTags : null);
+        }
+
+        byte[] id = values.get(ID);
+        entry.setId(Group.isId(id) ? id : Group.legacyId(entry.getEncryptedName()));
+
+        return entry;
+    }
+
+    // Write a single group
+    private static void writeGroup(Group group, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        writeBinaryField(generator, "name", group.getEncryptedName());
+        writeNameTag(generator, group.getNameTag());
+        generator.writeBinaryField(ID, group.getId());
+        generator.writeArrayFieldStart("entries");
+
+        for(Entry entry : group.getEntries()) {
+            writeEntry(entry, generator);
+        }
+
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    // Write a single entry with its type first
+    private static void writeEntry(Entry entry, JsonGenerator generator) throws IOException {
+        String[] names = fieldNames(entry);
+        byte[][] fields = entry.getEncryptedFields();
+
+        generator.writeStartObject();
+        generator.writeStringField("type", typeName(entry));
+
+        for(int index = 0; index < names.length; index++) {
+            writeBinaryField(generator, names[index], fields[index]);
+        }
+
+        writeNameTag(generator, entry.getNameTag());
+
+        if(entry.getSearchFilter() != null) {
+            generator.writeBinaryField(SEARCH_FILTER, entry.getSearchFilter());
+        }
+
+        if(entry instanceof Login login && login.getHostTags() != null) {
+            generator.writeBinaryField(HOST_TAGS, login.getHostTags());
+        }
+
+        generator.writeBinaryField(ID, entry.getId());
+
+        generator.writeEndObject();
+    }
+
+    // Create an empty entry of the type stored in the file
+    private static Entry newEntry(String type, JsonParser parser) throws JsonParseException {
+        if(type == null) {
+            throw new JsonParseException(parser, "Entry is missing its type");
+        }
+
+        return switch(type) {
+            case LOGIN -> new Login();
+            case PAYMENT_CARD -> new PaymentCard();
+            case SSH_KEY -> new SSHKey();
+            case SECURE_NOTE -> new SecureNote();
+            default -> throw new JsonParseException(parser, "Unknown entry type: " + type);
+        };
+    }
+
+    // Get the name stored in the "type" property for an entry
+    private static String typeName(Entry entry) {
+        return switch(entry) {
+            case Login login -> LOGIN;
+            case PaymentCard card -> PAYMENT_CARD;
+            case SSHKey key -> SSH_KEY;
+            case SecureNote note -> SECURE_NOTE;
+            default -> throw new IllegalArgumentException("Unknown entry type: " + entry.getClass().getName());
+        };
+    }
+
+    // Get the property names of the fields of an entry
+    private static String[] fieldNames(Entry entry) {
+        return switch(entry) {
+            case Login login -> LOGIN_FIELDS;
+            case PaymentCard card -> PAYMENT_CARD_FIELDS;
+            case SSHKey key -> SSH_KEY_FIELDS;
+            case SecureNote note -> SECURE_NOTE_FIELDS;
+            default -> throw new IllegalArgumentException("Unknown entry type: " + entry.getClass().getName());
+        };
+    }
+
+    // Read a Base64 field, which may be null
+    private static byte[] readBinary(JsonParser parser) throws IOException {
+        return parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getBinaryValue();
+    }
+
+    // Write a Base64 field, or null if there is no value
+    private static void writeBinaryField(JsonGenerator generator, String name, byte[] value) throws IOException {
+        if(value == null) {
+            generator.writeNullField(name);
+        } else {
+            generator.writeBinaryField(name, value);
+        }
+    }
+
+    // Read the tag of a name, dropping one that is not well formed
+    private static byte[] readNameTag(JsonParser parser) throws IOException {
+        byte[] tag = (parser.currentToken() == JsonToken.VALUE_STRING) ? parser.getBinaryValue() : null;
+
+        if(tag == null) {
+            parser.skipChildren();
+        }
+
+        return BlindIndex.isTag(tag) ? tag : null;
+    }
+
+    // Read the id of a group, or null if it is not a Base64 string
+    private static byte[] readId(JsonParser parser) throws IOException {
+        if(parser.currentToken() == JsonToken.VALUE_STRING) {
+            return parser.getBinaryValue();
+        }
+
+        parser.skipChildren();
+        return null;
+    }
+
+    // Write the tag of a name, left out if the name was not tagged yet
+    private static void writeNameTag(JsonGenerator generator, byte[] tag) throws IOException {
+        if(tag != null) {
+            generator.writeBinaryField(NAME_TAG, tag);
+        }
+    }
+
+    // Check the parser is on the expected token
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if(actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + actual);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * NAME: VaultFormat
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Enum for the file formats a vault can be stored in
+ */
+
+package com.jgptech.Locals.Vault;
+
+public enum VaultFormat {
+    // Pretty printed JSON with every encrypted field as a Base64 string (version 1)
+    JSON(1),
+    // Binary container with raw encrypted records, a group index and the name tag and id of each group (version 5)
+    BINARY(5),
+    // Directory with a manifest and one file per group, so a write only replaces the groups that changed (version 2)
+    DIRECTORY(2);
+
+    // Version number of the format
+    private final int version;
+
+    // Constructor for VaultFormat
+    private VaultFormat(int version) {
+        this.version = version;
+    }
+
+    // Get the version number of the format
+    public int getVersion() {
+        return version;
+    }
+
+    // Get the format from its name as typed on the command line
+    public static VaultFormat fromName(String name) throws IllegalArgumentException {
+        for(VaultFormat format : VaultFormat.values()) {
+            if(format.name().equalsIgnoreCase(name)) {
+                return format;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown vault format: " + name);
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * NAME: VaultJournal
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Append-only journal of the changes made to a vault since its file was last written. Each change is one
+ *              small record, so saving an edit costs one append (and fsync) no matter how large the vault is. Records are
+ *              sealed as soon as the change is made and queued until flush(), so several changes share one append. The
+ *              journal is replayed after the vault is unlocked and folded back into the vault file when it gets too
+ *              large or old. Where the journal is kept is up to the store of the vault (see VaultStore)
+ *
+ *              File layout (big endian):
+ *                  magic "LCLJ", u16 version, journal id of the vault file it belongs to, i64 creation time (ms)
+ *                  then per change: i32 length, i32 CRC32C of the sealed record, sealed record
+ *              A sealed record is the change encrypted with the vault key:
+ *                  journal id, i64 sequence number, u8 operation, operation data
+ */
+
+package com.jgptech.Locals.Vault;
+
+import com.jgptech.Locals.Encryption.CipherSession;
+import com.jgptech.Locals.Encryption.VaultEncryptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+final class VaultJournal {
+    // Operations a record can hold
+    static final int ADD_GROUP = 1;
+    static final int REMOVE_GROUP = 2;
+    static final int MOVE_GROUP = 3;
+    static final int RENAME_GROUP = 4;
+    static final int ADD_ENTRY = 5;
+    static final int REMOVE_ENTRY = 6;
+    static final int MOVE_ENTRY = 7;
+    static final int UPDATE_ENTRY = 8;
+
+    // Length of the random id that ties a journal to one write of the vault file (bytes)
+    static final int ID_LENGTH = 16;
+
+    // Size and age after which the journal is folded back into the vault file
+    private static final long MAX_SIZE = 256 * 1024;
+    private static final Duration MAX_AGE = Duration.ofDays(1);
+
+    // First bytes of every journal file and the version of its layout
+    private static final byte[] MAGIC = {'L', 'C', 'L', 'J'};
+    private static final int VERSION = 1;
+
+    // Bytes before the first record
+    private static final int HEADER_LENGTH = MAGIC.length + Short.BYTES + ID_LENGTH + Long.BYTES;
+
+    // Bytes in front of every sealed record (length and checksum)
+    private static final int FRAME_LENGTH = 2 * Integer.BYTES;
+
+    // Largest sealed record accepted when reading (bytes)
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+    // Writes the data of one operation
+    @FunctionalInterface
+    interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Reads and applies the data of one operation
+    @FunctionalInterface
+    interface RecordReader {
+        void apply(int operation, DataInputStream in) throws IOException;
+    }
+
+    // Store the journal is kept in
+    private final VaultStore store;
+
+    // Id of the vault file this journal belongs to, or null for a vault file from before the journal
+    private byte[] id;
+
+    // Session the records are sealed with
+    private final CipherSession session;
+
+    // Sequence number of the next record
+    private long sequence = 0;
+
+    // Size of the journal file (bytes) and when it was started (ms since the epoch)
+    private long size = 0;
+    private long created = 0;
+
+    // Sealed records waiting for the next flush, and their size (bytes)
+    private final List<ByteBuffer> pending = new ArrayList<>();
+    private long pendingSize = 0;
+
+
+    // Constructor for the journal in a store, belonging to the vault committed with the given id
+    VaultJournal(VaultStore store, byte[] id, CipherSession session) {
+        this.store = store;
+        this.id = id;
+        this.session = session;
+    }
+
+    // Generate the id for a new write of the vault file, which makes any older journal stale
+    static byte[] newId() {
+        byte[] id = new byte[ID_LENGTH];
+        new SecureRandom().nextBytes(id);
+        return id;
+    }
+
+    // Apply every record in the journal file in order. Unless the vault is read-only (repair is false), a journal left
+    // from an older vault file is deleted and a damaged tail (from a write that was cut off) is dropped. Returns the
+    // amount of records applied
+    synchronized int replay(RecordReader reader, boolean repair) throws IOException {
+        ByteBuffer buffer = (id == null) ? null : store.readMutations();
+
+        if(buffer == null) {
+            return 0;
+        }
+
+        if(!belongsToVault(buffer)) {
+            // Every change in it is already in the vault file
+            if(repair) {
+                store.deleteMutations();
+            }
+
+            return 0;
+        }
+
+        created = buffer.getLong();
+        size = buffer.limit();
+        int applied = 0;
+
+        while(buffer.hasRemaining()) {
+            int start = buffer.position();
+            byte[] payload = unseal(buffer);
+
+            if(payload == null) {
+                System.out.println("Error: journal for this vault is damaged after " + applied + " changes, dropping the rest");
+                if(repair) {
+                    store.truncateMutations(start);
+                    size = start;
+                }
+
+                break;
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, ID_LENGTH + Long.BYTES, payload.length - ID_LENGTH - Long.BYTES));
+
+            try {
+                reader.apply(in.readUnsignedByte(), in);
+            } catch(IOException | IndexOutOfBoundsException e) {
+                System.out.println("Error: could not apply change " + (applied + 1) + " from the journal, dropping the rest: " + e.getMessage());
+                if(repair) {
+                    store.truncateMutations(start);
+                    size = start;
+                }
+
+                break;
+            } finally {
+                Arrays.fill(payload, (byte) 0);
+            }
+
+            sequence++;
+            applied++;
+        }
+
+        return applied;
+    }
+
+    // Seal a record and queue it for the next flush
+    synchronized void add(int operation, RecordWriter writer) throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.write(id);
+        out.writeLong(sequence);
+        out.writeByte(operation);
+        writer.write(out);
+
+        byte[] payload = bytes.toByteArray();
+        byte[] sealed;
+
+        try {
+            sealed = VaultEncryptor.encrypt(payload, session);
+        } finally {
+            Arrays.fill(payload, (byte) 0);
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_LENGTH + sealed.length);
+        frame.putInt(sealed.length).putInt(checksum(sealed)).put(sealed).flip();
+
+        pending.add(frame);
+        pendingSize += frame.limit();
+        sequence++;
+    }
+
+    // Append every queued record to the journal with a single write, forcing it to disk before returning if force is
+    // set. If the append fails the records stay queued
+    synchronized void flush(boolean force) throws IOException {
+        if(pending.isEmpty()) {
+            return;
+        }
+
+        // Nothing has been flushed to the file since it was last deleted, so it needs its header
+        boolean newFile = (size == 0);
+        List<ByteBuffer> buffers = new ArrayList<>(pending.size() + 1);
+
+        if(newFile) {
+            created = System.currentTimeMillis();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.put(MAGIC).putShort((short) VERSION).put(id).putLong(created).flip();
+            buffers.add(header);
+        }
+
+        buffers.addAll(pending);
+        long length = (newFile ? HEADER_LENGTH : 0) + pendingSize;
+
+        try {
+            store.appendMutations(buffers.toArray(new ByteBuffer[0]), force);
+        } catch(IOException e) {
+            // The store left no part of the records behind, so they can be appended again as they are
+            for(ByteBuffer frame : pending) {
+                frame.rewind();
+            }
+
+            throw e;
+        }
+
+        size += length;
+        pending.clear();
+        pendingSize = 0;
+    }
+
+    // Returns true if the journal is large or old enough to be folded back into the vault file
+    synchronized boolean isDue() {
+        long total = size + pendingSize;
+        return total >= MAX_SIZE || (size > 0 && System.currentTimeMillis() - created >= MAX_AGE.toMillis());
+    }
+
+    // Returns true if there are changes that have not been flushed to the journal file yet
+    synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    // Delete the journal once every change in it is in the vault file, and start over for the vault file with the given
+    // id
+    synchronized void reset(byte[] id) throws IOException {
+        store.deleteMutations();
+        this.id = id;
+        size = 0;
+        sequence = 0;
+        pending.clear();
+        pendingSize = 0;
+    }
+
+    // Check the header of the journal and whether it belongs to the vault file, leaving the buffer on the creation time
+    private boolean belongsToVault(ByteBuffer buffer) {
+        if(buffer.remaining() < HEADER_LENGTH) {
+            return false;
+        }
+
+        byte[] magic = new byte[MAGIC.length];
+        byte[] journalId = new byte[ID_LENGTH];
+        buffer.get(magic);
+        int version = Short.toUnsignedInt(buffer.getShort());
+        buffer.get(journalId);
+
+        return Arrays.equals(magic, MAGIC) && version == VERSION && Arrays.equals(journalId, id);
+    }
+
+    // Check and decrypt the next record. Returns null if it is cut off, damaged, or out of place
+    private byte[] unseal(ByteBuffer buffer) {
+        if(buffer.remaining() < FRAME_LENGTH) {
+            return null;
+        }
+
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+
+        if(length < VaultEncryptor.RECORD_OVERHEAD || length > MAX_RECORD_LENGTH || length > buffer.remaining()) {
+            return null;
+        }
+
+        byte[] sealed = new byte[length];
+        buffer.get(sealed);
+
+        if(checksum(sealed) != checksum) {
+            return null;
+        }
+
+        byte[] payload;
+
+        try {
+            payload = VaultEncryptor.decrypt(sealed, session);
+        } catch(GeneralSecurityException e) {
+            return null;
+        }
+
+        // The id and sequence number are inside the sealed record, so records cannot be moved between journals or reordered
+        ByteBuffer header = ByteBuffer.wrap(payload);
+
+        if(payload.length < ID_LENGTH + Long.BYTES + 1 || !Arrays.equals(payload, 0, ID_LENGTH, id, 0, ID_LENGTH) ||
+                header.getLong(ID_LENGTH) != sequence) {
+            Arrays.fill(payload, (byte) 0);
+            return null;
+        }
+
+        return payload;
+    }
+
+    // Get the CRC32C of a sealed record
+    private static int checksum(byte[] sealed) {
+        CRC32C crc = new CRC32C();
+        crc.update(sealed);
+        return (int) crc.getValue();
+    }
+}
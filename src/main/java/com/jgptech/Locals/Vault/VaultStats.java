@@ -0,0 +1,120 @@
+/*
+ * NAME: VaultStats
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Counts of what a vault holds and how well its fields compress, gathered by decrypting every field
+ */
+
+package com.jgptech.Locals.Vault;
+
+import com.jgptech.Locals.Encryption.CipherSession;
+import com.jgptech.Locals.Encryption.VaultEncryptor;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+public final class VaultStats {
+    // Amount of groups and entries in the vault
+    private int groups;
+    private long entries;
+
+    // Amount of encrypted fields, and how many of them were deflated before they were encrypted
+    private long fields;
+    private long deflatedFields;
+
+    // Size (in bytes) of the text of every field, of what was encrypted for them, and of the encrypted records
+    private long textBytes;
+    private long payloadBytes;
+    private long recordBytes;
+
+
+    // Prevent instantiation outside of of()
+    private VaultStats() {}
+
+    // Gather the stats of a vault. Reads the entries of every group
+    static VaultStats of(Vault vault, CipherSession session) throws GeneralSecurityException {
+        VaultStats stats = new VaultStats();
+
+        for(Group group : vault.getGroups()) {
+            stats.groups++;
+            stats.addField(group.getEncryptedName(), session);
+
+            for(Entry entry : group.getEntries()) {
+                stats.entries++;
+
+                for(byte[] field : entry.getEncryptedFields()) {
+                    stats.addField(field, session);
+                }
+            }
+        }
+
+        return stats;
+    }
+
+    // Count a single field, skipping missing ones
+    private void addField(byte[] encrypted, CipherSession session) throws GeneralSecurityException {
+        if(encrypted == null) {
+            return;
+        }
+
+        byte[] text = VaultEncryptor.decryptFieldBytes(encrypted, session);
+        int payload = encrypted.length - VaultEncryptor.RECORD_OVERHEAD;
+
+        // A field encrypted as it is has exactly its text as payload, a deflated one always has less
+        fields++;
+        deflatedFields += (payload < text.length) ? 1 : 0;
+        textBytes += text.length;
+        payloadBytes += payload;
+        recordBytes += encrypted.length;
+
+        Arrays.fill(text, (byte) 0);
+    }
+
+    // Get the amount of groups
+    public int getGroups() {
+        return groups;
+    }
+
+    // Get the amount of entries
+    public long getEntries() {
+        return entries;
+    }
+
+    // Get the amount of encrypted fields
+    public long getFields() {
+        return fields;
+    }
+
+    // Get the amount of fields that were deflated before they were encrypted
+    public long getDeflatedFields() {
+        return deflatedFields;
+    }
+
+    // Get the size (in bytes) of the text of every field
+    public long getTextBytes() {
+        return textBytes;
+    }
+
+    // Get the size (in bytes) of what was encrypted for every field, after deflating
+    public long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    // Get the size (in bytes) of the encrypted records, including the IV and tag of each
+    public long getRecordBytes() {
+        return recordBytes;
+    }
+
+    // Get how many times smaller the fields are for being deflated
+    public double getCompressionRatio() {
+        return payloadBytes == 0 ? 1 : (double) textBytes / payloadBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d groups, %d entries, %d fields (%d deflated)%n" +
+                             "Field text %d bytes, encrypted as %d bytes (compression ratio %.2f), %d bytes with IVs and tags",
+                             groups, entries, fields, deflatedFields, textBytes, payloadBytes, getCompressionRatio(), recordBytes);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * NAME: VaultStore
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Interface for where a vault is kept. A store holds the vault as of its last commit, plus a log of the
+ *              changes appended since (the journal, see VaultJournal) that is replayed once the vault is unlocked.
+ *              Stores are picked by the scheme of the location a vault is opened with (see VaultStores)
+ */
+
+package com.jgptech.Locals.Vault;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public interface VaultStore {
+    // Get the location of the store, as the vault was opened with
+    String getLocation();
+
+    // Get the format the vault is committed in
+    VaultFormat getFormat();
+
+    // Returns true if there is a committed vault in the store
+    boolean exists();
+
+    // Open the store for reading. Throws an IOException if there is no vault in it
+    void open() throws IOException;
+
+    // Read the fields of the vault that come before the groups. The vault has no groups yet
+    Vault readHeader() throws IOException;
+
+    // Get the amount of groups in the vault
+    int getGroupCount();
+
+    // Read one group. Stores that can leave the entries where they are until one is needed do so
+    Group readGroup(int groupIndex) throws IOException;
+
+    // Read every change appended since the last commit, or null if there are none
+    ByteBuffer readMutations() throws IOException;
+
+    // Append changes to the log with a single write, forcing them to disk before returning if force is set. If the
+    // append fails no part of it is left in the log
+    void appendMutations(ByteBuffer[] records, boolean force) throws IOException;
+
+    // Cut the log off after the given amount of bytes, dropping a damaged tail
+    void truncateMutations(long length) throws IOException;
+
+    // Drop the log, once every change in it is committed
+    void deleteMutations() throws IOException;
+
+    // Replace the committed vault with the given one, forcing it to disk before returning if force is set. A commit
+    // that fails leaves the previous vault in place
+    void commit(Vault vault, boolean force) throws IOException;
+
+    // Replace the header of the committed vault (see Vault.writeHeader(DataOutputStream)) with the one of the given
+    // vault, leaving its groups and the log as they are. The header is forced to disk before returning whatever the
+    // durability, since a header lost to a crash would leave the vault locked. Returns false if the store cannot replace
+    // the header on its own, in which case the whole vault has to be committed
+    boolean commitHeader(Vault vault) throws IOException;
+
+    // Force everything committed or appended without force to disk
+    void sync() throws IOException;
+
+    // Release the files held open by the store
+    void close() throws IOException;
+}
@@ -0,0 +1,109 @@
+/*
+ * NAME: VaultStores
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Picks the store for the location a vault is opened with. A location is a path, optionally with the
+ *              scheme of a store in front of it:
+ *                  file:PATH   single vault file in either format, read in full
+ *                  json:PATH   single vault file in the JSON format
+ *                  mmap:PATH   single vault file in the binary format, mapped so groups are only read once needed
+ *                  dir:PATH    vault directory with one file per group
+ *                  mem:NAME    vault kept in memory for as long as the program runs
+ *              Without a scheme the store is picked from what is at the path
+ */
+
+package com.jgptech.Locals.Vault;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public final class VaultStores {
+    // Prevent instantiation
+    private VaultStores() {}
+
+    // Get the store for a location. Without a scheme, binary vault files and the files of a vault directory are mapped
+    // if mapped is set and read in full if not
+    public static VaultStore forLocation(String location, boolean mapped) throws IllegalArgumentException {
+        int colon = location.indexOf(':');
+
+        // A single letter in front of the colon is a Windows drive, not a scheme
+        if(colon > 1) {
+            String scheme = location.substring(0, colon).toLowerCase();
+            String rest = location.substring(colon + 1);
+
+            switch(scheme) {
+                case "file" -> {
+                    return new FileVaultStore(location, toPath(rest), null);
+                }
+                case "json" -> {
+                    return new FileVaultStore(location, toPath(rest), VaultFormat.JSON);
+                }
+                case "mmap" -> {
+                    return new MappedVaultStore(location, toPath(rest));
+                }
+                case "dir" -> {
+                    return new DirectoryVaultStore(location, toPath(rest), true);
+                }
+                case "mem" -> {
+                    if(rest.isEmpty()) {
+                        throw new IllegalArgumentException("Missing name after mem:");
+                    }
+
+                    return new MemoryVaultStore(location, rest);
+                }
+                default -> {
+                    // Not a scheme, a file name with a colon in it
+                }
+            }
+        }
+
+        Path path = Paths.get(location);
+
+        if(Files.isDirectory(path)) {
+            return new DirectoryVaultStore(location, path, mapped);
+        } else if(detectFormat(path) == VaultFormat.JSON) {
+            return new FileVaultStore(location, path, VaultFormat.JSON);
+        } else if(mapped) {
+            return new MappedVaultStore(location, path);
+        }
+
+        return new FileVaultStore(location, path, null);
+    }
+
+    // Get the store for a path that holds, or is to hold, a vault in the given format. The vault is read in full
+    static VaultStore forFormat(Path path, VaultFormat format) {
+        if(format == VaultFormat.DIRECTORY) {
+            return new DirectoryVaultStore(path.toString(), path, false);
+        }
+
+        return new FileVaultStore(path.toString(), path, format);
+    }
+
+    // Get the format of a vault file, or null if there is no file to tell
+    static VaultFormat detectFormat(Path path) {
+        if(!Files.isRegularFile(path)) {
+            return null;
+        }
+
+        try(InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            return BinaryVaultCodec.isBinary(in) ? VaultFormat.BINARY : VaultFormat.JSON;
+        } catch(IOException e) {
+            // Reported when the store is opened
+            return null;
+        }
+    }
+
+    // Get the path after a scheme
+    private static Path toPath(String path) throws IllegalArgumentException {
+        if(path.isEmpty()) {
+            throw new IllegalArgumentException("Missing path after the scheme");
+        }
+
+        return Paths.get(path);
+    }
+}
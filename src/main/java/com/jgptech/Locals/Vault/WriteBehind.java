@@ -0,0 +1,135 @@
+/*
+ * NAME: WriteBehind
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Flushes the journal of a vault on a background thread shortly after it changes, so the shell does not
+ *              wait on the disk and a burst of edits is saved with a single append
+ */
+
+package com.jgptech.Locals.Vault;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+final class WriteBehind {
+    // Time without changes before the journal is flushed (ms)
+    private static final long QUIET_MILLIS = 500;
+
+    // Longest a change waits to be flushed while changes keep coming (ms)
+    private static final long MAX_DELAY_MILLIS = 3000;
+
+    // Journal being flushed
+    private final VaultJournal journal;
+
+    // When the flushes are forced to disk
+    private final Durability durability;
+
+    // Single thread the flushes run on
+    private final ScheduledExecutorService executor;
+
+    // Flushes the journal if the process is stopped before close()
+    private final Thread shutdownHook;
+
+    // Next scheduled flush, or null if nothing is waiting
+    private ScheduledFuture<?> scheduled;
+
+    // Time of the first change waiting for a flush (ms), or 0 if nothing is waiting
+    private long firstChange = 0;
+
+    // Whether the last background flush failed, so the error is only printed once
+    private volatile boolean failed = false;
+
+
+    // Constructor for flushing the given journal
+    WriteBehind(VaultJournal journal, Durability durability) {
+        this.journal = journal;
+        this.durability = durability;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vault-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.shutdownHook = new Thread(this::closeQuietly, "vault-writer-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    // Note that a record was added to the journal. The flush is pushed back until changes stop for a moment, but never
+    // more than MAX_DELAY_MILLIS after the first unsaved change
+    synchronized void changed() {
+        long now = System.currentTimeMillis();
+
+        if(firstChange == 0) {
+            firstChange = now;
+        }
+
+        if(scheduled != null) {
+            scheduled.cancel(false);
+        }
+
+        long delay = Math.min(QUIET_MILLIS, firstChange + MAX_DELAY_MILLIS - now);
+        scheduled = executor.schedule(this::flushQuietly, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+    }
+
+    // Flush every waiting record now, on the calling thread
+    void flush() throws IOException {
+        flush(durability.syncsEveryWrite());
+    }
+
+    // Flush every waiting record, forcing the journal to disk if force is set
+    private void flush(boolean force) throws IOException {
+        synchronized(this) {
+            if(scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+
+            firstChange = 0;
+        }
+
+        journal.flush(force);
+    }
+
+    // Flush every waiting record, forcing the journal to disk unless the durability leaves it to the OS, and stop the
+    // background thread
+    void close() throws IOException {
+        try {
+            flush(durability.syncsOnClose());
+        } finally {
+            executor.shutdown();
+
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch(IllegalStateException e) {
+                // Already shutting down, the hook flushes on its own
+            }
+        }
+    }
+
+    // Flush from the shutdown hook, forcing to disk the same way close() does
+    private void closeQuietly() {
+        try {
+            flush(durability.syncsOnClose());
+        } catch(IOException e) {
+            System.out.println("Error: could not save changes to the journal: " + e.getMessage());
+        }
+    }
+
+    // Flush from the background thread, where there is no caller to hand an error to. The records stay queued, so
+    // close() tries again
+    private void flushQuietly() {
+        try {
+            flush();
+            failed = false;
+        } catch(IOException e) {
+            if(!failed) {
+                System.out.println("Error: could not save changes to the journal, will try again on exit: " + e.getMessage());
+                failed = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * NAME: UnlockAgentTest
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Checks that the agent only binds its socket in a directory no other user can get into
+ */
+
+package com.jgptech.Locals.Agent;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class UnlockAgentTest {
+    private static final String OWNER = System.getProperty("user.name");
+
+    @TempDir
+    Path directory;
+
+
+    @BeforeEach
+    void requirePosix() {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+    }
+
+    @Test
+    void createsPrivateDirectory() throws IOException {
+        Path created = directory.resolve("home").resolve(".locals");
+
+        assertNull(UnlockAgent.secureDirectory(created, OWNER));
+        assertEquals("rwx------", permissions(created));
+    }
+
+    // A directory left open, as by an older version or a umask of 022, is closed before the socket is bound in it
+    @Test
+    void closesExistingDirectory() throws IOException {
+        Path existing = Files.createDirectory(directory.resolve(".locals"));
+        Files.setPosixFilePermissions(existing, PosixFilePermissions.fromString("rwxr-xr-x"));
+
+        assertNull(UnlockAgent.secureDirectory(existing, OWNER));
+        assertEquals("rwx------", permissions(existing));
+    }
+
+    @Test
+    void turnsDownOtherDirectories() throws IOException {
+        Path target = Files.createDirectory(directory.resolve("target"));
+        Files.setPosixFilePermissions(target, PosixFilePermissions.fromString("rwxrwxrwx"));
+        Path link = Files.createSymbolicLink(directory.resolve("link"), target);
+        Path file = Files.createFile(directory.resolve("file"));
+
+        assertNotNull(UnlockAgent.secureDirectory(link, OWNER));
+        assertNotNull(UnlockAgent.secureDirectory(file, OWNER));
+        assertNotNull(UnlockAgent.secureDirectory(target, OWNER + "-other"));
+        assertEquals("rwxrwxrwx", permissions(target));
+    }
+
+    // Get the permissions of a path as ls shows them
+    private static String permissions(Path path) throws IOException {
+        return PosixFilePermissions.toString(Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS));
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * NAME: Argon2HasherTest
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Checks Argon2Hasher and KeyHasher.deriveKey() byte for byte against the BouncyCastle
+ *              Argon2BytesGenerator, and the Vector API version of BlaMka against the scalar one. The build runs these
+ *              tests once without jdk.incubator.vector and once with it, so the hashes are checked with both versions
+ */
+
+package com.jgptech.Locals.Encryption;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class Argon2HasherTest {
+    // Size of a memory block in 64-bit words
+    private static final int BLOCK_WORDS = 128;
+
+    // Module holding the Vector API
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    private static final byte[] PASSWORD = "correct horse battery staple".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SALT = "0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+
+
+    // Memory sizes that are not a multiple of the lanes times the slices, that are exactly the minimum for the lanes,
+    // and lanes above one, which are filled concurrently
+    @ParameterizedTest
+    @CsvSource({
+            "8, 1, 1",
+            "33, 1, 1",
+            "33, 3, 2",
+            "32, 2, 4",
+            "1000, 2, 4",
+            "1000, 1, 3",
+            "1000, 3, 1",
+            "4096, 2, 8"
+    })
+    void hashMatchesBouncyCastle(int memory, int iterations, int lanes) {
+        KdfParameters parameters = new KdfParameters(HashingAlgorithm.Argon2, memory, iterations, lanes);
+
+        assertArrayEquals(bouncyCastleHash(PASSWORD, SALT, parameters, KeyHasher.KEY_LENGTH),
+                          Argon2Hasher.hash(PASSWORD, SALT, parameters, KeyHasher.KEY_LENGTH));
+    }
+
+    // Outputs up to 64 bytes are a single Blake2b hash, longer ones are chained
+    @ParameterizedTest
+    @ValueSource(ints = {4, 16, 64, 65, 100, 1024})
+    void outputLengthMatchesBouncyCastle(int outLength) {
+        KdfParameters parameters = new KdfParameters(HashingAlgorithm.Argon2, 64, 2, 2);
+
+        assertArrayEquals(bouncyCastleHash(PASSWORD, SALT, parameters, outLength),
+                          Argon2Hasher.hash(PASSWORD, SALT, parameters, outLength));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "33, 2, 1",
+            "1000, 2, 4",
+            "19456, 2, 1"
+    })
+    void deriveKeyMatchesBouncyCastle(int memory, int iterations, int lanes) {
+        KdfParameters parameters = new KdfParameters(HashingAlgorithm.Argon2, memory, iterations, lanes);
+        String password = "[p, ä, s, s, w, ö, r, d]";
+
+        assertArrayEquals(bouncyCastleHash(password.getBytes(StandardCharsets.UTF_8), SALT, parameters, KeyHasher.KEY_LENGTH),
+                          KeyHasher.deriveKey(password, SALT, parameters));
+    }
+
+    @Test
+    void scalarWithoutVectorModule() {
+        assumeFalse(ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent());
+        assertFalse(BlaMka.isVectorized());
+    }
+
+    @Test
+    void vectorWithVectorModule() {
+        assumeTrue(Boolean.getBoolean("locals.test.vector"));
+        assumeTrue(ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent());
+
+        // The hardware may still not have wide enough vectors
+        assertEquals(BlaMkaVector.isSupported(), BlaMka.isVectorized());
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void vectorBlockMatchesScalar(boolean withXor) {
+        assumeTrue(ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent());
+        Random random = new Random(withXor ? 1 : 0);
+
+        for(int round = 0; round < 100; round++) {
+            // Blocks at offsets inside larger arrays, like in the memory of a hash
+            long[] previous = randomWords(random, 3 * BLOCK_WORDS);
+            long[] reference = randomWords(random, 2 * BLOCK_WORDS);
+            long[] scalarNext = randomWords(random, 4 * BLOCK_WORDS);
+            long[] vectorNext = scalarNext.clone();
+
+            BlaMka.fillBlockScalar(previous, 2 * BLOCK_WORDS, reference, BLOCK_WORDS, scalarNext, 3 * BLOCK_WORDS, withXor,
+                                   new long[BLOCK_WORDS], new long[BLOCK_WORDS]);
+            BlaMkaVector.fillBlock(previous, 2 * BLOCK_WORDS, reference, BLOCK_WORDS, vectorNext, 3 * BLOCK_WORDS, withXor,
+                                   new long[BLOCK_WORDS], new long[BLOCK_WORDS]);
+
+            assertArrayEquals(scalarNext, vectorNext);
+        }
+    }
+
+    // Hash with the BouncyCastle Argon2id
+    private static byte[] bouncyCastleHash(byte[] password, byte[] salt, KdfParameters parameters, int outLength) {
+        Argon2Parameters argon2Parameters = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                .withSalt(salt)
+                .withMemoryAsKB(parameters.getMemory())
+                .withIterations(parameters.getIterations())
+                .withParallelism(parameters.getParallelism())
+                .build();
+
+        Argon2BytesGenerator generator = new Argon2BytesGenerator();
+        generator.init(argon2Parameters);
+
+        byte[] out = new byte[outLength];
+        generator.generateBytes(password, out);
+        return out;
+    }
+
+    // Get an array of random words
+    private static long[] randomWords(Random random, int length) {
+        long[] words = new long[length];
+
+        for(int word = 0; word < length; word++) {
+            words[word] = random.nextLong();
+        }
+
+        return words;
+    }
+}
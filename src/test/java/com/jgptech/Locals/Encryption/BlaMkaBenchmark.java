@@ -0,0 +1,95 @@
+/*
+ * NAME: BlaMkaBenchmark
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: JMH benchmark of the scalar and Vector API versions of BlaMka, on their own and inside a whole Argon2
+ *              key derivation. Run with mvn -P benchmark test
+ */
+
+package com.jgptech.Locals.Encryption;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class BlaMkaBenchmark {
+    // Size of a block in 64-bit words
+    private static final int BLOCK_WORDS = 128;
+
+    // Parameters of the whole key derivations, the least memory calibration settles on
+    private static final KdfParameters PARAMETERS = new KdfParameters(HashingAlgorithm.Argon2, 19456, 2, 1);
+
+    private long[] previous;
+    private long[] reference;
+    private long[] next;
+    private long[] scratchR;
+    private long[] scratchTmp;
+    private byte[] salt;
+
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        previous = randomWords(random);
+        reference = randomWords(random);
+        next = randomWords(random);
+        scratchR = new long[BLOCK_WORDS];
+        scratchTmp = new long[BLOCK_WORDS];
+        salt = KeyHasher.generateSalt();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long[] fillBlockScalar() {
+        BlaMka.fillBlockScalar(previous, 0, reference, 0, next, 0, true, scratchR, scratchTmp);
+        return next;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long[] fillBlockVector() {
+        BlaMkaVector.fillBlock(previous, 0, reference, 0, next, 0, true, scratchR, scratchTmp);
+        return next;
+    }
+
+    // Without the module BlaMka falls back to the scalar version
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(1)
+    public byte[] deriveKeyScalar() {
+        return KeyHasher.deriveKey("[p, w]", salt, PARAMETERS);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public byte[] deriveKeyVector() {
+        return KeyHasher.deriveKey("[p, w]", salt, PARAMETERS);
+    }
+
+    // Get a block of random words
+    private static long[] randomWords(Random random) {
+        long[] words = new long[BLOCK_WORDS];
+
+        for(int word = 0; word < BLOCK_WORDS; word++) {
+            words[word] = random.nextLong();
+        }
+
+        return words;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * NAME: KdfParametersTest
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Checks that KdfParameters turns down parameters Argon2 cannot run with, as read from a damaged vault
+ *              file, and how parameters are compared
+ */
+
+package com.jgptech.Locals.Encryption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KdfParametersTest {
+    @ParameterizedTest
+    @CsvSource({
+            // No lanes, which would divide by zero
+            "65536, 3, 0",
+            "65536, 3, -1",
+            // More lanes than Argon2 allows
+            "65536, 3, 16777216",
+            // The most lanes, which need more memory than fits in an array
+            "16777215, 3, 16777215",
+            // Less than 8 KB per lane
+            "31, 3, 4",
+            // Too much memory for its blocks to fit in an array
+            "16777216, 3, 4",
+            "2147483647, 3, 4",
+            "-1, 3, 4",
+            // No passes
+            "65536, 0, 4",
+            "65536, -5, 4"
+    })
+    void rejectsArgon2ParametersItCannotRunWith(int memory, int iterations, int parallelism) {
+        assertThrows(IllegalArgumentException.class, () -> new KdfParameters(HashingAlgorithm.Argon2, memory, iterations, parallelism));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "8, 1, 1",
+            "32, 1, 4",
+            "16777215, 1, 1",
+            "16777215, 1, 2097151"
+    })
+    void acceptsArgon2ParametersAtTheLimits(int memory, int iterations, int parallelism) {
+        // Only constructed, hashing with most of these would take far too much memory
+        assertDoesNotThrow(() -> new KdfParameters(HashingAlgorithm.Argon2, memory, iterations, parallelism));
+    }
+
+    @Test
+    void pbkdf2IgnoresMemoryAndLanes() {
+        assertDoesNotThrow(() -> new KdfParameters(HashingAlgorithm.PBKDF2, 0, 600000, 0));
+        assertThrows(IllegalArgumentException.class, () -> new KdfParameters(HashingAlgorithm.PBKDF2, 0, 0, 0));
+    }
+
+    @Test
+    void rejectsMissingAlgorithm() {
+        assertThrows(IllegalArgumentException.class, () -> new KdfParameters(null, 65536, 3, 4));
+    }
+
+    @Test
+    void weakerOnlyByMemoryAndIterations() {
+        KdfParameters base = new KdfParameters(HashingAlgorithm.Argon2, 65536, 3, 4);
+
+        assertTrue(new KdfParameters(HashingAlgorithm.Argon2, 32768, 3, 4).isWeakerThan(base));
+        assertTrue(new KdfParameters(HashingAlgorithm.Argon2, 65536, 2, 4).isWeakerThan(base));
+        assertFalse(new KdfParameters(HashingAlgorithm.Argon2, 65536, 3, 1).isWeakerThan(base));
+        assertFalse(new KdfParameters(HashingAlgorithm.Argon2, 65536, 3, 8).isWeakerThan(base));
+        assertTrue(new KdfParameters(HashingAlgorithm.PBKDF2, 0, 600000, 0).isWeakerThan(base));
+    }
+}
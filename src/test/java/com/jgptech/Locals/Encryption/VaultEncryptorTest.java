@@ -0,0 +1,56 @@
+/*
+ * NAME: VaultEncryptorTest
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Checks that fields encrypted from a String and from a char array make the same records, whichever way
+ *              they are decrypted, with and without compression
+ */
+
+package com.jgptech.Locals.Encryption;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VaultEncryptorTest {
+    // Fields that are empty, short, long enough to be deflated, and outside the Basic Multilingual Plane
+    private static final String[] FIELDS = {"", "hunter2", "notes ".repeat(100), "päss 🔑 ".repeat(60)};
+
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void stringAndCharFieldsMatch(boolean compress) throws GeneralSecurityException {
+        CipherSession session = new CipherSession(KeyHasher.generateKey());
+        session.setCompressFields(compress);
+
+        try {
+            for(String field : FIELDS) {
+                byte[] fromString = VaultEncryptor.encryptField(field, session);
+                byte[] fromChars = VaultEncryptor.encryptFieldChars(field.toCharArray(), session);
+
+                // Different IVs, same plaintext underneath
+                assertEquals(fromString.length, fromChars.length);
+                assertEquals(field, VaultEncryptor.decryptField(fromChars, session));
+                assertArrayEquals(field.toCharArray(), VaultEncryptor.decryptFieldChars(fromString, session));
+
+                // Deflated only when long enough and the session compresses fields
+                int length = field.getBytes(StandardCharsets.UTF_8).length;
+
+                if(compress && length >= VaultEncryptor.COMPRESSION_THRESHOLD) {
+                    assertTrue(fromString.length < VaultEncryptor.RECORD_OVERHEAD + length);
+                } else {
+                    assertEquals(VaultEncryptor.RECORD_OVERHEAD + length, fromString.length);
+                }
+            }
+        } finally {
+            session.close();
+        }
+    }
+}
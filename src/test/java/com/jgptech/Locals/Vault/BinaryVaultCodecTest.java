@@ -0,0 +1,261 @@
+/*
+ * NAME: BinaryVaultCodecTest
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Checks that a vault survives being converted from JSON to the binary format and back, that a cut off or
+ *              damaged binary file is turned down with an IOException rather than any other error, and that changing
+ *              the password only rewrites the header of a binary vault file
+ */
+
+package com.jgptech.Locals.Vault;
+
+import com.jgptech.Locals.Encryption.CipherSession;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryVaultCodecTest {
+    private static final String PASSWORD = "correct horse battery staple";
+    private static final String NEW_PASSWORD = "battery staple horse correct";
+
+    @TempDir
+    static Path directory;
+
+    // A vault with every type of entry in the JSON format, and the same vault in the binary format
+    private static byte[] json;
+    private static byte[] binary;
+
+
+    @BeforeAll
+    static void writeVault() throws IOException {
+        Path path = directory.resolve("vault.json");
+        Vault vault = new Vault("json:" + path, PASSWORD);
+        CipherSession session = vault.unlock(PASSWORD);
+        assertNotNull(session);
+
+        vault.addGroup(1, "Work", null, session);
+        vault.addEntry(0, new Login("Mail", "user", "hunter2", "https://mail.example.com", "", session));
+        vault.addEntry(0, new PaymentCard("Card", "A. Holder", "4111111111111111", "Visa", "01/30", "123", "", session));
+        vault.addEntry(1, new SSHKey("Server", "private", "public", "SHA256:abc", "notes", session));
+        vault.addEntry(1, new SecureNote("Note", "some notes", session));
+        assertTrue(vault.write());
+        vault.close();
+        session.close();
+
+        json = Files.readAllBytes(path);
+        binary = toBinary(VaultCodec.read(new ByteArrayInputStream(json)));
+    }
+
+    @Test
+    void jsonSurvivesBinaryAndBack() throws IOException {
+        Vault read = BinaryVaultCodec.read(new ByteArrayInputStream(binary));
+        assertEquals(new String(json, StandardCharsets.UTF_8), toJson(read));
+
+        // Mapped groups are only read once the entries are needed, writing them copies the bytes they were read from
+        Vault mapped = BinaryVaultCodec.map(ByteBuffer.wrap(binary));
+        assertArrayEquals(binary, toBinary(mapped));
+        assertEquals(new String(json, StandardCharsets.UTF_8), toJson(BinaryVaultCodec.map(ByteBuffer.wrap(binary))));
+    }
+
+    // Every length a file could be cut off at, as by a crash while copying it
+    @Test
+    void turnsDownCutOffFile() {
+        for(int length = 0; length < binary.length; length++) {
+            byte[] cutOff = Arrays.copyOf(binary, length);
+
+            assertThrows(IOException.class, () -> BinaryVaultCodec.read(new ByteArrayInputStream(cutOff)), "cut off at " + length);
+            assertThrows(IOException.class, () -> readMapped(cutOff), "cut off at " + length);
+        }
+    }
+
+    // Lengths and counts read from a damaged file are not trusted, whatever bytes they hold
+    @Test
+    void turnsDownDamagedFileCleanly() throws IOException {
+        Random random = new Random(4);
+
+        for(int attempt = 0; attempt < 5000; attempt++) {
+            byte[] damaged = binary.clone();
+            ByteBuffer buffer = ByteBuffer.wrap(damaged);
+
+            // A few random bytes, or a whole length that is negative, huge or just past the end
+            for(int change = 1 + random.nextInt(3); change > 0; change--) {
+                int position = random.nextInt(damaged.length - Integer.BYTES);
+
+                switch(random.nextInt(4)) {
+                    case 0 -> damaged[position] = (byte) random.nextInt();
+                    case 1 -> buffer.putInt(position, -1 - random.nextInt(Integer.MAX_VALUE));
+                    case 2 -> buffer.putInt(position, Integer.MAX_VALUE - random.nextInt(16));
+                    default -> buffer.putInt(position, damaged.length - position + random.nextInt(16));
+                }
+            }
+
+            readIfValid(damaged);
+        }
+    }
+
+    @Test
+    void turnsDownOtherFiles() {
+        byte[] newerVersion = binary.clone();
+        ByteBuffer.wrap(newerVersion).putShort(4, (short) (VaultFormat.BINARY.getVersion() + 1));
+
+        assertThrows(IOException.class, () -> BinaryVaultCodec.read(new ByteArrayInputStream(json)));
+        assertThrows(IOException.class, () -> BinaryVaultCodec.read(new ByteArrayInputStream(newerVersion)));
+        assertThrows(IOException.class, () -> BinaryVaultCodec.readHeaderLength(ByteBuffer.wrap(json)));
+    }
+
+    @Test
+    void turnsDownCutOffJson() {
+        for(int length = 0; length < json.length; length += 7) {
+            byte[] cutOff = Arrays.copyOf(json, length);
+            assertThrows(IOException.class, () -> VaultCodec.read(new ByteArrayInputStream(cutOff)), "cut off at " + length);
+        }
+    }
+
+    // Changing the password writes the new header over the old one, leaving the groups after it as they are
+    @Test
+    void passwordChangeRewritesOnlyHeader() throws IOException {
+        Path path = Files.write(directory.resolve("header.bin"), binary);
+        String location = "file:" + path;
+        int groupsOffset = groupsOffset(binary);
+
+        Vault vault = Vault.load(location);
+        CipherSession session = vault.unlock(PASSWORD);
+        assertNotNull(session);
+        assertTrue(vault.changePassword(NEW_PASSWORD, session));
+        vault.close();
+
+        byte[] changed = Files.readAllBytes(path);
+        assertEquals(binary.length, changed.length);
+        assertEquals(groupsOffset, groupsOffset(changed));
+        assertFalse(Arrays.equals(binary, 0, groupsOffset, changed, 0, groupsOffset));
+        assertArrayEquals(Arrays.copyOfRange(binary, groupsOffset, binary.length), Arrays.copyOfRange(changed, groupsOffset, changed.length));
+        assertFalse(Files.exists(Path.of(path + ".header")));
+
+        // Only the new password opens it, and the entries are still there
+        assertNull(Vault.load(location).unlock(PASSWORD));
+        Vault reopened = Vault.load(location);
+        CipherSession reopenedSession = reopened.unlock(NEW_PASSWORD);
+        assertNotNull(reopenedSession);
+        assertEquals("Server", reopened.getGroup(1).getEntry(0).getName(reopenedSession));
+
+        reopenedSession.close();
+        session.close();
+    }
+
+    // A header commit cut off after its copy was saved is finished the next time the file is opened, and a copy that
+    // was itself cut off is dropped
+    @Test
+    void finishesCutOffHeaderCommit() throws IOException {
+        Path path = Files.write(directory.resolve("recover.bin"), binary);
+        Path copyPath = Path.of(path + ".header");
+        int groupsOffset = groupsOffset(binary);
+
+        Vault vault = Vault.load("file:" + path);
+        CipherSession session = vault.unlock(PASSWORD);
+        assertTrue(vault.changePassword(NEW_PASSWORD, session));
+        byte[] header = Arrays.copyOfRange(Files.readAllBytes(path), BinaryVaultCodec.HEADER_OFFSET, groupsOffset - Integer.BYTES);
+        vault.close();
+        session.close();
+
+        ByteBuffer copy = ByteBuffer.allocate(2 * Integer.BYTES + header.length);
+        CRC32C crc = new CRC32C();
+        crc.update(header);
+        copy.putInt(header.length).putInt((int) crc.getValue()).put(header);
+
+        // Copy saved in full, vault file still has the old header
+        Files.write(path, binary);
+        Files.write(copyPath, copy.array());
+        assertNotNull(Vault.load("file:" + path).unlock(NEW_PASSWORD));
+        assertFalse(Files.exists(copyPath));
+
+        // Copy cut off, so the vault file keeps the old header
+        Files.write(path, binary);
+        Files.write(copyPath, Arrays.copyOf(copy.array(), copy.capacity() - 1));
+        assertNotNull(Vault.load("file:" + path).unlock(PASSWORD));
+        assertFalse(Files.exists(copyPath));
+        assertArrayEquals(binary, Files.readAllBytes(path));
+    }
+
+    // A store for a JSON file has no header to replace on its own
+    @Test
+    void jsonHasNoHeaderCommit() throws IOException {
+        Path path = Files.write(directory.resolve("header.json"), json);
+        VaultStore store = VaultStores.forLocation("json:" + path, false);
+        store.open();
+
+        assertFalse(store.commitHeader(store.readHeader()));
+        assertArrayEquals(json, Files.readAllBytes(path));
+    }
+
+    // Read a damaged file both ways, with the entries of every group. Turning it down is fine, failing with anything but
+    // an IOException is not
+    private static void readIfValid(byte[] file) {
+        try {
+            BinaryVaultCodec.read(new ByteArrayInputStream(file));
+        } catch(IOException e) {
+            // Turned down
+        }
+
+        try {
+            readMapped(file);
+        } catch(IOException e) {
+            // Turned down
+        }
+    }
+
+    // Map a file and read the entries of every group, which mapping leaves for later
+    private static Vault readMapped(byte[] file) throws IOException {
+        Vault vault = BinaryVaultCodec.map(ByteBuffer.wrap(file));
+
+        try {
+            for(Group group : vault.getGroups()) {
+                group.getEntries();
+            }
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        return vault;
+    }
+
+    // Get where the groups start in a binary vault file, after the header and the group count
+    private static int groupsOffset(byte[] file) throws IOException {
+        return BinaryVaultCodec.HEADER_OFFSET + BinaryVaultCodec.readHeaderLength(ByteBuffer.wrap(file)) + Integer.BYTES;
+    }
+
+    // Encode a vault in the binary format
+    private static byte[] toBinary(Vault vault) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryVaultCodec.write(vault, out);
+        return out.toByteArray();
+    }
+
+    // Encode a vault in the JSON format
+    private static String toJson(Vault vault) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VaultCodec.write(vault, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * NAME: VaultIdTest
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Checks that the ids of groups and entries keep pointing at them as they are added, moved and removed,
+ *              and that the journal brings back the same groups and entries, both from records that carry ids and from
+ *              records saved before they did
+ */
+
+package com.jgptech.Locals.Vault;
+
+import com.jgptech.Locals.Encryption.CipherSession;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.HexFormat;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VaultIdTest {
+    private static final String PASSWORD = "correct horse battery staple";
+
+    @TempDir
+    Path directory;
+
+    // Location of the vault, and the session it was unlocked with, which opens it again without another Argon2 run
+    private String location;
+    private CipherSession session;
+
+
+    // Write a vault with a few groups of entries, with nothing in its journal yet
+    @BeforeEach
+    void writeVault() {
+        location = "file:" + directory.resolve("vault.bin");
+        Vault vault = new Vault(location, PASSWORD);
+        session = vault.unlock(PASSWORD);
+
+        for(int groupIndex = 1; groupIndex < 4; groupIndex++) {
+            vault.addGroup(groupIndex, "group " + groupIndex, null, session);
+        }
+
+        for(int entryIndex = 0; entryIndex < 40; entryIndex++) {
+            vault.addEntry(entryIndex % 4, new SecureNote("entry " + entryIndex, "notes", session));
+        }
+
+        vault.write();
+        vault.close();
+    }
+
+    @AfterEach
+    void closeSession() {
+        session.close();
+    }
+
+    @Test
+    void idsFollowGroupsAndEntries() {
+        Vault vault = open();
+        Random random = new Random(1);
+
+        // Look every id up first, so the indexes are built and have to be kept up to date from then on
+        checkIds(vault);
+
+        for(int change = 0; change < 300; change++) {
+            randomChange(vault, random, change);
+            checkIds(vault);
+        }
+
+        vault.close();
+    }
+
+    @Test
+    void unknownIdsAreNotFound() {
+        Vault vault = open();
+
+        assertEquals(-1, vault.findGroupById(Group.newId()));
+        assertNull(vault.findEntryById(Group.newId()));
+
+        // A removed entry is gone from the index too
+        byte[] id = vault.getEntryId(1, 0);
+        vault.removeEntry(1, 0);
+        assertNull(vault.findEntryById(id));
+        vault.close();
+    }
+
+    @Test
+    void indexEqualToSizeIsTurnedDown() {
+        Vault vault = open();
+
+        assertThrows(IndexOutOfBoundsException.class, () -> vault.getGroup(vault.size()));
+        assertThrows(IndexOutOfBoundsException.class, () -> vault.getGroup(1).getEntry(vault.getGroup(1).size()));
+        assertThrows(IndexOutOfBoundsException.class, () -> vault.removeEntry(1, vault.getGroup(1).size()));
+        assertThrows(IndexOutOfBoundsException.class, () -> vault.moveEntry(1, vault.size(), 0));
+        vault.close();
+    }
+
+    @Test
+    void journalWithIdsReplaysToSameVault() {
+        Vault vault = open();
+        Random random = new Random(2);
+
+        for(int change = 0; change < 300; change++) {
+            randomChange(vault, random, change);
+        }
+
+        String expected = describe(vault);
+        vault.close();
+
+        Vault reopened = open();
+        assertEquals(expected, describe(reopened));
+        checkIds(reopened);
+        reopened.close();
+    }
+
+    // Journals saved before records carried ids hold only the indexes, which are applied as they are
+    @Test
+    void journalWithoutIdsReplaysByIndex() throws IOException, GeneralSecurityException {
+        // The same changes made to a copy of the vault that is not unlocked, so they are not saved anywhere
+        Vault expected = Vault.load(location);
+        expected.removeEntry(1, 2);
+        expected.moveEntry(2, 3, 0);
+        expected.moveGroup(3, 1);
+        expected.getGroup(2).getEntry(1).setName("renamed", session);
+        expected.updateEntry(2, 1);
+        expected.removeGroup(1);
+
+        Entry updated = expected.getGroup(1).getEntry(1);
+        VaultJournal journal = new VaultJournal(expected.getStore(), expected.getJournalId(), session);
+
+        journal.add(VaultJournal.REMOVE_ENTRY, out -> {
+            out.writeInt(1);
+            out.writeInt(2);
+        });
+        journal.add(VaultJournal.MOVE_ENTRY, out -> {
+            out.writeInt(2);
+            out.writeInt(3);
+            out.writeInt(0);
+        });
+        journal.add(VaultJournal.MOVE_GROUP, out -> {
+            out.writeInt(3);
+            out.writeInt(1);
+        });
+        journal.add(VaultJournal.UPDATE_ENTRY, out -> {
+            out.writeInt(2);
+            out.writeInt(1);
+            BinaryVaultCodec.writeEntry(updated, out);
+        });
+        journal.add(VaultJournal.REMOVE_GROUP, out -> out.writeInt(1));
+        journal.flush(true);
+
+        Vault replayed = open();
+        assertEquals(describe(expected), describe(replayed));
+        assertEquals("renamed", replayed.getGroup(1).getEntry(1).getName(session));
+        checkIds(replayed);
+        replayed.close();
+    }
+
+    // Records that carry ids are applied to the group and entry with those ids, wherever they are now
+    @Test
+    void idsWinOverIndexes() throws IOException, GeneralSecurityException {
+        Vault vault = Vault.load(location);
+        byte[] groupId = vault.getGroupId(2);
+        byte[] entryId = vault.getEntryId(2, 3);
+        byte[] firstId = vault.getEntryId(0, 0);
+
+        VaultJournal journal = new VaultJournal(vault.getStore(), vault.getJournalId(), session);
+        journal.add(VaultJournal.REMOVE_ENTRY, out -> {
+            out.writeInt(0);
+            out.writeInt(0);
+            BinaryVaultCodec.writeRecord(out, groupId);
+            BinaryVaultCodec.writeRecord(out, entryId);
+        });
+        journal.flush(true);
+
+        Vault replayed = open();
+        assertNull(replayed.findEntryById(entryId));
+        assertArrayEquals(new int[] {0, 0}, replayed.findEntryById(firstId));
+        assertEquals(9, replayed.getGroup(2).size());
+        replayed.close();
+    }
+
+    // Open the vault again and bring in its journal
+    private Vault open() {
+        Vault vault = Vault.load(location);
+        assertNotNull(vault);
+        vault.replayJournal(session);
+        return vault;
+    }
+
+    // Make one random change to a vault: add, remove, move or update an entry, or add, move or remove a group
+    private void randomChange(Vault vault, Random random, int change) {
+        int groupIndex = random.nextInt(vault.size());
+        Group group = vault.getGroup(groupIndex);
+
+        switch(random.nextInt(7)) {
+            case 0 -> vault.addEntry(groupIndex, new SecureNote("added " + change, "notes", session));
+            case 1 -> {
+                if(!group.isEmpty()) {
+                    vault.removeEntry(groupIndex, random.nextInt(group.size()));
+                }
+            }
+            case 2 -> {
+                if(!group.isEmpty()) {
+                    vault.moveEntry(groupIndex, random.nextInt(vault.size()), random.nextInt(group.size()));
+                }
+            }
+            case 3 -> vault.moveGroup(groupIndex, random.nextInt(vault.size()));
+            case 4 -> {
+                if(groupIndex > 0 && vault.size() > 2 && random.nextInt(4) == 0) {
+                    vault.removeGroup(groupIndex);
+                }
+            }
+            case 5 -> {
+                if(random.nextInt(3) == 0) {
+                    vault.addGroup(random.nextInt(vault.size() + 1), "added " + change, null, session);
+                }
+            }
+            default -> {
+                if(!group.isEmpty()) {
+                    int entryIndex = random.nextInt(group.size());
+                    group.getEntry(entryIndex).setName("updated " + change, session);
+                    vault.updateEntry(groupIndex, entryIndex);
+                }
+            }
+        }
+    }
+
+    // Check that the id of every group and entry leads back to it
+    private static void checkIds(Vault vault) {
+        for(int groupIndex = 0; groupIndex < vault.size(); groupIndex++) {
+            assertEquals(groupIndex, vault.findGroupById(vault.getGroupId(groupIndex)));
+
+            for(int entryIndex = 0; entryIndex < vault.getGroup(groupIndex).size(); entryIndex++) {
+                assertArrayEquals(new int[] {groupIndex, entryIndex}, vault.findEntryById(vault.getEntryId(groupIndex, entryIndex)));
+            }
+        }
+    }
+
+    // Describe the groups and entries of a vault in order, by id and name
+    private String describe(Vault vault) {
+        StringBuilder description = new StringBuilder();
+
+        for(int groupIndex = 0; groupIndex < vault.size(); groupIndex++) {
+            Group group = vault.getGroup(groupIndex);
+            description.append(HexFormat.of().formatHex(group.getId())).append(' ').append(group.getName(session)).append('\n');
+
+            for(int entryIndex = 0; entryIndex < group.size(); entryIndex++) {
+                Entry entry = group.getEntry(entryIndex);
+                description.append("  ").append(HexFormat.of().formatHex(entry.getId())).append(' ')
+                           .append(entry.getName(session)).append('\n');
+            }
+        }
+
+        return description.toString();
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * NAME: VaultJournalTest
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Checks that the journal only replays records it can trust: a record cut off by a crash, damaged, or out
+ *              of sequence ends the replay there, and a journal left from another write of the vault file is ignored.
+ *              Also checks that replaying the journal gives the same vault as writing it in full
+ */
+
+package com.jgptech.Locals.Vault;
+
+import com.jgptech.Locals.Encryption.CipherSession;
+import com.jgptech.Locals.Encryption.KeyHasher;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class VaultJournalTest {
+    private static final String PASSWORD = "correct horse battery staple";
+
+    // Bytes before the first record and in front of every record (see VaultJournal)
+    private static final int HEADER_LENGTH = 4 + Short.BYTES + VaultJournal.ID_LENGTH + Long.BYTES;
+    private static final int FRAME_LENGTH = 2 * Integer.BYTES;
+
+    // Memory store the journal is kept in, the id of the vault file it belongs to, and the key it is sealed with
+    private VaultStore store;
+    private byte[] id;
+    private CipherSession session;
+
+
+    @BeforeEach
+    void openStore() {
+        store = VaultStores.forLocation("mem:" + UUID.randomUUID(), false);
+        id = VaultJournal.newId();
+        session = new CipherSession(KeyHasher.generateKey());
+    }
+
+    @AfterEach
+    void closeSession() {
+        session.close();
+    }
+
+    @Test
+    void replaysEveryRecordInOrder() throws IOException, GeneralSecurityException {
+        writeRecords(0, 5);
+        assertEquals(List.of(0, 1, 2, 3, 4), replay(true));
+    }
+
+    // A crash while appending leaves part of the last record behind
+    @ParameterizedTest
+    @ValueSource(ints = {1, FRAME_LENGTH - 1, FRAME_LENGTH, FRAME_LENGTH + 5})
+    void dropsRecordCutOffByCrash(int kept) throws IOException, GeneralSecurityException {
+        writeRecords(0, 3);
+        int[] ends = recordEnds();
+        store.truncateMutations(ends[1] + kept);
+
+        assertEquals(List.of(0, 1), replay(true));
+
+        // The torn tail is gone, and records added after it follow on
+        assertEquals(ends[1], store.readMutations().limit());
+        VaultJournal journal = new VaultJournal(store, id, session);
+        journal.replay((operation, in) -> in.readInt(), true);
+        journal.add(VaultJournal.ADD_ENTRY, out -> out.writeInt(7));
+        journal.flush(true);
+
+        assertEquals(List.of(0, 1, 7), replay(true));
+    }
+
+    @Test
+    void readOnlyReplayLeavesTornTail() throws IOException, GeneralSecurityException {
+        writeRecords(0, 3);
+        store.truncateMutations(recordEnds()[2] - 1);
+        int length = store.readMutations().limit();
+
+        assertEquals(List.of(0, 1), replay(false));
+        assertEquals(length, store.readMutations().limit());
+    }
+
+    @Test
+    void dropsRecordWithBadChecksum() throws IOException, GeneralSecurityException {
+        writeRecords(0, 4);
+        byte[] journal = journalBytes();
+        int[] ends = recordEnds();
+
+        // Flip a bit in the checksum of the third record, then one in its sealed data
+        journal[ends[1] + Integer.BYTES] ^= 1;
+        replaceJournal(journal);
+        assertEquals(List.of(0, 1), replay(false));
+
+        journal[ends[1] + Integer.BYTES] ^= 1;
+        journal[ends[1] + FRAME_LENGTH + 3] ^= 1;
+        replaceJournal(journal);
+        assertEquals(List.of(0, 1), replay(true));
+        assertEquals(ends[1], store.readMutations().limit());
+    }
+
+    @Test
+    void dropsRecordWithImpossibleLength() throws IOException, GeneralSecurityException {
+        writeRecords(0, 2);
+        byte[] journal = journalBytes();
+        ByteBuffer.wrap(journal).putInt(recordEnds()[0], Integer.MIN_VALUE);
+        replaceJournal(journal);
+
+        assertEquals(List.of(0), replay(true));
+    }
+
+    // A record repeated or moved is checked and decrypted fine, but its sequence number gives it away
+    @Test
+    void dropsRecordOutOfSequence() throws IOException, GeneralSecurityException {
+        writeRecords(0, 3);
+        byte[] journal = journalBytes();
+        int[] ends = recordEnds();
+        ByteBuffer second = ByteBuffer.wrap(journal, ends[0], ends[1] - ends[0]);
+        ByteBuffer third = ByteBuffer.wrap(journal, ends[1], ends[2] - ends[1]);
+
+        // Third record before the second
+        replaceJournal(ByteBuffer.wrap(journal, 0, ends[0]), third.duplicate(), second.duplicate());
+        assertEquals(List.of(0), replay(false));
+
+        // Second record twice
+        replaceJournal(ByteBuffer.wrap(journal, 0, ends[1]), second.duplicate(), third.duplicate());
+        assertEquals(List.of(0, 1), replay(false));
+    }
+
+    // A record sealed for another journal of the same vault key fails the id inside it
+    @Test
+    void dropsRecordFromAnotherJournal() throws IOException, GeneralSecurityException {
+        writeRecords(0, 1);
+        byte[] journal = journalBytes();
+
+        byte[] otherId = VaultJournal.newId();
+        VaultJournal other = new VaultJournal(store, otherId, session);
+        store.deleteMutations();
+        other.add(VaultJournal.ADD_ENTRY, out -> out.writeInt(1));
+        other.flush(true);
+        byte[] foreign = journalBytes();
+
+        // The record from the other journal has the sequence number the next record of this one would have
+        replaceJournal(ByteBuffer.wrap(journal), ByteBuffer.wrap(foreign, HEADER_LENGTH, foreign.length - HEADER_LENGTH));
+        assertEquals(List.of(0), replay(false));
+    }
+
+    // Once the vault file is written again it gets a new id, so the old journal holds nothing new
+    @Test
+    void ignoresJournalOfAnotherVaultFile() throws IOException, GeneralSecurityException {
+        writeRecords(0, 3);
+        byte[] oldId = id;
+        id = VaultJournal.newId();
+
+        assertEquals(List.of(), replay(false));
+        assertNotNull(store.readMutations());
+
+        assertEquals(List.of(), replay(true));
+        assertNull(store.readMutations());
+
+        // Nor is it replayed by a vault file from before the journal
+        id = oldId;
+        writeRecords(0, 1);
+        id = null;
+        assertEquals(List.of(), replay(true));
+        assertNotNull(store.readMutations());
+    }
+
+    @Test
+    void ignoresJournalWithDamagedHeader() throws IOException, GeneralSecurityException {
+        writeRecords(0, 2);
+        byte[] journal = journalBytes();
+
+        // Unknown version
+        journal[5] = 2;
+        replaceJournal(journal);
+        assertEquals(List.of(), replay(false));
+
+        // Shorter than the header
+        replaceJournal(ByteBuffer.wrap(journalBytes(), 0, HEADER_LENGTH - 1));
+        assertEquals(List.of(), replay(false));
+    }
+
+    // A vault brought up to date by its journal is the same as the vault written in full with the same changes
+    @Test
+    void replayMatchesFullWrite() {
+        String location = "mem:" + UUID.randomUUID();
+        Vault vault = new Vault(location, PASSWORD);
+        CipherSession vaultSession = vault.unlock(PASSWORD);
+        assertNotNull(vaultSession);
+
+        for(int groupIndex = 1; groupIndex < 4; groupIndex++) {
+            vault.addGroup(groupIndex, "group " + groupIndex, null, vaultSession);
+        }
+
+        vault.write();
+        Random random = new Random(3);
+
+        for(int change = 0; change < 200; change++) {
+            int groupIndex = random.nextInt(vault.size());
+            Group group = vault.getGroup(groupIndex);
+
+            switch(random.nextInt(5)) {
+                case 0, 1 -> vault.addEntry(groupIndex, new SecureNote("entry " + change, "notes " + change, vaultSession));
+                case 2 -> {
+                    if(!group.isEmpty()) {
+                        vault.removeEntry(groupIndex, random.nextInt(group.size()));
+                    }
+                }
+                case 3 -> {
+                    if(!group.isEmpty()) {
+                        vault.moveEntry(groupIndex, random.nextInt(vault.size()), random.nextInt(group.size()));
+                    }
+                }
+                default -> {
+                    if(!group.isEmpty()) {
+                        int entryIndex = random.nextInt(group.size());
+                        group.getEntry(entryIndex).setName("updated " + change, vaultSession);
+                        vault.updateEntry(groupIndex, entryIndex);
+                    }
+                }
+            }
+        }
+
+        vault.renameGroup(2, "renamed", vaultSession);
+        vault.moveGroup(3, 0);
+        vault.removeGroup(1);
+        String expected = describe(vault);
+        vault.close();
+
+        // The changes are only in the journal
+        Vault committed = Vault.load(location);
+        assertNotEquals(expected, describe(committed));
+
+        Vault replayed = Vault.load(location);
+        replayed.replayJournal(vaultSession);
+        assertEquals(expected, describe(replayed));
+        replayed.close();
+
+        // The same vault written in full to another store
+        String copy = "mem:" + UUID.randomUUID();
+        vault.setStore(VaultStores.forLocation(copy, false));
+        vault.write();
+        assertEquals(expected, describe(Vault.load(copy)));
+
+        vaultSession.close();
+    }
+
+    // Add records holding the numbers from start up to end, and flush them with a single append each
+    private void writeRecords(int start, int end) throws IOException, GeneralSecurityException {
+        VaultJournal journal = new VaultJournal(store, id, session);
+        journal.replay((operation, in) -> in.readInt(), false);
+
+        for(int number = start; number < end; number++) {
+            int written = number;
+            journal.add(VaultJournal.ADD_ENTRY, out -> out.writeInt(written));
+            journal.flush(true);
+        }
+    }
+
+    // Replay the journal with a new journal for the current id, and get the numbers held by the records applied
+    private List<Integer> replay(boolean repair) throws IOException {
+        List<Integer> numbers = new ArrayList<>();
+        new VaultJournal(store, id, session).replay((operation, in) -> numbers.add(in.readInt()), repair);
+        return numbers;
+    }
+
+    // Get where each whole record in the journal ends
+    private int[] recordEnds() throws IOException {
+        ByteBuffer journal = store.readMutations();
+        List<Integer> ends = new ArrayList<>();
+
+        for(int position = HEADER_LENGTH; position + FRAME_LENGTH <= journal.limit(); ) {
+            position += FRAME_LENGTH + journal.getInt(position);
+
+            if(position > journal.limit()) {
+                break;
+            }
+
+            ends.add(position);
+        }
+
+        return ends.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Get a copy of the journal as it is in the store
+    private byte[] journalBytes() throws IOException {
+        ByteBuffer journal = store.readMutations();
+        byte[] bytes = new byte[journal.remaining()];
+        journal.get(bytes);
+        return bytes;
+    }
+
+    // Replace the journal in the store with the given bytes
+    private void replaceJournal(byte[] journal) throws IOException {
+        replaceJournal(ByteBuffer.wrap(journal));
+    }
+
+    // Replace the journal in the store with the given parts, in order
+    private void replaceJournal(ByteBuffer... parts) throws IOException {
+        store.deleteMutations();
+        store.appendMutations(parts, true);
+    }
+
+    // Describe the groups and entries of a vault in order, as they are encrypted
+    private static String describe(Vault vault) {
+        HexFormat hex = HexFormat.of();
+        StringBuilder description = new StringBuilder();
+
+        for(int groupIndex = 0; groupIndex < vault.size(); groupIndex++) {
+            Group group = vault.getGroup(groupIndex);
+            description.append(hex.formatHex(group.getId())).append(' ').append(hex.formatHex(group.getEncryptedName())).append('\n');
+
+            for(int entryIndex = 0; entryIndex < group.size(); entryIndex++) {
+                Entry entry = group.getEntry(entryIndex);
+                description.append("  ").append(hex.formatHex(entry.getId()));
+
+                for(byte[] field : entry.getEncryptedFields()) {
+                    description.append(' ').append(field == null ? "-" : hex.formatHex(field));
+                }
+
+                description.append('\n');
+            }
+        }
+
+        return description.toString();
+    }
+}
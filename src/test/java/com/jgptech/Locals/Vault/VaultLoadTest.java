@@ -0,0 +1,115 @@
+/*
+ * NAME: VaultLoadTest
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Checks that a vault file with key derivation parameters Argon2 cannot run with is turned down when it is
+ *              loaded, instead of crashing when it is unlocked
+ */
+
+package com.jgptech.Locals.Vault;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VaultLoadTest {
+    private static final String PASSWORD = "correct horse battery staple";
+
+    // Offset of the parallelism in the header of a binary vault file: the algorithm, the memory and the iterations
+    private static final int PARALLELISM_OFFSET = BinaryVaultCodec.HEADER_OFFSET + 1 + 2 * Integer.BYTES;
+
+    @TempDir
+    static Path directory;
+
+    // A JSON and a binary vault file, written once since every vault costs an Argon2 run
+    private static String json;
+    private static byte[] binary;
+
+
+    @BeforeAll
+    static void writeVaults() throws IOException {
+        json = Files.readString(writeVault("json:", "vault.json"));
+        binary = Files.readAllBytes(writeVault("file:", "vault.bin"));
+    }
+
+    @Test
+    void loadsUntouchedFiles() throws IOException {
+        assertNotNull(Vault.load("json:" + copy("good.json", json)));
+        assertNotNull(Vault.load("file:" + copy("good.bin", binary)));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "\"kdfParallelism\" : 0",
+            "\"kdfParallelism\" : 16777216",
+            "\"kdfMemory\" : 31",
+            "\"kdfMemory\" : 2147483647",
+            "\"kdfMemory\" : -65536",
+            "\"kdfIterations\" : 0",
+            "\"hashingAlgorithm\" : 7",
+            "\"hashingAlgorithm\" : -1",
+            "\"hashingAlgorithm\" : \"Scrypt\""
+    })
+    void turnsDownJsonWithBadParameters(String field) throws IOException {
+        String name = field.substring(0, field.indexOf(':') + 1);
+        String damaged = json.replaceFirst(name + " [^,\\n]+", Matcher.quoteReplacement(field));
+        assertTrue(damaged.contains(field));
+
+        assertNull(Vault.load("json:" + copy("damaged.json", damaged)));
+    }
+
+    // The header has no checksum, so other lanes are read as they are
+    @Test
+    void readsBinaryParallelismAsItIs() throws IOException {
+        byte[] changed = binary.clone();
+        ByteBuffer.wrap(changed).putInt(PARALLELISM_OFFSET, 2);
+
+        assertEquals(2, Vault.load("file:" + copy("changed.bin", changed)).getKdfParameters().getParallelism());
+    }
+
+    @ParameterizedTest
+    @CsvSource({"0", "-1", "16777216"})
+    void turnsDownBinaryWithBadParallelism(int parallelism) throws IOException {
+        byte[] damaged = binary.clone();
+        ByteBuffer.wrap(damaged).putInt(PARALLELISM_OFFSET, parallelism);
+        assertArrayEquals(new byte[] {'L', 'C', 'L', 'V'}, Arrays.copyOf(damaged, 4));
+
+        assertNull(Vault.load("file:" + copy("damaged.bin", damaged)));
+    }
+
+    // Create a vault in the given store and write it
+    private static Path writeVault(String scheme, String name) {
+        Path path = directory.resolve(name);
+        Vault vault = new Vault(scheme + path, PASSWORD);
+        assertNotNull(vault.unlock(PASSWORD));
+        assertTrue(vault.write());
+        vault.close();
+        return path;
+    }
+
+    // Write a copy of a vault file, replacing any earlier one
+    private static Path copy(String name, String contents) throws IOException {
+        return Files.writeString(directory.resolve(name), contents);
+    }
+
+    // Write a copy of a vault file, replacing any earlier one
+    private static Path copy(String name, byte[] contents) throws IOException {
+        return Files.write(directory.resolve(name), contents);
+    }
+}
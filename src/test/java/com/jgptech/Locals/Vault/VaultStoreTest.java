@@ -0,0 +1,248 @@
+/*
+ * NAME: VaultStoreTest
+ * AUTHOR: J. Pisani
+ * DATE: 10/18/26
+ *
+ * DESCRIPTION: Checks that every store gives back the vault committed to it, with the changes in its journal, after the
+ *              vault is closed and opened again
+ */
+
+package com.jgptech.Locals.Vault;
+
+import com.jgptech.Locals.Encryption.CipherSession;
+import com.jgptech.Locals.Encryption.VaultEncryptor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VaultStoreTest {
+    private static final String PASSWORD = "correct horse battery staple";
+
+    // Notes long enough to be deflated
+    private static final String NOTES = "notes ".repeat(100);
+
+    @TempDir
+    Path directory;
+
+
+    @ParameterizedTest
+    @ValueSource(strings = {"file:", "json:", "mmap:", "dir:", "mem:"})
+    void roundTrip(String scheme) throws IOException {
+        String location = locationFor(scheme);
+        Vault vault = new Vault(location, PASSWORD);
+        CipherSession session = vault.unlock(PASSWORD);
+        assertNotNull(session);
+        fill(vault, session);
+        assertTrue(vault.write());
+        String written = describe(vault, session);
+        assertTrue(vault.close());
+
+        // Committed in full
+        Vault reopened = Vault.load(location);
+        assertNotNull(reopened);
+        CipherSession reopenedSession = reopened.unlock(PASSWORD);
+        assertNotNull(reopenedSession);
+        assertEquals(written, describe(reopened, reopenedSession));
+        assertNull(reopened.getStore().readMutations());
+
+        // Changed through the journal
+        reopened.addEntry(2, new SecureNote("added", "notes", reopenedSession));
+        reopened.moveEntry(0, 1, 0);
+        reopened.renameGroup(1, "renamed", reopenedSession);
+        reopened.moveGroup(2, 0);
+        reopened.getGroup(0).getEntry(0).setName("updated", reopenedSession);
+        reopened.updateEntry(0, 0);
+        reopened.removeEntry(3, 1);
+        String changed = describe(reopened, reopenedSession);
+        assertTrue(reopened.close());
+
+        Vault replayed = open(location, session);
+        assertEquals(changed, describe(replayed, session));
+        assertNotNull(replayed.getStore().readMutations());
+
+        // Committed in full again, which folds the journal in
+        assertTrue(replayed.write());
+        assertTrue(replayed.close());
+        assertNull(Vault.load(location).getStore().readMutations());
+        Vault folded = open(location, session);
+        assertEquals(changed, describe(folded, session));
+        folded.close();
+
+        reopenedSession.close();
+        session.close();
+    }
+
+    // A group removed from a vault directory takes its file with it once the directory is written
+    @Test
+    void removedGroupLeavesDirectory() throws IOException {
+        Path path = directory.resolve("vault");
+        String location = "dir:" + path;
+        Vault vault = new Vault(location, PASSWORD);
+        CipherSession session = vault.unlock(PASSWORD);
+        fill(vault, session);
+        assertTrue(vault.write());
+        assertTrue(vault.close());
+
+        Vault reopened = open(location, session);
+        String removedId = HexFormat.of().formatHex(reopened.getGroupId(1));
+        assertEquals(1, groupFiles(path, removedId).size());
+
+        // Only in the journal so far, so the file stays until the next write
+        reopened.removeGroup(1);
+        String removed = describe(reopened, session);
+        assertTrue(reopened.close());
+        assertEquals(1, groupFiles(path, removedId).size());
+
+        Vault replayed = open(location, session);
+        assertEquals(removed, describe(replayed, session));
+        assertTrue(replayed.write());
+        assertTrue(replayed.close());
+
+        assertEquals(List.of(), groupFiles(path, removedId));
+        assertEquals(3, groupFiles(path, "").size());
+
+        Vault written = open(location, session);
+        assertEquals(removed, describe(written, session));
+        assertEquals(-1, written.findGroupById(HexFormat.of().parseHex(removedId)));
+        written.close();
+
+        session.close();
+    }
+
+    // Turning compression off inflates the fields already saved and encrypts later ones as they are, and the setting is
+    // kept in the header of every format
+    @ParameterizedTest
+    @ValueSource(strings = {"file:", "json:", "dir:"})
+    void compressionCanBeTurnedOff(String scheme) {
+        String location = locationFor(scheme);
+        Vault vault = new Vault(location, PASSWORD);
+        CipherSession session = vault.unlock(PASSWORD);
+        fill(vault, session);
+        assertTrue(vault.write());
+        assertTrue(vault.isCompressingFields());
+        assertTrue(longestField(vault) < NOTES.length());
+
+        assertNotNull(vault.compress(false, session));
+        assertEquals(NOTES.length() + VaultEncryptor.RECORD_OVERHEAD, longestField(vault));
+        String written = describe(vault, session);
+        assertTrue(vault.close());
+
+        // Changes in the journal follow the setting as well
+        Vault reopened = open(location, session);
+        assertFalse(reopened.isCompressingFields());
+        assertEquals(written, describe(reopened, session));
+        reopened.addEntry(0, new SecureNote("added", NOTES, session));
+        assertEquals(NOTES.length() + VaultEncryptor.RECORD_OVERHEAD, longestField(reopened));
+        String added = describe(reopened, session);
+        assertTrue(reopened.close());
+
+        Vault replayed = open(location, session);
+        assertEquals(added, describe(replayed, session));
+        assertEquals(NOTES.length() + VaultEncryptor.RECORD_OVERHEAD, longestField(replayed));
+
+        assertNotNull(replayed.compress(true, session));
+        assertTrue(longestField(replayed) < NOTES.length());
+        assertTrue(replayed.close());
+        assertTrue(open(location, session).isCompressingFields());
+
+        session.close();
+    }
+
+    // A location for a new vault in a store
+    private String locationFor(String scheme) {
+        return switch(scheme) {
+            case "mem:" -> scheme + UUID.randomUUID();
+            case "json:" -> scheme + directory.resolve("vault.json");
+            case "dir:" -> scheme + directory.resolve("vault");
+            default -> scheme + directory.resolve("vault.bin");
+        };
+    }
+
+    // Give a vault a few groups with entries of every type
+    private static void fill(Vault vault, CipherSession session) {
+        for(int groupIndex = 1; groupIndex < 4; groupIndex++) {
+            vault.addGroup(groupIndex, "group " + groupIndex, null, session);
+        }
+
+        for(int groupIndex = 0; groupIndex < 4; groupIndex++) {
+            vault.addEntry(groupIndex, new Login("login " + groupIndex, "user", "hunter2", "https://example.com", "", session));
+            vault.addEntry(groupIndex, new PaymentCard("card " + groupIndex, "A. Holder", "4111111111111111", "Visa", "01/30", "123", "", session));
+            vault.addEntry(groupIndex, new SSHKey("key " + groupIndex, "private", "public", "SHA256:abc", "", session));
+            vault.addEntry(groupIndex, new SecureNote("note " + groupIndex, NOTES, session));
+        }
+    }
+
+    // Open a vault again with the session it was unlocked with, which saves another Argon2 run, and bring in its journal
+    private static Vault open(String location, CipherSession session) {
+        Vault vault = Vault.load(location);
+        assertNotNull(vault);
+        assertTrue(vault.isUnlockedBy(session));
+        vault.replayJournal(session);
+        return vault;
+    }
+
+    // Get the length of the longest encrypted field in a vault
+    private static int longestField(Vault vault) {
+        int longest = 0;
+
+        for(Group group : vault.getGroups()) {
+            for(Entry entry : group.getEntries()) {
+                for(byte[] field : entry.getEncryptedFields()) {
+                    longest = Math.max(longest, (field == null) ? 0 : field.length);
+                }
+            }
+        }
+
+        return longest;
+    }
+
+    // Get the files of the groups in a vault directory whose name starts with the given group id
+    private static List<Path> groupFiles(Path directory, String id) throws IOException {
+        try(Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(id) && name.endsWith(".group");
+            }).toList();
+        }
+    }
+
+    // Describe the groups and entries of a vault in order, by id and decrypted fields
+    private static String describe(Vault vault, CipherSession session) {
+        HexFormat hex = HexFormat.of();
+        StringBuilder description = new StringBuilder();
+
+        for(int groupIndex = 0; groupIndex < vault.size(); groupIndex++) {
+            Group group = vault.getGroup(groupIndex);
+            description.append(hex.formatHex(group.getId())).append(' ').append(group.getName(session)).append('\n');
+
+            for(int entryIndex = 0; entryIndex < group.size(); entryIndex++) {
+                Entry entry = group.getEntry(entryIndex);
+                description.append("  ").append(hex.formatHex(entry.getId())).append(' ').append(entry.getClass().getSimpleName());
+
+                for(byte[] field : entry.getEncryptedFields()) {
+                    description.append(' ').append(field == null ? "-" : VaultEncryptor.decryptField(field, session));
+                }
+
+                description.append('\n');
+            }
+        }
+
+        return description.toString();
+    }
+}